@@ -0,0 +1,211 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/** The blame command of Gitlet, which finds the commit that introduced
+ *  each line of a file. Starting at the head commit, it walks first-parent
+ *  history to the commits that changed the file's blob, skipping the
+ *  others without loading them where their changed-path filters rule the
+ *  file out. At each change
+ *  the two versions are diffed by line: lines the commit inserted are
+ *  attributed to it, and the rest are followed into the parent's version.
+ *
+ *  The result for each file and blob is cached in the blame directory of
+ *  the repository, as the IDs of the commits that introduced its lines,
+ *  one per line. Once a walk reaches a version of the file whose blame is
+ *  cached, the remaining lines take their commits from the cache, so
+ *  blaming a file again after a few new commits only diffs those.
+ *  @author Raman Varma
+ */
+public class Blame {
+
+    /** The number of characters of a commit ID that are displayed. */
+    private static final int ABBREVIATED_LENGTH = 7;
+
+    /** Prints each line of the file named FILENAME as of the head commit,
+     *  preceded by the abbreviated ID of the commit that introduced it.
+     *  @param fileName - The name of the file. */
+    public static void blame(String fileName) {
+        ObjectId commitSHA1 = Main.REFS.headCommit();
+        Snapshot trackedFiles = Main.readCommit(commitSHA1).getTrackedFiles();
+        String blobSHA1 = trackedFiles == null ? null
+                : trackedFiles.get(fileName);
+        if (blobSHA1 == null) {
+            System.out.println("File does not exist in that commit.");
+            System.exit(0);
+        }
+        String[] lines = LineDiff.lines(Main.BLOBS.read(blobSHA1));
+        ObjectId[] origins = readCache(fileName, blobSHA1, lines.length);
+        if (origins == null) {
+            origins = attribute(fileName, commitSHA1, blobSHA1, lines);
+            writeCache(fileName, blobSHA1, origins);
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < lines.length; i += 1) {
+            out.append(origins[i].abbreviate(ABBREVIATED_LENGTH)).append(' ')
+                    .append(lines[i]).append('\n');
+        }
+        System.out.print(out);
+    }
+
+    /** @param fileName - The name of a file.
+     *  @param commitSHA1 - The ID of a commit tracking the file.
+     *  @param blobSHA1 - The ID of the file's blob in that commit.
+     *  @param lines - The lines of that blob.
+     *  @return The IDs of the commits that introduced each of LINES, found
+     *  by walking first-parent history from the commit with ID
+     *  COMMITSHA1. */
+    private static ObjectId[] attribute(String fileName, ObjectId commitSHA1,
+                                        String blobSHA1, String[] lines) {
+        ObjectId[] origins = new ObjectId[lines.length];
+        int[] pending = new int[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            pending[i] = i;
+        }
+        int remaining = lines.length;
+        String[] currentLines = lines;
+        while (remaining > 0) {
+            ObjectId parentSHA1;
+            String parentBlobSHA1;
+            while (true) {
+                ChangedPaths filter =
+                        ChangedPaths.read(Main.REPO, commitSHA1);
+                parentSHA1 = parentOf(commitSHA1, filter);
+                parentBlobSHA1 = null;
+                if (parentSHA1 == null) {
+                    break;
+                } else if (filter == null || filter.mightContain(fileName)) {
+                    parentBlobSHA1 = blobIn(parentSHA1, fileName);
+                    if (!blobSHA1.equals(parentBlobSHA1)) {
+                        break;
+                    }
+                }
+                commitSHA1 = parentSHA1;
+            }
+            if (parentBlobSHA1 == null) {
+                for (int line : pending) {
+                    if (line >= 0) {
+                        origins[line] = commitSHA1;
+                    }
+                }
+                break;
+            }
+            String[] parentLines = LineDiff.lines(
+                    Main.BLOBS.read(parentBlobSHA1));
+            int[] match = LineDiff.match(parentLines, currentLines);
+            int[] parentPending = new int[parentLines.length];
+            Arrays.fill(parentPending, -1);
+            for (int i = 0; i < currentLines.length; i += 1) {
+                if (pending[i] < 0) {
+                    continue;
+                } else if (match[i] < 0) {
+                    origins[pending[i]] = commitSHA1;
+                    remaining -= 1;
+                } else {
+                    parentPending[match[i]] = pending[i];
+                }
+            }
+            ObjectId[] cached = readCache(fileName, parentBlobSHA1,
+                    parentLines.length);
+            if (cached != null) {
+                for (int i = 0; i < parentLines.length; i += 1) {
+                    if (parentPending[i] >= 0) {
+                        origins[parentPending[i]] = cached[i];
+                    }
+                }
+                break;
+            }
+            commitSHA1 = parentSHA1;
+            blobSHA1 = parentBlobSHA1;
+            currentLines = parentLines;
+            pending = parentPending;
+        }
+        return origins;
+    }
+
+    /** @param commitSHA1 - The ID of a commit.
+     *  @param filter - The changed-path filter of that commit, or null.
+     *  @return The ID of the first parent of the commit with ID
+     *  COMMITSHA1, or null if it has none or the parent is not stored. The
+     *  parent is read from FILTER if there is one, so the commit itself
+     *  need not be loaded. */
+    private static ObjectId parentOf(ObjectId commitSHA1,
+                                     ChangedPaths filter) {
+        ObjectId parentSHA1 = filter != null ? filter.getParent()
+                : Main.readCommit(commitSHA1).getParent();
+        if (parentSHA1 == null
+                || !new File(Main.COMMITS, parentSHA1.toString()).exists()) {
+            return null;
+        }
+        return parentSHA1;
+    }
+
+    /** @param commitSHA1 - The ID of a commit, or null.
+     *  @param fileName - The name of a file.
+     *  @return The ID of the blob of the file named FILENAME in the commit
+     *  with ID COMMITSHA1, or null if that commit does not track it or
+     *  COMMITSHA1 is null. */
+    private static String blobIn(ObjectId commitSHA1, String fileName) {
+        if (commitSHA1 == null) {
+            return null;
+        }
+        Snapshot trackedFiles = Main.readCommit(commitSHA1).getTrackedFiles();
+        return trackedFiles == null ? null : trackedFiles.get(fileName);
+    }
+
+    /** @param fileName - The name of a file.
+     *  @param blobSHA1 - The ID of a blob of that file.
+     *  @return The cache file of the blame of that blob as that file. */
+    private static File cacheFile(String fileName, String blobSHA1) {
+        return new File(Main.REPO, "blame/" + Utils.sha1(fileName, blobSHA1));
+    }
+
+    /** @param fileName - The name of a file.
+     *  @param blobSHA1 - The ID of a blob of that file.
+     *  @param lineCount - The number of lines of that blob.
+     *  @return The cached IDs of the commits that introduced each line of
+     *  that blob, or null if they are not cached, are incomplete, or name a
+     *  commit that has since been pruned. */
+    private static ObjectId[] readCache(String fileName, String blobSHA1,
+                                        int lineCount) {
+        File cache = cacheFile(fileName, blobSHA1);
+        if (!cache.isFile()) {
+            return null;
+        }
+        String contents = Utils.readContentsAsString(cache);
+        String[] lines = contents.isEmpty() ? new String[0]
+                : contents.split("\n");
+        if (lines.length != lineCount) {
+            return null;
+        }
+        ObjectId[] origins = new ObjectId[lineCount];
+        Set<ObjectId> commits = new HashSet<>();
+        for (int i = 0; i < lineCount; i += 1) {
+            origins[i] = ObjectId.fromHex(lines[i]);
+            if (commits.add(origins[i])
+                    && !new File(Main.COMMITS, lines[i]).exists()) {
+                return null;
+            }
+        }
+        return origins;
+    }
+
+    /** Caches ORIGINS as the blame of the blob with ID BLOBSHA1 as the file
+     *  named FILENAME.
+     *  @param fileName - The name of the file.
+     *  @param blobSHA1 - The ID of the blob.
+     *  @param origins - The IDs of the commits that introduced each of its
+     *  lines. */
+    private static void writeCache(String fileName, String blobSHA1,
+                                   ObjectId[] origins) {
+        File cache = cacheFile(fileName, blobSHA1);
+        cache.getParentFile().mkdir();
+        StringJoiner contents = new StringJoiner("\n");
+        for (ObjectId origin : origins) {
+            contents.add(origin.toString());
+        }
+        Main.writeAtomically(cache, contents.toString());
+    }
+}
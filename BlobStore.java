@@ -0,0 +1,487 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/** The blobs of a Gitlet repository. A blob smaller than CHUNK_THRESHOLD
+ *  is stored whole in the files directory, named by its ID. A larger blob
+ *  is split by the Chunker into chunks stored in the chunks directory,
+ *  each named by the SHA1 ID of its contents, and is stored as a manifest
+ *  in the manifests directory listing its chunks in order. Chunks shared
+ *  by versions of a file, or by different files, are stored once.
+ *  Chunked blobs are reassembled by streaming their chunks, and no blob
+ *  is held in memory when checked out.
+ *
+ *  A repository created by a partial clone stores no blobs at first. Its
+ *  config names a promisor remote under PROMISOR, which has them all, and
+ *  a missing blob is copied from the promisor when it is first read. A
+ *  command that needs many blobs prefetches them in one batch.
+ *
+ *  A manifest is a binary file consisting of the int MAGIC, the int
+ *  VERSION, the long size of the blob, the int number of chunks, and for
+ *  each chunk its ID as a UTF string and its int length.
+ *  @author Raman Varma
+ */
+public class BlobStore {
+
+    /** Config key of the name of the remote from which missing blobs are
+     *  fetched. */
+    static final String PROMISOR = "remote.promisor";
+
+    /** Blobs of at least this many bytes are chunked. */
+    static final int CHUNK_THRESHOLD = 1 << 18;
+
+    /** First int of a manifest. */
+    private static final int MAGIC = 0x474c434d;
+
+    /** Version of the manifest format. */
+    private static final int VERSION = 1;
+
+    /** Creates the blob store of the repository whose .gitlet directory is
+     *  REPO.
+     *  @param repo - The .gitlet directory of the repository. */
+    public BlobStore(File repo) {
+        _repo = repo;
+        _files = new File(repo, "files");
+        _manifests = new File(repo, "manifests");
+        _chunks = new File(repo, "chunks");
+    }
+
+    /** @param blobSHA1 - The ID of a blob.
+     *  @return Whether the blob with ID BLOBSHA1 is stored. */
+    public boolean contains(String blobSHA1) {
+        return new File(_files, blobSHA1).exists()
+                || new File(_manifests, blobSHA1).exists();
+    }
+
+    /** @param blobSHA1 - The ID of a blob.
+     *  @return Whether the blob with ID BLOBSHA1 is stored, after fetching
+     *  it from the promisor remote if it was missing. */
+    public boolean available(String blobSHA1) {
+        if (!contains(blobSHA1)) {
+            prefetch(Collections.singletonList(blobSHA1));
+        }
+        return contains(blobSHA1);
+    }
+
+    /** @param blobSHA1 - The ID of a blob.
+     *  @return Whether the blob with ID BLOBSHA1 is missing but can be
+     *  fetched from the promisor remote. */
+    public boolean isPromised(String blobSHA1) {
+        return !contains(blobSHA1) && promisor() != null;
+    }
+
+    /** @return Whether this store fetches missing blobs from a promisor
+     *  remote. */
+    public boolean isPartial() {
+        return promisor() != null;
+    }
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @return Whether REPO is the promisor remote of this store. */
+    public boolean isPromisor(File repo) throws IOException {
+        return promisor() != null && _promisor._repo.getCanonicalFile()
+                .equals(repo.getCanonicalFile());
+    }
+
+    /** Copies those of the blobs with IDs in BLOBSHA1S that are missing from
+     *  the promisor remote, holding its lock shared once for all of them.
+     *  Does nothing if there is no promisor remote.
+     *  @param blobSHA1s - The IDs of the blobs. */
+    public void prefetch(Collection<String> blobSHA1s) {
+        List<String> missing = new ArrayList<>();
+        for (String blobSHA1 : blobSHA1s) {
+            if (!contains(blobSHA1)) {
+                missing.add(blobSHA1);
+            }
+        }
+        if (missing.isEmpty() || promisor() == null) {
+            return;
+        }
+        Metrics.Phase phase = Metrics.phase("prefetch");
+        RepoLock lock = RepoLock.shared(_promisor._repo);
+        try {
+            for (String blobSHA1 : missing) {
+                if (!_promisor.contains(blobSHA1)) {
+                    continue;
+                }
+                long size = _promisor.copyTo(blobSHA1, this);
+                Metrics.increment(Metrics.Counter.BLOBS_FETCHED);
+                Metrics.add(Metrics.Counter.BYTES_FETCHED, size);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            lock.close();
+            phase.close();
+        }
+    }
+
+    /** @return The blob store of the promisor remote, read from the config
+     *  the first time it is needed, or null if there is none. */
+    private synchronized BlobStore promisor() {
+        if (!_promisorRead) {
+            _promisorRead = true;
+            String remoteName = Config.read(_repo).get(PROMISOR, null);
+            String remoteDir = remoteName == null ? null
+                    : Remote.readRemotes(_repo).get(remoteName);
+            if (remoteDir != null && new File(remoteDir).isDirectory()) {
+                _promisor = new BlobStore(new File(remoteDir));
+            }
+        }
+        return _promisor;
+    }
+
+    /** Stores CONTENTS as the blob with ID BLOBSHA1, unless it is already
+     *  stored, chunking it if it is at least CHUNK_THRESHOLD bytes long.
+     *  @param blobSHA1 - The SHA1 ID of CONTENTS.
+     *  @param contents - The contents of the blob. */
+    public void write(String blobSHA1, byte[] contents) {
+        if (contains(blobSHA1)) {
+            return;
+        }
+        if (contents.length < CHUNK_THRESHOLD) {
+            Main.writeAtomically(new File(_files, blobSHA1),
+                    (Object) contents);
+            return;
+        }
+        _chunks.mkdir();
+        _manifests.mkdir();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            List<String> chunkIDs = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            for (int start = 0; start < contents.length;) {
+                int length = Chunker.nextChunkLength(contents, start,
+                        contents.length);
+                byte[] chunk = new byte[length];
+                System.arraycopy(contents, start, chunk, 0, length);
+                String chunkSHA1 = Utils.sha1((Object) chunk);
+                File chunkFile = new File(_chunks, chunkSHA1);
+                Metrics.increment(Metrics.Counter.CHUNKS);
+                Metrics.add(Metrics.Counter.BYTES_CHUNKED, length);
+                if (chunkFile.exists()) {
+                    Metrics.add(Metrics.Counter.BYTES_DEDUPLICATED, length);
+                } else {
+                    Main.writeAtomically(chunkFile, (Object) chunk);
+                }
+                chunkIDs.add(chunkSHA1);
+                lengths.add(length);
+                start += length;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(contents.length);
+            out.writeInt(chunkIDs.size());
+            for (int i = 0; i < chunkIDs.size(); i += 1) {
+                out.writeUTF(chunkIDs.get(i));
+                out.writeInt(lengths.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Main.writeAtomically(new File(_manifests, blobSHA1),
+                (Object) bytes.toByteArray());
+    }
+
+    /** @param blobSHA1 - The ID of a stored blob.
+     *  @return The contents of the blob with ID BLOBSHA1. */
+    public byte[] read(String blobSHA1) {
+        if (!available(blobSHA1)) {
+            missing(blobSHA1);
+        }
+        File file = new File(_files, blobSHA1);
+        if (file.isFile()) {
+            return Utils.readContents(file);
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        for (String chunkSHA1 : chunksOf(blobSHA1)) {
+            contents.writeBytes(Utils.readContents(
+                    new File(_chunks, chunkSHA1)));
+        }
+        return contents.toByteArray();
+    }
+
+    /** @param blobSHA1 - The ID of a stored blob.
+     *  @return A stream of the contents of the blob with ID BLOBSHA1, which
+     *  reads one chunk at a time. */
+    public InputStream open(String blobSHA1) throws IOException {
+        if (!available(blobSHA1)) {
+            missing(blobSHA1);
+        }
+        File file = new File(_files, blobSHA1);
+        if (file.isFile()) {
+            return Files.newInputStream(file.toPath());
+        }
+        Enumeration<String> ids = Collections.enumeration(chunksOf(blobSHA1));
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return ids.hasMoreElements();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(
+                            new File(_chunks, ids.nextElement()).toPath());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Fetches those of the blobs with IDs in BLOBSHA1S that are missing
+     *  as prefetch() does, and then prints an error message and exits if
+     *  any is still missing, so that a command can check all the blobs it
+     *  writes before it changes any file.
+     *  @param blobSHA1s - The IDs of the blobs. */
+    public void require(Collection<String> blobSHA1s) {
+        prefetch(blobSHA1s);
+        for (String blobSHA1 : blobSHA1s) {
+            if (!contains(blobSHA1)) {
+                missing(blobSHA1);
+            }
+        }
+    }
+
+    /** Prints the error message for the missing blob with ID BLOBSHA1 and
+     *  exits.
+     *  @param blobSHA1 - The ID of a blob. */
+    private static void missing(String blobSHA1) {
+        System.out.println("Blob " + blobSHA1 + " is missing; run fsck.");
+        System.exit(0);
+    }
+
+    /** Writes the contents of the blob with ID BLOBSHA1 to TARGET,
+     *  replacing it if it exists, in the way given by the checkout mode of
+     *  the repository's config. None of the modes read the contents into
+     *  memory: "copy" streams them through a buffer, "transfer" has the
+     *  operating system copy them with FileChannel.transferTo, and "link"
+     *  makes TARGET a hard link to a blob stored whole, after making the
+     *  blob read-only so that it cannot be changed through TARGET. Linking
+     *  falls back to transferring when it is not supported. A program that
+     *  writes TARGET in place, or ignores its permissions, as any program
+     *  run by root does, changes the stored blob with it, so a blob with
+     *  other links is hashed again before it is used, and if it was
+     *  changed, an error message is printed instead. If the blob is missing
+     *  and cannot be fetched, an error message is printed and TARGET is
+     *  left as it is.
+     *  @param blobSHA1 - The ID of a stored blob.
+     *  @param target - The file to write. */
+    public void writeTo(String blobSHA1, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        if (!available(blobSHA1)) {
+            missing(blobSHA1);
+        }
+        File file = new File(_files, blobSHA1);
+        try {
+            if (file.isFile() && linkCount(file) > 1
+                    && !ObjectReader.hash(file).equals(blobSHA1)) {
+                System.out.println("Blob " + blobSHA1 + " was changed "
+                        + "through a file linked to it; run fsck.");
+                System.exit(0);
+            }
+            Files.deleteIfExists(target.toPath());
+            String mode = checkoutMode();
+            if (mode.equals("link") && file.isFile()
+                    && link(file, target)) {
+                Metrics.increment(Metrics.Counter.FILES_LINKED);
+                return;
+            }
+            long size = 0;
+            if (mode.equals("copy")) {
+                try (InputStream in = open(blobSHA1);
+                     OutputStream out = Files.newOutputStream(
+                             target.toPath())) {
+                    size = in.transferTo(out);
+                }
+            } else {
+                try (FileChannel out = FileChannel.open(target.toPath(),
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE)) {
+                    if (file.isFile()) {
+                        size = transfer(file, out);
+                    } else {
+                        for (String chunkSHA1 : chunksOf(blobSHA1)) {
+                            size += transfer(new File(_chunks, chunkSHA1),
+                                    out);
+                        }
+                    }
+                }
+            }
+            Metrics.increment(Metrics.Counter.FILES_WRITTEN);
+            Metrics.add(Metrics.Counter.BYTES_READ, size);
+            Metrics.add(Metrics.Counter.BYTES_WRITTEN, size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes TARGET a hard link to the blob stored in FILE.
+     *  @param file - A blob stored whole.
+     *  @param target - A file that does not exist.
+     *  @return Whether the link was made. */
+    private static boolean link(File file, File target) {
+        try {
+            file.setReadOnly();
+            Files.createLink(target.toPath(), file.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** @param file - A file.
+     *  @return The number of hard links to FILE, or 1 if the file system
+     *  does not tell. */
+    static int linkCount(File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return 1;
+        }
+    }
+
+    /** Appends the contents of SOURCE to OUT with FileChannel.transferTo,
+     *  which lets the operating system copy them without passing them
+     *  through the heap.
+     *  @param source - The file to copy.
+     *  @param out - The channel to append to.
+     *  @return The number of bytes copied. */
+    private static long transfer(File source, FileChannel out)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return size;
+        }
+    }
+
+    /** @return The checkout mode of the repository, read from its config
+     *  the first time it is needed. */
+    private String checkoutMode() {
+        if (_checkoutMode == null) {
+            _checkoutMode = Config.read(_files.getParentFile())
+                    .get(Config.CHECKOUT_MODE, "transfer");
+        }
+        return _checkoutMode;
+    }
+
+    /** Copies the blob with ID BLOBSHA1 to OTHER, along with those of its
+     *  chunks that OTHER does not store yet. The manifest is copied last,
+     *  so OTHER never has a chunked blob without its chunks.
+     *  @param blobSHA1 - The ID of a stored blob.
+     *  @param other - The blob store of another repository.
+     *  @return The number of bytes copied. */
+    public long copyTo(String blobSHA1, BlobStore other) throws IOException {
+        if (other.contains(blobSHA1)) {
+            return 0;
+        }
+        if (!available(blobSHA1)) {
+            missing(blobSHA1);
+        }
+        File file = new File(_files, blobSHA1);
+        if (file.isFile()) {
+            Remote.copyAtomically(file, new File(other._files, blobSHA1));
+            return file.length();
+        }
+        long size = 0;
+        other._chunks.mkdir();
+        other._manifests.mkdir();
+        for (String chunkSHA1 : chunksOf(blobSHA1)) {
+            File chunk = new File(other._chunks, chunkSHA1);
+            if (!chunk.exists()) {
+                File source = new File(_chunks, chunkSHA1);
+                Remote.copyAtomically(source, chunk);
+                size += source.length();
+            }
+        }
+        File manifest = new File(_manifests, blobSHA1);
+        Remote.copyAtomically(manifest, new File(other._manifests, blobSHA1));
+        return size + manifest.length();
+    }
+
+    /** @param blobSHA1 - The ID of a blob.
+     *  @return The IDs of the chunks of the blob with ID BLOBSHA1, in
+     *  order, or an empty list if it is not chunked. */
+    public List<String> chunksOf(String blobSHA1) {
+        File manifest = new File(_manifests, blobSHA1);
+        List<String> chunkIDs = new ArrayList<>();
+        if (!manifest.isFile()) {
+            return chunkIDs;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(manifest.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("corrupt manifest "
+                        + blobSHA1);
+            }
+            in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                chunkIDs.add(in.readUTF());
+                in.readInt();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return chunkIDs;
+    }
+
+    /** @return The directory of whole blobs. */
+    File filesDir() {
+        return _files;
+    }
+
+    /** @return The directory of manifests of chunked blobs. */
+    File manifestsDir() {
+        return _manifests;
+    }
+
+    /** @return The directory of chunks. */
+    File chunksDir() {
+        return _chunks;
+    }
+
+    /** The .gitlet directory of the repository. */
+    private final File _repo;
+
+    /** Directory of blobs stored whole. */
+    private final File _files;
+
+    /** Directory of manifests of chunked blobs. */
+    private final File _manifests;
+
+    /** Directory of chunks. */
+    private final File _chunks;
+
+    /** The checkout mode of the repository, or null if not yet read. */
+    private String _checkoutMode;
+
+    /** Whether the promisor remote has been looked up. */
+    private boolean _promisorRead;
+
+    /** The blob store of the promisor remote, or null. */
+    private BlobStore _promisor;
+}
@@ -0,0 +1,214 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/** The changed-path Bloom filter of a commit: a compact set of the names
+ *  of the files the commit added, modified or removed relative to its
+ *  first parent, stored in the bloom directory of the repository under
+ *  the commit's ID together with the ID of that parent. A path-limited
+ *  walk of first-parent history reads only these small files, and loads
+ *  a commit only when its filter says it may have changed the path. A
+ *  Bloom filter never denies a path that is in it, so no commit that
+ *  touched the path is missed; the commits it wrongly admits are counted
+ *  as false positives in the metrics.
+ *
+ *  A filter file consists of the byte VERSION, the parent's ID as a UTF
+ *  string (empty for the initial commit), the int number of hash
+ *  functions, the int number of longs of the bit array, and the longs.
+ *  @author Raman Varma
+ */
+public class ChangedPaths {
+
+    /** Version of the filter format. */
+    private static final byte VERSION = 1;
+
+    /** The number of bits per changed path. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** The number of hash functions, which minimizes the false-positive
+     *  rate (about 1%) for BITS_PER_PATH. */
+    private static final int HASHES = 7;
+
+    /** A commit that changed more than this many paths stores a filter
+     *  that admits every path, rather than a large one. */
+    private static final int MAX_PATHS = 512;
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @param commitSHA1 - The ID of a commit of REPO.
+     *  @return The stored filter of the commit with ID COMMITSHA1, or null
+     *  if it has none. */
+    public static ChangedPaths read(File repo, ObjectId commitSHA1) {
+        File file = new File(repo, "bloom/" + commitSHA1);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            String parent = in.readUTF();
+            int hashes = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i += 1) {
+                bits[i] = in.readLong();
+            }
+            return new ChangedPaths(parent.isEmpty() ? null
+                    : ObjectId.fromHex(parent), hashes, bits);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Stores the filter of the commit with ID COMMITSHA1, which tracks
+     *  TRACKEDFILES and whose first parent tracks PARENTFILES, unless it is
+     *  already stored.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @param commitSHA1 - The ID of the commit.
+     *  @param parentSHA1 - The ID of its first parent, or null.
+     *  @param trackedFiles - The files tracked by the commit, or null.
+     *  @param parentFiles - The files tracked by the parent, or null. */
+    public static void write(File repo, ObjectId commitSHA1,
+                             ObjectId parentSHA1, Snapshot trackedFiles,
+                             Snapshot parentFiles) {
+        File dir = new File(repo, "bloom");
+        File file = new File(dir, commitSHA1.toString());
+        if (file.exists()) {
+            return;
+        }
+        Set<String> changed = changed(trackedFiles, parentFiles);
+        ChangedPaths filter;
+        if (changed.size() > MAX_PATHS) {
+            filter = new ChangedPaths(parentSHA1, 0, new long[0]);
+        } else {
+            int words = Math.max(1,
+                    (changed.size() * BITS_PER_PATH + 63) / 64);
+            filter = new ChangedPaths(parentSHA1, HASHES, new long[words]);
+            for (String path : changed) {
+                filter.add(path);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(parentSHA1 == null ? "" : parentSHA1.toString());
+            out.writeInt(filter._hashes);
+            out.writeInt(filter._bits.length);
+            for (long word : filter._bits) {
+                out.writeLong(word);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dir.mkdir();
+        Main.writeAtomically(file, (Object) bytes.toByteArray());
+    }
+
+    /** Stores the filter of the commit with ID COMMITSHA1 in REPO, reading
+     *  the commit and its first parent, unless it is already stored. A
+     *  parent missing from REPO counts as tracking no files.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @param commitSHA1 - The ID of the commit. */
+    public static void write(File repo, ObjectId commitSHA1) {
+        if (new File(repo, "bloom/" + commitSHA1).exists()) {
+            return;
+        }
+        Commit c = Remote.readCommit(repo, commitSHA1);
+        Snapshot parentFiles = null;
+        if (c.getParent() != null
+                && new File(repo, "commits/" + c.getParent()).exists()) {
+            parentFiles = Remote.readCommit(repo, c.getParent())
+                    .getTrackedFiles();
+        }
+        write(repo, commitSHA1, c.getParent(), c.getTrackedFiles(),
+                parentFiles);
+    }
+
+    /** @param trackedFiles - The files tracked by a commit, or null.
+     *  @param parentFiles - The files tracked by its parent, or null.
+     *  @return The names of the files added, modified or removed between
+     *  PARENTFILES and TRACKEDFILES. */
+    static Set<String> changed(Snapshot trackedFiles, Snapshot parentFiles) {
+        Set<String> changed = new HashSet<>();
+        Snapshot files = trackedFiles == null ? Snapshot.EMPTY : trackedFiles;
+        files.diff(parentFiles, (fileName, ours, theirs) ->
+                changed.add(fileName));
+        return changed;
+    }
+
+    /** Creates a filter.
+     *  @param parent - The ID of the commit's first parent, or null.
+     *  @param hashes - The number of hash functions, or 0 for a filter
+     *  admitting every path.
+     *  @param bits - The bit array. */
+    private ChangedPaths(ObjectId parent, int hashes, long[] bits) {
+        _parent = parent;
+        _hashes = hashes;
+        _bits = bits;
+    }
+
+    /** @return The ID of the first parent of the commit, or null. */
+    public ObjectId getParent() {
+        return _parent;
+    }
+
+    /** @param path - The name of a file.
+     *  @return False if the commit certainly did not change PATH, and true
+     *  if it may have. */
+    public boolean mightContain(String path) {
+        if (_hashes == 0) {
+            return true;
+        }
+        long hash = hash(path);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = (long) _bits.length * 64;
+        for (int i = 0; i < _hashes; i += 1) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Adds PATH to this filter.
+     *  @param path - The name of a file. */
+    private void add(String path) {
+        long hash = hash(path);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long size = (long) _bits.length * 64;
+        for (int i = 0; i < _hashes; i += 1) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /** @param path - The name of a file.
+     *  @return The 64-bit FNV-1a hash of the UTF-8 bytes of PATH, whose
+     *  halves seed the hash functions by double hashing. */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** The ID of the first parent of the commit, or null. */
+    private final ObjectId _parent;
+
+    /** The number of hash functions, or 0 if every path is admitted. */
+    private final int _hashes;
+
+    /** The bit array. */
+    private final long[] _bits;
+}
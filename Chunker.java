@@ -0,0 +1,74 @@
+/** A FastCDC content-defined chunker. Chunk boundaries are placed where a
+ *  rolling "gear" hash of the last 64 bytes matches a mask, so they depend
+ *  only on nearby content: an insertion or deletion in a large file moves
+ *  the boundaries around it and leaves the chunks elsewhere unchanged.
+ *  Chunking is normalized, using a stricter mask before the average chunk
+ *  size and a looser one after it, which keeps chunk sizes close to the
+ *  average.
+ *  @author Raman Varma
+ */
+public class Chunker {
+
+    /** The smallest chunk, in bytes, except for the last chunk of a file. */
+    static final int MIN_SIZE = 1 << 13;
+
+    /** The average chunk size in bytes. */
+    static final int AVERAGE_SIZE = 1 << 15;
+
+    /** The largest chunk, in bytes. */
+    static final int MAX_SIZE = 1 << 17;
+
+    /** Mask used before AVERAGE_SIZE: two more bits than the average size
+     *  calls for, so boundaries are less likely. The mask covers high bits
+     *  of the hash, which depend on the most bytes. */
+    private static final long MASK_SMALL = 0xffff_8000_0000_0000L;
+
+    /** Mask used after AVERAGE_SIZE: two fewer bits than the average size
+     *  calls for, so boundaries are more likely. */
+    private static final long MASK_LARGE = 0xfff8_0000_0000_0000L;
+
+    /** @param data - The contents being chunked.
+     *  @param start - The start of the next chunk in DATA.
+     *  @param end - The end of the contents in DATA.
+     *  @return The length of the chunk of DATA starting at START. */
+    static int nextChunkLength(byte[] data, int start, int end) {
+        int remaining = end - start;
+        if (remaining <= MIN_SIZE) {
+            return remaining;
+        }
+        int limit = Math.min(remaining, MAX_SIZE);
+        int normal = Math.min(limit, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Random values mixed into the hash for each byte value. They are
+     *  generated by SplitMix64 from a fixed seed, so every repository
+     *  places boundaries in the same places and chunks deduplicate across
+     *  repositories. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+}
@@ -1,12 +1,34 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
 
-/** Commit class that creates Gitlet commit objects.
+/** Commit class that creates Gitlet commit objects. In memory the tracked
+ *  files are a Snapshot and the IDs are ObjectIds; on disk they remain the
+ *  HashMap and String fields that commits have always been serialized
+ *  with, so that commits written before and after the change can be read
+ *  by either.
  *  @author Raman Varma
  */
 public class Commit implements Serializable {
 
+    /** The serial version of commits written before the tracked files
+     *  were kept as a Snapshot, which the serialized form still matches. */
+    private static final long serialVersionUID = 355382032657970181L;
+
+    /** The serialized fields, which are those of the original class. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("_parent", String.class),
+        new ObjectStreamField("_message", String.class),
+        new ObjectStreamField("_timestamp", Date.class),
+        new ObjectStreamField("_trackedFiles", HashMap.class),
+        new ObjectStreamField("_mergedInParent", String.class),
+        new ObjectStreamField("_commitSHA1", String.class),
+    };
+
     /** Commit object constructor.
      *  @param parent - The SHA1 ID of the parent of this commit.
      *  @param message - The log message of this commit.
@@ -15,9 +37,9 @@ public class Commit implements Serializable {
      *  @param mergedInParent - The SHA1 ID of the merged-in parent of
      *  this commit.
      *  @param commitSHA1 - The SHA1 ID of this commit. */
-    public Commit(String parent, String message, Date timestamp,
-                  HashMap<String, String> trackedFiles, String mergedInParent,
-                  String commitSHA1) {
+    public Commit(ObjectId parent, String message, Date timestamp,
+                  Snapshot trackedFiles, ObjectId mergedInParent,
+                  ObjectId commitSHA1) {
         _parent = parent;
         _message = message;
         _timestamp = timestamp;
@@ -26,8 +48,25 @@ public class Commit implements Serializable {
         _commitSHA1 = commitSHA1;
     }
 
+    /** @param parent - The ID of the parent of a commit, or null for the
+     *  initial commit.
+     *  @param message - The log message of the commit.
+     *  @param timestamp - The timestamp of the commit.
+     *  @param trackedFiles - The files tracked by the commit, or null for
+     *  the initial commit.
+     *  @return The ID of the commit, which hashes TRACKEDFILES as the Java
+     *  serialization of the HashMap made by Snapshot.toHashMap(). */
+    static ObjectId id(ObjectId parent, String message, Date timestamp,
+                       Snapshot trackedFiles) {
+        if (trackedFiles == null) {
+            return Utils.sha1Id(message, timestamp.toString());
+        }
+        return Utils.sha1Id(parent.toString(), message, timestamp.toString(),
+                Main.convertMapToByte(trackedFiles.toHashMap()));
+    }
+
     /** @return The parent of this commit. */
-    public String getParent() {
+    public ObjectId getParent() {
         return _parent;
     }
 
@@ -41,36 +80,78 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
-    /** @return The files tracked by this commit. */
-    public HashMap<String, String> getTrackedFiles() {
+    /** @return The files tracked by this commit, or null for the initial
+     *  commit. */
+    public Snapshot getTrackedFiles() {
         return _trackedFiles;
     }
 
     /** @return The merged-in parent of this commit. */
-    public String getMergedInParent() {
+    public ObjectId getMergedInParent() {
         return _mergedInParent;
     }
 
     /** @return The SHA1 ID of this commit. */
-    public String getCommitSHA1() {
+    public ObjectId getCommitSHA1() {
         return _commitSHA1;
     }
 
+    /** Writes this commit with its tracked files as a HashMap and its IDs
+     *  as hexadecimal strings.
+     *  @param out - The stream written to. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_parent", hex(_parent));
+        fields.put("_message", _message);
+        fields.put("_timestamp", _timestamp);
+        fields.put("_trackedFiles", _trackedFiles == null ? null
+                : _trackedFiles.toHashMap());
+        fields.put("_mergedInParent", hex(_mergedInParent));
+        fields.put("_commitSHA1", hex(_commitSHA1));
+        out.writeFields();
+    }
+
+    /** Reads a commit, turning its tracked files into a Snapshot and its
+     *  IDs into ObjectIds.
+     *  @param in - The stream read from. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _parent = ObjectId.fromHex((String) fields.get("_parent", null));
+        _message = (String) fields.get("_message", null);
+        _timestamp = (Date) fields.get("_timestamp", null);
+        HashMap<String, String> trackedFiles =
+                (HashMap<String, String>) fields.get("_trackedFiles", null);
+        _trackedFiles = trackedFiles == null ? null
+                : Snapshot.of(trackedFiles);
+        _mergedInParent = ObjectId.fromHex(
+                (String) fields.get("_mergedInParent", null));
+        _commitSHA1 = ObjectId.fromHex(
+                (String) fields.get("_commitSHA1", null));
+    }
+
+    /** @param id - An ID, or null.
+     *  @return ID in hexadecimal, or null if ID is null. */
+    private static String hex(ObjectId id) {
+        return id == null ? null : id.toString();
+    }
+
     /** The parent of this commit. */
-    private final String _parent;
+    private ObjectId _parent;
 
     /** The message of this commit. */
-    private final String _message;
+    private String _message;
 
     /** The timestamp of this commit. */
-    private final Date _timestamp;
+    private Date _timestamp;
 
     /** The files tracked by this commit. */
-    private final HashMap<String, String> _trackedFiles;
+    private Snapshot _trackedFiles;
 
     /** The merged-in parent of this commit. */
-    private final String _mergedInParent;
+    private ObjectId _mergedInParent;
 
     /** The SHA1 ID of this commit. */
-    private String _commitSHA1;
+    private ObjectId _commitSHA1;
 }
@@ -0,0 +1,309 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** A reader of the serialized form of a commit that recovers the bytes its
+ *  ID was computed from. The ID of a commit hashes its tracked files as a
+ *  HashMap serialized on its own, and that same HashMap is then written
+ *  into the commit file, so those bytes are embedded in the file with only
+ *  the handles of their back-references shifted. A HashMap read back from
+ *  the file may serialize differently, since the order of the entries in
+ *  a bucket depends on the table the map was grown in, so the embedded
+ *  bytes are the only ones an ID can be verified against.
+ *
+ *  Only the parts of the serialization format that commits are written
+ *  with are understood; anything else is treated as unreadable.
+ *  @author Raman Varma
+ */
+class CommitStream implements ObjectStreamConstants {
+
+    /** @param c - A commit.
+     *  @param contents - The contents of the file C was read from.
+     *  @return The ID of C computed from its tracked files as they are
+     *  serialized in CONTENTS, or as Commit.id() computes it if they
+     *  cannot be recovered from CONTENTS. */
+    static ObjectId id(Commit c, ByteBuffer contents) {
+        byte[] trackedFiles = trackedFiles(contents);
+        if (c.getTrackedFiles() == null || trackedFiles == null) {
+            return Commit.id(c.getParent(), c.getMessage(), c.getTimestamp(),
+                    c.getTrackedFiles());
+        }
+        return Utils.sha1Id(c.getParent().toString(), c.getMessage(),
+                c.getTimestamp().toString(), trackedFiles);
+    }
+
+    /** Older versions of Gitlet recomputed the ID of the head commit from
+     *  its tracked files as read back from its file, and recorded that as
+     *  the parent of the next commit; where the map serialized differently
+     *  the parent link names a commit that was never stored.
+     *  @param c - A commit.
+     *  @param contents - The contents of the file C was read from.
+     *  @return The ID those versions gave C when it was the head, or null
+     *  if it is the ID of C. */
+    static ObjectId recomputedId(Commit c, ByteBuffer contents) {
+        byte[] trackedFiles = trackedFiles(contents);
+        if (c.getTrackedFiles() == null || trackedFiles == null) {
+            return null;
+        }
+        byte[] reserialized;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(trackedFiles))) {
+            reserialized = Utils.serialize((HashMap<?, ?>) in.readObject());
+        } catch (IOException | ClassNotFoundException
+                | ClassCastException excp) {
+            return null;
+        }
+        if (Arrays.equals(reserialized, trackedFiles)) {
+            return null;
+        }
+        return Utils.sha1Id(c.getParent().toString(), c.getMessage(),
+                c.getTimestamp().toString(), reserialized);
+    }
+
+    /** @param contents - The contents of a commit file.
+     *  @return The tracked files of the commit serialized on their own, as
+     *  they were when its ID was computed, or null if the commit has none,
+     *  CONTENTS cannot be parsed, or the tracked files refer to objects
+     *  written before them. */
+    static byte[] trackedFiles(ByteBuffer contents) {
+        CommitStream stream = new CommitStream(contents);
+        try {
+            if (stream._in.getShort() != STREAM_MAGIC
+                    || stream._in.getShort() != STREAM_VERSION) {
+                return null;
+            }
+            stream.readContent();
+            return stream.mapBytes();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalStateException excp) {
+            return null;
+        }
+    }
+
+    /** Creates a reader of CONTENTS.
+     *  @param contents - A serialized commit. */
+    private CommitStream(ByteBuffer contents) {
+        _in = contents.duplicate();
+    }
+
+    /** Reads one object, string, reference, null or block of data. */
+    private void readContent() {
+        int start = _in.position();
+        byte tag = _in.get();
+        switch (tag) {
+        case TC_NULL:
+            break;
+        case TC_REFERENCE:
+            readHandle();
+            break;
+        case TC_STRING:
+            skip(_in.getShort() & 0xffff);
+            _handles.add(null);
+            break;
+        case TC_LONGSTRING:
+            skip(Math.toIntExact(_in.getLong()));
+            _handles.add(null);
+            break;
+        case TC_OBJECT:
+            readObject(start);
+            break;
+        case TC_BLOCKDATA:
+            skip(_in.get() & 0xff);
+            break;
+        case TC_BLOCKDATALONG:
+            skip(_in.getInt());
+            break;
+        default:
+            throw new IllegalStateException("unexpected tag " + tag);
+        }
+    }
+
+    /** Reads an object whose tag began at START, noting where the tracked
+     *  files begin and end if it is they.
+     *  @param start - The position of the tag of the object. */
+    private void readObject(int start) {
+        int handle = _handles.size();
+        ClassDesc desc = readClassDesc();
+        boolean isMap = _mapStart < 0 && desc != null
+                && desc.name.equals("java.util.HashMap");
+        if (isMap) {
+            if (_handles.size() == handle) {
+                throw new IllegalStateException("shared map descriptor");
+            }
+            _mapStart = start;
+            _mapHandle = handle;
+        }
+        _handles.add(null);
+        readClassData(desc);
+        if (isMap) {
+            _mapEnd = _in.position();
+        }
+    }
+
+    /** @return The class descriptor read, or null for TC_NULL. */
+    private ClassDesc readClassDesc() {
+        byte tag = _in.get();
+        switch (tag) {
+        case TC_NULL:
+            return null;
+        case TC_REFERENCE:
+            Object shared = _handles.get(readHandle());
+            if (!(shared instanceof ClassDesc)) {
+                throw new IllegalStateException("not a class descriptor");
+            }
+            return (ClassDesc) shared;
+        case TC_CLASSDESC:
+            ClassDesc desc = new ClassDesc();
+            int length = _in.getShort() & 0xffff;
+            byte[] name = new byte[length];
+            _in.get(name);
+            desc.name = new String(name, StandardCharsets.UTF_8);
+            _in.getLong();
+            _handles.add(desc);
+            desc.flags = _in.get();
+            if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+                throw new IllegalStateException("externalizable class");
+            }
+            int fields = _in.getShort();
+            for (int i = 0; i < fields; i += 1) {
+                char type = (char) _in.get();
+                skip(_in.getShort() & 0xffff);
+                if (type == 'L' || type == '[') {
+                    readContent();
+                    desc.objectFields += 1;
+                } else {
+                    desc.primitiveBytes += primitiveSize(type);
+                }
+            }
+            readAnnotation();
+            desc.superDesc = readClassDesc();
+            return desc;
+        default:
+            throw new IllegalStateException("unexpected tag " + tag);
+        }
+    }
+
+    /** Reads the fields and any custom data of an object of class DESC,
+     *  beginning with those of its superclasses.
+     *  @param desc - A class descriptor, or null. */
+    private void readClassData(ClassDesc desc) {
+        if (desc == null) {
+            return;
+        }
+        readClassData(desc.superDesc);
+        skip(desc.primitiveBytes);
+        for (int i = 0; i < desc.objectFields; i += 1) {
+            readContent();
+        }
+        if ((desc.flags & SC_WRITE_METHOD) != 0) {
+            readAnnotation();
+        }
+    }
+
+    /** Reads contents up to and including the next TC_ENDBLOCKDATA. */
+    private void readAnnotation() {
+        while (_in.get(_in.position()) != TC_ENDBLOCKDATA) {
+            readContent();
+        }
+        _in.get();
+    }
+
+    /** @return The index of the handle read, noting its position if it is
+     *  within the tracked files. */
+    private int readHandle() {
+        if (_mapStart >= 0 && _mapEnd < 0) {
+            _mapReferences.add(_in.position());
+        }
+        return _in.getInt() - baseWireHandle;
+    }
+
+    /** @param count - The number of bytes to skip. */
+    private void skip(int count) {
+        if (count < 0 || count > _in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        _in.position(_in.position() + count);
+    }
+
+    /** @return The tracked files serialized on their own: a stream header
+     *  followed by the bytes of the map, its handles renumbered from zero,
+     *  or null if there is no map or it refers to an earlier object. */
+    private byte[] mapBytes() {
+        if (_mapEnd < 0) {
+            return null;
+        }
+        int header = 4;
+        ByteBuffer result = ByteBuffer.allocate(header + _mapEnd - _mapStart);
+        result.putShort(STREAM_MAGIC).putShort(STREAM_VERSION);
+        ByteBuffer map = _in.duplicate();
+        map.limit(_mapEnd);
+        map.position(_mapStart);
+        result.put(map);
+        for (int position : _mapReferences) {
+            int handle = _in.getInt(position) - baseWireHandle - _mapHandle;
+            if (handle < 0) {
+                return null;
+            }
+            result.putInt(header + position - _mapStart,
+                    baseWireHandle + handle);
+        }
+        return result.array();
+    }
+
+    /** @param type - The type code of a primitive field.
+     *  @return The number of bytes a field of type TYPE is written in. */
+    private static int primitiveSize(char type) {
+        switch (type) {
+        case 'B': case 'Z':
+            return 1;
+        case 'C': case 'S':
+            return 2;
+        case 'F': case 'I':
+            return 4;
+        case 'D': case 'J':
+            return 8;
+        default:
+            throw new IllegalStateException("unknown field type " + type);
+        }
+    }
+
+    /** What is needed of a class descriptor to skip an object. */
+    private static class ClassDesc {
+        /** The name of the class. */
+        private String name;
+        /** The flags of the class. */
+        private byte flags;
+        /** The number of bytes of primitive fields. */
+        private int primitiveBytes;
+        /** The number of object fields. */
+        private int objectFields;
+        /** The descriptor of the superclass, or null. */
+        private ClassDesc superDesc;
+    }
+
+    /** The stream read. */
+    private final ByteBuffer _in;
+
+    /** The class descriptor of each handle, or null for other objects. */
+    private final ArrayList<Object> _handles = new ArrayList<>();
+
+    /** The position at which the tracked files begin, or -1. */
+    private int _mapStart = -1;
+
+    /** The position just past the tracked files, or -1. */
+    private int _mapEnd = -1;
+
+    /** The index of the first handle of the tracked files. */
+    private int _mapHandle;
+
+    /** The positions of the handles referred to within the tracked
+     *  files. */
+    private final ArrayList<Integer> _mapReferences = new ArrayList<>();
+}
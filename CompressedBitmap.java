@@ -0,0 +1,441 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** A compressed set of non-negative integers in the style of a Roaring
+ *  bitmap. The integers are partitioned by their upper 16 bits into chunks;
+ *  a chunk holding few values stores them as a sorted array and a dense
+ *  chunk stores them as a 65536-bit bitmap.
+ *  @author Raman Varma
+ */
+public class CompressedBitmap {
+
+    /** The most values an array container holds before it is converted
+     *  into a bitmap container. */
+    private static final int ARRAY_MAX = 4096;
+
+    /** The number of 64-bit words in a bitmap container. */
+    private static final int BITMAP_WORDS = 1024;
+
+    /** Creates an empty bitmap. */
+    public CompressedBitmap() {
+        _keys = new char[4];
+        _containers = new Container[4];
+        _size = 0;
+    }
+
+    /** Adds X to this bitmap.
+     *  @param x - A non-negative integer. */
+    public void add(int x) {
+        char key = (char) (x >>> 16);
+        int i = findKey(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new ArrayContainer());
+        }
+        _containers[i] = _containers[i].add((char) x);
+    }
+
+    /** @param x - A non-negative integer.
+     *  @return Whether X is in this bitmap. */
+    public boolean contains(int x) {
+        int i = findKey((char) (x >>> 16));
+        return i >= 0 && _containers[i].contains((char) x);
+    }
+
+    /** @return The number of integers in this bitmap. */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < _size; i += 1) {
+            cardinality += _containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /** Adds every integer in OTHER to this bitmap.
+     *  @param other - The bitmap to union with this one. */
+    public void or(CompressedBitmap other) {
+        for (int j = 0; j < other._size; j += 1) {
+            int i = findKey(other._keys[j]);
+            if (i < 0) {
+                insertContainer(-i - 1, other._keys[j],
+                        other._containers[j].copy());
+            } else {
+                _containers[i] = _containers[i].or(other._containers[j]);
+            }
+        }
+    }
+
+    /** @param other - The bitmap whose integers are excluded.
+     *  @return A new bitmap of the integers in this bitmap but not in
+     *  OTHER. */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (int i = 0; i < _size; i += 1) {
+            int j = other.findKey(_keys[i]);
+            Container c = j < 0 ? _containers[i].copy()
+                    : _containers[i].andNot(other._containers[j]);
+            if (c.cardinality() > 0) {
+                result.insertContainer(result._size, _keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    /** @return The integers in this bitmap in increasing order. */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < _size; i += 1) {
+            n = _containers[i].fill(values, n, _keys[i] << 16);
+        }
+        return values;
+    }
+
+    /** @return The serialized form of this bitmap. */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(_size);
+            for (int i = 0; i < _size; i += 1) {
+                out.writeChar(_keys[i]);
+                _containers[i].write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @param contents - The serialized form of a bitmap.
+     *  @return The bitmap serialized as CONTENTS. */
+    public static CompressedBitmap fromBytes(byte[] contents) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        try (DataInputStream in =
+                     new DataInputStream(new ByteArrayInputStream(contents))) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i += 1) {
+                char key = in.readChar();
+                bitmap.insertContainer(i, key, Container.read(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bitmap;
+    }
+
+    /** @param key - The upper 16 bits of a chunk of integers.
+     *  @return The index of the container of KEY, or (-(insertion point) - 1)
+     *  if there is no such container. */
+    private int findKey(char key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    /** Inserts container C with key KEY at index I.
+     *  @param i - The index of the new container.
+     *  @param key - The upper 16 bits of the integers in C.
+     *  @param c - The new container. */
+    private void insertContainer(int i, char key, Container c) {
+        if (_size == _keys.length) {
+            _keys = Arrays.copyOf(_keys, _size * 2);
+            _containers = Arrays.copyOf(_containers, _size * 2);
+        }
+        System.arraycopy(_keys, i, _keys, i + 1, _size - i);
+        System.arraycopy(_containers, i, _containers, i + 1, _size - i);
+        _keys[i] = key;
+        _containers[i] = c;
+        _size += 1;
+    }
+
+    /** A set of the lower 16 bits of the integers sharing one key. */
+    private abstract static class Container {
+
+        /** Tag of a serialized array container. */
+        static final byte ARRAY = 0;
+
+        /** Tag of a serialized bitmap container. */
+        static final byte BITMAP = 1;
+
+        /** @param x - The lower 16 bits of an integer.
+         *  @return This container, or a replacement for it, with X added. */
+        abstract Container add(char x);
+
+        /** @param x - The lower 16 bits of an integer.
+         *  @return Whether X is in this container. */
+        abstract boolean contains(char x);
+
+        /** @return The number of values in this container. */
+        abstract int cardinality();
+
+        /** @return A copy of this container. */
+        abstract Container copy();
+
+        /** @return A bitmap container of the values in this container. */
+        abstract BitmapContainer toBitmap();
+
+        /** Writes the values of this container, each combined with HIGH,
+         *  into VALUES starting at index N.
+         *  @param values - The array to fill.
+         *  @param n - The first index to fill.
+         *  @param high - The upper 16 bits of the values.
+         *  @return The index after the last one filled. */
+        abstract int fill(int[] values, int n, int high);
+
+        /** Writes this container to OUT.
+         *  @param out - The stream to write to. */
+        abstract void write(DataOutputStream out) throws IOException;
+
+        /** @param other - Another container.
+         *  @return This container, or a replacement for it, with the values
+         *  of OTHER added. */
+        Container or(Container other) {
+            if (other instanceof ArrayContainer
+                    && cardinality() + other.cardinality() <= ARRAY_MAX) {
+                Container result = this;
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o._cardinality; i += 1) {
+                    result = result.add(o._values[i]);
+                }
+                return result;
+            }
+            BitmapContainer result = toBitmap();
+            BitmapContainer o = other.toBitmap();
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                result._words[i] |= o._words[i];
+            }
+            result.recount();
+            return result.shrink();
+        }
+
+        /** @param other - Another container.
+         *  @return A new container of the values in this container but not
+         *  in OTHER. */
+        Container andNot(Container other) {
+            int[] values = new int[cardinality()];
+            int n = fill(values, 0, 0);
+            Container kept = new ArrayContainer();
+            for (int i = 0; i < n; i += 1) {
+                if (!other.contains((char) values[i])) {
+                    kept = kept.add((char) values[i]);
+                }
+            }
+            return kept;
+        }
+
+        /** @param in - The stream to read from.
+         *  @return The container read from IN. */
+        static Container read(DataInputStream in) throws IOException {
+            byte tag = in.readByte();
+            if (tag == ARRAY) {
+                ArrayContainer c = new ArrayContainer();
+                c._cardinality = in.readChar();
+                c._values = new char[Math.max(c._cardinality, 1)];
+                for (int i = 0; i < c._cardinality; i += 1) {
+                    c._values[i] = in.readChar();
+                }
+                return c;
+            }
+            BitmapContainer c = new BitmapContainer();
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                c._words[i] = in.readLong();
+            }
+            c.recount();
+            return c;
+        }
+    }
+
+    /** A container storing its values as a sorted array. */
+    private static class ArrayContainer extends Container {
+
+        @Override
+        Container add(char x) {
+            int i = Arrays.binarySearch(_values, 0, _cardinality, x);
+            if (i >= 0) {
+                return this;
+            }
+            if (_cardinality == ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            i = -i - 1;
+            if (_cardinality == _values.length) {
+                _values = Arrays.copyOf(_values,
+                        Math.min(ARRAY_MAX, _cardinality * 2));
+            }
+            System.arraycopy(_values, i, _values, i + 1, _cardinality - i);
+            _values[i] = x;
+            _cardinality += 1;
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(_values, 0, _cardinality, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return _cardinality;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer c = new ArrayContainer();
+            c._values = Arrays.copyOf(_values, _values.length);
+            c._cardinality = _cardinality;
+            return c;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer c = new BitmapContainer();
+            for (int i = 0; i < _cardinality; i += 1) {
+                c._words[_values[i] >>> 6] |= 1L << _values[i];
+            }
+            c._cardinality = _cardinality;
+            return c;
+        }
+
+        @Override
+        int fill(int[] values, int n, int high) {
+            for (int i = 0; i < _cardinality; i += 1) {
+                values[n] = high | _values[i];
+                n += 1;
+            }
+            return n;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(ARRAY);
+            out.writeChar(_cardinality);
+            for (int i = 0; i < _cardinality; i += 1) {
+                out.writeChar(_values[i]);
+            }
+        }
+
+        /** The values of this container in increasing order, followed by
+         *  unused space. */
+        private char[] _values = new char[4];
+
+        /** The number of values in this container. */
+        private int _cardinality;
+    }
+
+    /** A container storing its values as a 65536-bit bitmap. */
+    private static class BitmapContainer extends Container {
+
+        @Override
+        Container add(char x) {
+            long bit = 1L << x;
+            if ((_words[x >>> 6] & bit) == 0) {
+                _words[x >>> 6] |= bit;
+                _cardinality += 1;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (_words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return _cardinality;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer c = new BitmapContainer();
+            System.arraycopy(_words, 0, c._words, 0, BITMAP_WORDS);
+            c._cardinality = _cardinality;
+            return c;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return (BitmapContainer) copy();
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitmapContainer result = toBitmap();
+            BitmapContainer o = other.toBitmap();
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                result._words[i] &= ~o._words[i];
+            }
+            result.recount();
+            return result.shrink();
+        }
+
+        @Override
+        int fill(int[] values, int n, int high) {
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                long word = _words[i];
+                while (word != 0) {
+                    values[n] = high | (i << 6)
+                            | Long.numberOfTrailingZeros(word);
+                    n += 1;
+                    word &= word - 1;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            if (_cardinality <= ARRAY_MAX) {
+                shrink().write(out);
+                return;
+            }
+            out.writeByte(BITMAP);
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                out.writeLong(_words[i]);
+            }
+        }
+
+        /** Recomputes the cardinality of this container from its words. */
+        void recount() {
+            _cardinality = 0;
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                _cardinality += Long.bitCount(_words[i]);
+            }
+        }
+
+        /** @return An array container of the values in this container if
+         *  it is sparse enough, and this container otherwise. */
+        Container shrink() {
+            if (_cardinality > ARRAY_MAX) {
+                return this;
+            }
+            ArrayContainer c = new ArrayContainer();
+            c._values = new char[Math.max(_cardinality, 1)];
+            int[] values = new int[_cardinality];
+            fill(values, 0, 0);
+            for (int i = 0; i < _cardinality; i += 1) {
+                c._values[i] = (char) values[i];
+            }
+            c._cardinality = _cardinality;
+            return c;
+        }
+
+        /** The bits of this container. */
+        private final long[] _words = new long[BITMAP_WORDS];
+
+        /** The number of set bits of this container. */
+        private int _cardinality;
+    }
+
+    /** The upper 16 bits shared by the values of each container, in
+     *  increasing order, followed by unused space. */
+    private char[] _keys;
+
+    /** The containers of this bitmap, parallel to _keys. */
+    private Container[] _containers;
+
+    /** The number of containers in this bitmap. */
+    private int _size;
+}
@@ -0,0 +1,121 @@
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The configuration of a Gitlet repository, stored in the file "config"
+ *  of its .gitlet directory as lines of the form "[key]=[value]", sorted by
+ *  key. Blank lines and lines starting with "#" are ignored. Keys that are
+ *  not set take the default value given by the code reading them, so a
+ *  repository without a config file behaves as it always has.
+ *  @author Raman Varma
+ */
+public class Config {
+
+    /** The name of the config file in a .gitlet directory. */
+    static final String CONFIG_FILE = "config";
+
+    /** Key of the way checkout materializes files: "copy" streams each
+     *  blob through a buffer, "transfer" (the default) has the operating
+     *  system copy it with FileChannel.transferTo, and "link" hard-links
+     *  files stored whole, copying when linking is not supported. A linked
+     *  file shares its contents with the stored blob, so an editor that
+     *  writes it in place, or any program run by root, changes the blob
+     *  too; checkout then refuses the blob and fsck reports it. */
+    static final String CHECKOUT_MODE = "checkout.mode";
+
+    /** The config command of Gitlet. Prints the value of KEY if VALUE is
+     *  null, and otherwise sets KEY to VALUE. The hash algorithm cannot be
+     *  set, since every ID in the repository was computed with it.
+     *  @param key - A config key.
+     *  @param value - The new value of KEY, or null. */
+    public static void config(String key, String value) {
+        Config config = read(Main.REPO);
+        if (value != null && key.equals(HashEngine.HASH_ALGORITHM)) {
+            System.out.println("The hash algorithm of a repository cannot "
+                    + "be changed.");
+            System.exit(0);
+        }
+        if (value == null) {
+            String current = config.get(key, null);
+            if (current != null) {
+                System.out.println(current);
+            }
+        } else {
+            config.set(key, value);
+            config.write();
+        }
+    }
+
+    /** Reads the config of the repository whose .gitlet directory is REPO.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @return The config of REPO, empty if it has no config file. */
+    public static Config read(File repo) {
+        Config config = new Config(new File(repo, CONFIG_FILE));
+        if (config._file.isFile()) {
+            String contents = Utils.readContentsAsString(config._file);
+            for (String line : contents.split("\n")) {
+                line = line.trim();
+                int equals = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || equals < 0) {
+                    continue;
+                }
+                config._values.put(line.substring(0, equals).trim(),
+                        line.substring(equals + 1).trim());
+            }
+        }
+        return config;
+    }
+
+    /** Creates an empty config to be stored in FILE.
+     *  @param file - The config file. */
+    private Config(File file) {
+        _file = file;
+        _values = new TreeMap<>();
+    }
+
+    /** Writes this config to its file. */
+    public void write() {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> entry : _values.entrySet()) {
+            contents.append(entry.getKey()).append('=')
+                    .append(entry.getValue()).append('\n');
+        }
+        Main.writeAtomically(_file, contents.toString());
+    }
+
+    /** @param key - A config key.
+     *  @param defaultValue - The value of KEY if it is not set.
+     *  @return The value of KEY. */
+    public String get(String key, String defaultValue) {
+        return _values.getOrDefault(key, defaultValue);
+    }
+
+    /** @param key - A config key.
+     *  @param defaultValue - The value of KEY if it is not set or is not an
+     *  integer.
+     *  @return The value of KEY as an integer. */
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Sets KEY to VALUE, or unsets it if VALUE is null.
+     *  @param key - A config key.
+     *  @param value - The new value of KEY. */
+    public void set(String key, String value) {
+        if (value == null) {
+            _values.remove(key);
+        } else {
+            _values.put(key, value);
+        }
+    }
+
+    /** The config file. */
+    private final File _file;
+
+    /** The values of the set keys, keyed by key. */
+    private final TreeMap<String, String> _values;
+}
@@ -0,0 +1,137 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events emitted on Gitlet's hot paths. Each event is
+ *  begun before and ended after the work it describes, and its fields are
+ *  only filled in when shouldCommit() is true, so an event costs almost
+ *  nothing when no recording is enabling it. The gitlet.jfc settings file
+ *  at the root of the repository enables all of them.
+ *  @author Raman Varma
+ */
+public class Events {
+
+    /** A file or serialized object read from the repository. */
+    @Name("gitlet.ObjectRead")
+    @Label("Object Read")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class ObjectRead extends Event {
+
+        /** The name of the file read, which is the ID of an object. */
+        @Label("ID")
+        String id;
+
+        /** The kind of data read, such as "Commit" or "file". */
+        @Label("Kind")
+        String kind;
+
+        /** The number of bytes read. */
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    /** A file or serialized object written to the repository or the
+     *  working directory. */
+    @Name("gitlet.ObjectWrite")
+    @Label("Object Write")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class ObjectWrite extends Event {
+
+        /** The name of the file written, which is the ID of an object. */
+        @Label("ID")
+        String id;
+
+        /** The kind of data written, such as "Commit" or "file". */
+        @Label("Kind")
+        String kind;
+
+        /** The number of bytes written. */
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    /** A hash computation. */
+    @Name("gitlet.Hash")
+    @Label("Hash")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class Hash extends Event {
+
+        /** The hash algorithm used. */
+        @Label("Algorithm")
+        String algorithm;
+
+        /** The number of bytes hashed. */
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /** A listing of a directory. */
+    @Name("gitlet.DirectoryScan")
+    @Label("Directory Scan")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class DirectoryScan extends Event {
+
+        /** The path of the directory listed. */
+        @Label("Directory")
+        String directory;
+
+        /** The number of entries found. */
+        @Label("Entries")
+        int entries;
+    }
+
+    /** A search for the split point of a merge. */
+    @Name("gitlet.MergeBase")
+    @Label("Merge Base Search")
+    @Category("Gitlet")
+    static class MergeBase extends Event {
+
+        /** The ID of the head commit of the current branch. */
+        @Label("Head")
+        String head;
+
+        /** The ID of the head commit of the given branch. */
+        @Label("Branch")
+        String branch;
+
+        /** The ID of the split point found. */
+        @Label("Split Point")
+        String splitPoint;
+
+        /** The number of commits visited from both heads. */
+        @Label("Commits Visited")
+        int commitsVisited;
+    }
+
+    /** One of the cases of merge resolution (mergeCase1, mergeCase2 or
+     *  mergeCase3And4). */
+    @Name("gitlet.MergeCase")
+    @Label("Merge Case")
+    @Category("Gitlet")
+    static class MergeCase extends Event {
+
+        /** The name of the merge case. */
+        @Label("Case")
+        String mergeCase;
+
+        /** The number of files the case considered. */
+        @Label("Files")
+        int files;
+
+        /** Whether the case encountered a merge conflict. */
+        @Label("Conflict")
+        @Description("Whether a conflicted file was written")
+        boolean conflict;
+    }
+}
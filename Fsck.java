@@ -0,0 +1,508 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/** The fsck command of Gitlet, which verifies every commit and blob in the
+ *  repository against its ID in parallel across all cores. Objects are
+ *  streamed from their directories and hashed through a fixed-size buffer,
+ *  so memory use does not grow with the size of the repository. Parent
+ *  links are checked as each commit is read. The few that name a commit
+ *  that is not stored, and the IDs older versions recomputed for stored
+ *  commits, are spilled to disk in sorted runs and matched at the end.
+ *  IDs are not interned, since each is met about once.
+ *  @author Raman Varma
+ */
+public class Fsck {
+
+    /** The size of the buffer each thread hashes blobs through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The number of recently verified blob references that are
+     *  remembered, so that blobs shared by many commits are checked once. */
+    private static final int CHECKED_BLOBS_CACHE = 1 << 16;
+
+    /** The most lines a sorted run holds in memory before it is spilled
+     *  to disk. */
+    private static final int RUN_LENGTH = 1 << 16;
+
+    /** The number of milliseconds between progress reports. */
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    /** Re-hashes every blob in FILES, every chunk, and every chunked blob
+     *  reassembled from its chunks, and recomputes the ID of every commit
+     *  in COMMITS from the bytes of its tracked files as they are stored.
+     *  Verifies that every parent and merged-in parent of each commit not
+     *  on the shallow boundary exists, that every blob tracked by a commit
+     *  exists or can be fetched from the promisor remote, and that every
+     *  branch points at an existing commit. Each problem is printed as it
+     *  is found, as a line of the form
+     *  "[problem] [object type] [object id]: [detail]", followed by a
+     *  summary. Progress is reported on standard error. */
+    public static void fsck() {
+        ObjectId.stopInterning();
+        new Fsck().run();
+    }
+
+    /** Creates a checker using one thread per core. */
+    private Fsck() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        _pool = new ThreadPoolExecutor(threads, threads, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        _checkedBlobs = Collections.synchronizedSet(
+                Collections.newSetFromMap(new LinkedHashMap<>() {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<String, Boolean> eldest) {
+                        return size() > CHECKED_BLOBS_CACHE;
+                    }
+                }));
+    }
+
+    /** Checks the repository and prints the findings and a summary. */
+    private void run() {
+        long start = System.nanoTime();
+        BlobStore blobs = Main.BLOBS;
+        _total = countEntries(Main.COMMITS) + countEntries(Main.FILES)
+                + countEntries(blobs.manifestsDir());
+        ScheduledExecutorService progress =
+                Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> reportProgress(start),
+                PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        try {
+            forEachEntry(Main.FILES, "blob", this::checkBlob);
+            forEachEntry(blobs.chunksDir(), "chunk", this::checkChunk);
+            forEachEntry(blobs.manifestsDir(), "blob", this::checkManifest);
+            forEachEntry(Main.COMMITS, "commit", this::checkCommit);
+            _pool.shutdown();
+            _pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            progress.shutdownNow();
+        }
+        checkLinks();
+        for (ObjectId head : Main.REFS.all().values()) {
+            if (!HashEngine.isId(head.toString())) {
+                report("corrupt", "commit", head.toString(), "head of a "
+                        + "branch is not a " + HashEngine.algorithm() + " ID");
+            } else if (!new File(Main.COMMITS, head.toString()).isFile()) {
+                report("missing", "commit", head.toString(),
+                        "head of a branch");
+            }
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.err.print("\r");
+        System.out.printf("Checked %d commits and %d blobs (%d bytes) in "
+                + "%.2f s, %.1f MB/s; %d problems found.%n",
+                _commits.get(), _blobs.get(), _bytes.get(), seconds,
+                _bytes.get() / seconds / 1e6, _problems.get());
+    }
+
+    /** Verifies that the blob in FILE hashes to its name.
+     *  @param file - A file in FILES. */
+    private void checkBlob(Path file) {
+        String blobSHA1 = file.getFileName().toString();
+        try {
+            String actual = hash(file);
+            if (!actual.equals(blobSHA1)) {
+                report("corrupt", "blob", blobSHA1,
+                        "contents hash to " + actual
+                        + (BlobStore.linkCount(file.toFile()) > 1
+                           ? ", changed through a hard link to it" : ""));
+            }
+        } catch (IOException excp) {
+            report("corrupt", "blob", blobSHA1, "unreadable: "
+                    + excp.getMessage());
+        }
+        _blobs.incrementAndGet();
+    }
+
+    /** Verifies that the chunk in FILE hashes to its name.
+     *  @param file - A file in the chunks directory. */
+    private void checkChunk(Path file) {
+        String chunkSHA1 = file.getFileName().toString();
+        try {
+            String actual = hash(file);
+            if (!actual.equals(chunkSHA1)) {
+                report("corrupt", "chunk", chunkSHA1,
+                        "contents hash to " + actual);
+            }
+        } catch (IOException excp) {
+            report("corrupt", "chunk", chunkSHA1, "unreadable: "
+                    + excp.getMessage());
+        }
+    }
+
+    /** Verifies that the chunked blob whose manifest is FILE has all of its
+     *  chunks, and that they reassemble into contents that hash to its
+     *  name.
+     *  @param file - A file in the manifests directory. */
+    private void checkManifest(Path file) {
+        String blobSHA1 = file.getFileName().toString();
+        _blobs.incrementAndGet();
+        try {
+            for (String chunkSHA1 : Main.BLOBS.chunksOf(blobSHA1)) {
+                if (!new File(Main.BLOBS.chunksDir(), chunkSHA1).isFile()) {
+                    report("missing", "chunk", chunkSHA1, "chunk of "
+                            + blobSHA1);
+                    return;
+                }
+            }
+            try (InputStream in = Main.BLOBS.open(blobSHA1)) {
+                String actual = hash(in);
+                if (!actual.equals(blobSHA1)) {
+                    report("corrupt", "blob", blobSHA1,
+                            "chunks hash to " + actual);
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            report("corrupt", "blob", blobSHA1, "unreadable manifest: "
+                    + excp.getMessage());
+        }
+    }
+
+    /** Verifies that the commit in FILE has the ID it is named by, and that
+     *  every object it refers to exists.
+     *  @param file - A file in COMMITS. */
+    private void checkCommit(Path file) {
+        ObjectId commitSHA1 = ObjectId.fromHex(file.getFileName().toString());
+        _commits.incrementAndGet();
+        Commit c;
+        ByteBuffer contents;
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            _bytes.addAndGet(bytes.length);
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(bytes))) {
+                c = (Commit) in.readObject();
+            }
+            contents = ByteBuffer.wrap(bytes);
+        } catch (IOException | ClassNotFoundException
+                 | ClassCastException excp) {
+            report("corrupt", "commit", commitSHA1.toString(), "unreadable: "
+                    + excp.getMessage());
+            return;
+        }
+        Snapshot trackedFiles = c.getTrackedFiles();
+        ObjectId actual = CommitStream.id(c, contents);
+        if (!actual.equals(commitSHA1)) {
+            report("corrupt", "commit", commitSHA1.toString(),
+                    "contents hash to " + actual);
+        }
+        ObjectId recomputed = CommitStream.recomputedId(c, contents);
+        if (recomputed != null) {
+            _recomputedIds.add(recomputed.toString());
+        }
+        if (!Main.SHALLOW.isBoundary(commitSHA1)) {
+            checkLink(c.getParent(), PARENT, commitSHA1);
+            checkLink(c.getMergedInParent(), MERGED_IN_PARENT, commitSHA1);
+        }
+        if (trackedFiles != null) {
+            for (int i = 0; i < trackedFiles.size(); i += 1) {
+                String blobSHA1 = trackedFiles.id(i);
+                if (!_checkedBlobs.contains(blobSHA1)) {
+                    if (Main.BLOBS.contains(blobSHA1)
+                            || Main.BLOBS.isPromised(blobSHA1)) {
+                        _checkedBlobs.add(blobSHA1);
+                    } else {
+                        report("missing", "blob", blobSHA1, "tracked as "
+                                + trackedFiles.name(i) + " by "
+                                + commitSHA1);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Notes the link from the commit with ID CHILD to PARENT if PARENT
+     *  is not stored, to be checked by checkLinks().
+     *  @param parent - The ID of a parent of CHILD, or null.
+     *  @param kind - The kind of parent, PARENT or MERGED_IN_PARENT.
+     *  @param child - The ID of a commit. */
+    private void checkLink(ObjectId parent, String kind, ObjectId child) {
+        if (parent != null
+                && !new File(Main.COMMITS, parent.toString()).isFile()) {
+            _missingLinks.add(parent + " " + kind + " " + child);
+        }
+    }
+
+    /** Reports the missing parents noted by checkLink(), other than the
+     *  IDs older versions of Gitlet recomputed for existing commits, which
+     *  Shallow.parents() treats as the end of the history. Both are read
+     *  back sorted by ID, so they are matched in one pass. */
+    private void checkLinks() {
+        try {
+            _missingLinks.finish();
+            _recomputedIds.finish();
+            String recomputed = _recomputedIds.next();
+            for (String link = _missingLinks.next(); link != null;
+                 link = _missingLinks.next()) {
+                String[] fields = link.split(" ");
+                while (recomputed != null
+                        && recomputed.compareTo(fields[0]) < 0) {
+                    recomputed = _recomputedIds.next();
+                }
+                if (!fields[0].equals(recomputed)) {
+                    report("missing", "commit", fields[0],
+                            (fields[1].equals(PARENT) ? "parent of "
+                             : "merged-in parent of ") + fields[2]);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            _missingLinks.delete();
+            _recomputedIds.delete();
+        }
+    }
+
+    /** @param file - The file to hash.
+     *  @return The ID of the contents of FILE, hashed from a mapping of
+     *  it, or by reading it if it is hard-linked to a working file, which
+     *  could be truncated while mapped. */
+    private String hash(Path file) throws IOException {
+        _bytes.addAndGet(Files.size(file));
+        if (BlobStore.linkCount(file.toFile()) > 1) {
+            return ObjectReader.hash(file.toFile());
+        }
+        return ObjectReader.hashObject(file.toFile());
+    }
+
+    /** @param in - The stream to hash.
+     *  @return The ID of the rest of IN, read through a per-thread
+     *  buffer. */
+    private String hash(InputStream in) throws IOException {
+        MessageDigest md = HashEngine.digest();
+        byte[] buffer = BUFFERS.get();
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            md.update(buffer, 0, n);
+            _bytes.addAndGet(n);
+        }
+        return HashEngine.toHex(md.digest());
+    }
+
+    /** Prints a finding.
+     *  @param problem - The kind of problem ("corrupt" or "missing").
+     *  @param type - The type of the object ("commit" or "blob").
+     *  @param id - The ID of the object.
+     *  @param detail - A description of the problem. */
+    private void report(String problem, String type, String id,
+                        String detail) {
+        _problems.incrementAndGet();
+        synchronized (System.out) {
+            System.out.println(problem + " " + type + " " + id + ": "
+                    + detail);
+        }
+    }
+
+    /** Prints the number of objects checked so far and the throughput to
+     *  standard error.
+     *  @param start - The time the check started, in nanoseconds. */
+    private void reportProgress(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("\rChecking objects: %d/%d, %.1f MB/s",
+                _commits.get() + _blobs.get(), _total,
+                _bytes.get() / seconds / 1e6);
+    }
+
+    /** Submits ACTION to the thread pool for every file in DIR named by an
+     *  ID, and reports the files named by IDs of another algorithm than
+     *  the repository's, which no command can find. The directory is
+     *  streamed rather than listed all at once, and at most a few entries
+     *  per thread are queued at a time.
+     *  @param dir - An object directory.
+     *  @param type - The type of the objects in DIR.
+     *  @param action - The check to run on each file. */
+    private void forEachEntry(File dir, String type, Consumer<Path> action) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(dir.toPath())) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (HashEngine.isId(name)) {
+                    _pool.execute(() -> action.accept(entry));
+                } else if (HashEngine.isForeignId(name)) {
+                    report("corrupt", type, name, "not a "
+                            + HashEngine.algorithm() + " ID");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** @param dir - An object directory.
+     *  @return The number of entries in DIR. */
+    private static long countEntries(File dir) {
+        long count = 0;
+        if (!dir.isDirectory()) {
+            return 0;
+        }
+        try (DirectoryStream<Path> entries =
+                     Files.newDirectoryStream(dir.toPath())) {
+            for (Path ignored : entries) {
+                count += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return count;
+    }
+
+    /** Lines collected in sorted runs of at most RUN_LENGTH lines, each
+     *  written to a temporary file once full, and read back in order by
+     *  merging the runs, with one line of each in memory at a time. */
+    private static final class SortedRuns {
+
+        /** Adds LINE to the current run, spilling the run if it is full.
+         *  @param line - A line without line terminators. */
+        synchronized void add(String line) {
+            _buffer.add(line);
+            if (_buffer.size() >= RUN_LENGTH) {
+                spill();
+            }
+        }
+
+        /** Spills the last run and begins reading the lines in order. */
+        void finish() throws IOException {
+            spill();
+            for (File run : _runs) {
+                BufferedReader reader = Files.newBufferedReader(
+                        run.toPath(), StandardCharsets.UTF_8);
+                String line = reader.readLine();
+                if (line == null) {
+                    reader.close();
+                } else {
+                    _heads.add(new AbstractMap.SimpleEntry<>(line, reader));
+                }
+            }
+        }
+
+        /** @return The next line in order, or null if there are none. */
+        String next() throws IOException {
+            Map.Entry<String, BufferedReader> head = _heads.poll();
+            if (head == null) {
+                return null;
+            }
+            String line = head.getKey();
+            String following = head.getValue().readLine();
+            if (following == null) {
+                head.getValue().close();
+            } else {
+                _heads.add(new AbstractMap.SimpleEntry<>(following,
+                        head.getValue()));
+            }
+            return line;
+        }
+
+        /** Closes and deletes the runs. */
+        void delete() {
+            for (Map.Entry<String, BufferedReader> head : _heads) {
+                try {
+                    head.getValue().close();
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+            _heads.clear();
+            for (File run : _runs) {
+                run.delete();
+            }
+            _runs.clear();
+        }
+
+        /** Sorts the current run and writes it to a temporary file. */
+        private synchronized void spill() {
+            if (_buffer.isEmpty()) {
+                return;
+            }
+            Collections.sort(_buffer);
+            try {
+                File run = File.createTempFile("fsck", ".run");
+                run.deleteOnExit();
+                _runs.add(run);
+                Files.write(run.toPath(), _buffer, StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _buffer.clear();
+        }
+
+        /** The lines of the current run. */
+        private final List<String> _buffer = new ArrayList<>();
+
+        /** The files of the spilled runs. */
+        private final List<File> _runs = new ArrayList<>();
+
+        /** The next line of each run being read, with its reader, least
+         *  first. */
+        private final PriorityQueue<Map.Entry<String, BufferedReader>>
+            _heads = new PriorityQueue<>(Map.Entry.comparingByKey());
+    }
+
+    /** The kind of link from a commit to its parent. */
+    private static final String PARENT = "p";
+
+    /** The kind of link from a commit to its merged-in parent. */
+    private static final String MERGED_IN_PARENT = "m";
+
+    /** A hashing buffer per thread. */
+    private static final ThreadLocal<byte[]> BUFFERS =
+        ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /** The threads checking objects. */
+    private final ThreadPoolExecutor _pool;
+
+    /** The IDs of recently verified blob references. */
+    private final Set<String> _checkedBlobs;
+
+    /** The IDs older versions recomputed for the commits checked. */
+    private final SortedRuns _recomputedIds = new SortedRuns();
+
+    /** Each link from a commit checked to a parent that is not stored, as
+     *  the parent, the kind of link and the commit. */
+    private final SortedRuns _missingLinks = new SortedRuns();
+
+    /** The number of commits checked. */
+    private final AtomicLong _commits = new AtomicLong();
+
+    /** The number of blobs checked. */
+    private final AtomicLong _blobs = new AtomicLong();
+
+    /** The number of bytes read. */
+    private final AtomicLong _bytes = new AtomicLong();
+
+    /** The number of problems found. */
+    private final AtomicLong _problems = new AtomicLong();
+
+    /** The number of entries in COMMITS and FILES. */
+    private long _total;
+}
@@ -0,0 +1,222 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The hash function of Gitlet, which computes the IDs of commits, blobs
+ *  and chunks. Each thread keeps its own digest and buffers, which are
+ *  reset rather than recreated, so that hashing allocates nothing but the
+ *  resulting ID. IDs are hex-encoded through a lookup table.
+ *
+ *  A repository uses SHA-1 unless it was created with another algorithm,
+ *  which is then recorded in its config under HASH_ALGORITHM. All of the
+ *  IDs of a repository are computed with the same algorithm, so their
+ *  length is fixed per repository.
+ *  @author Raman Varma
+ */
+public class HashEngine {
+
+    /** Config key of the hash algorithm of a repository. */
+    static final String HASH_ALGORITHM = "hash.algorithm";
+
+    /** The algorithm of repositories whose config does not name one. */
+    static final String SHA1 = "SHA-1";
+
+    /** The algorithm that new repositories may opt into. */
+    static final String SHA256 = "SHA-256";
+
+    /** @param name - An algorithm name given by the user, such as "sha256".
+     *  @return The standard name of the algorithm, or null if it is not
+     *  supported. */
+    static String algorithmNamed(String name) {
+        switch (name.toLowerCase().replace("-", "")) {
+        case "sha1":
+            return SHA1;
+        case "sha256":
+            return SHA256;
+        default:
+            return null;
+        }
+    }
+
+    /** Makes ALGORITHM the algorithm of the current repository, as when it
+     *  is created.
+     *  @param algorithm - The standard name of the algorithm. */
+    static void setAlgorithm(String algorithm) {
+        _algorithm = algorithm;
+    }
+
+    /** @return The standard name of the algorithm of the current
+     *  repository. */
+    static String algorithm() {
+        if (_algorithm == null) {
+            _algorithm = Config.read(Main.REPO).get(HASH_ALGORITHM, SHA1);
+        }
+        return _algorithm;
+    }
+
+    /** @return The length of the IDs of the current repository. */
+    static int idLength() {
+        return STATE.get().digest().getDigestLength() * 2;
+    }
+
+    /** @param name - A file name.
+     *  @return Whether NAME is an ID of the current repository, rather than
+     *  the name of a temporary or other file. */
+    static boolean isId(String name) {
+        return name.length() == idLength() && isHex(name);
+    }
+
+    /** @param name - A file name.
+     *  @return Whether NAME is an ID of a supported algorithm other than
+     *  that of the current repository, as the objects of a repository
+     *  whose config was edited to name another algorithm are. */
+    static boolean isForeignId(String name) {
+        if (name.length() == idLength() || !isHex(name)) {
+            return false;
+        }
+        for (String algorithm : new String[] {SHA1, SHA256}) {
+            try {
+                if (name.length() == MessageDigest.getInstance(algorithm)
+                        .getDigestLength() * 2) {
+                    return true;
+                }
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /** @param name - A string.
+     *  @return Whether NAME consists only of hexadecimal digits. */
+    private static boolean isHex(String name) {
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The digest of the current repository's algorithm for this
+     *  thread, reset. */
+    static MessageDigest digest() {
+        MessageDigest md = STATE.get().digest();
+        md.reset();
+        return md;
+    }
+
+    /** @param vals - A mixture of byte arrays and Strings.
+     *  @return The ID of the concatenation of VALS, Strings being encoded
+     *  as UTF-8. */
+    static String hash(Object... vals) {
+        return toHex(digestOf(vals));
+    }
+
+    /** @param vals - A mixture of byte arrays and Strings.
+     *  @return The digest of the concatenation of VALS, Strings being
+     *  encoded as UTF-8. */
+    static byte[] digestOf(Object... vals) {
+        State state = STATE.get();
+        MessageDigest md = state.digest();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                state.update(md, (String) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        return md.digest();
+    }
+
+    /** @param bytes - A digest.
+     *  @return BYTES as lower-case hexadecimal. */
+    static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /** @param bytes - An array holding a digest.
+     *  @param offset - The index of the first byte of the digest.
+     *  @param length - The length of the digest in bytes.
+     *  @return The digest as lower-case hexadecimal. */
+    static String toHex(byte[] bytes, int offset, int length) {
+        char[] hex = STATE.get().hex(length * 2);
+        for (int i = 0; i < length; i += 1) {
+            byte b = bytes[offset + i];
+            hex[2 * i] = HEX[(b >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(hex, 0, length * 2);
+    }
+
+    /** The digest and buffers of one thread. */
+    private static final class State {
+
+        /** @return The digest of the current repository's algorithm,
+         *  created the first time it is needed. */
+        MessageDigest digest() {
+            String algorithm = algorithm();
+            if (_digest == null || !_digest.getAlgorithm().equals(algorithm)) {
+                try {
+                    _digest = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException excp) {
+                    throw new IllegalArgumentException("System does not "
+                            + "support " + algorithm);
+                }
+            }
+            return _digest;
+        }
+
+        /** Feeds S to MD as UTF-8. ASCII strings, which include all IDs and
+         *  dates, are encoded into a reused buffer.
+         *  @param md - The digest.
+         *  @param s - The string. */
+        void update(MessageDigest md, String s) {
+            int length = s.length();
+            if (_bytes.length < length) {
+                _bytes = new byte[Math.max(length, _bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i += 1) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    md.update(_bytes, 0, i);
+                    md.update(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                _bytes[i] = (byte) c;
+            }
+            md.update(_bytes, 0, length);
+        }
+
+        /** @param length - The number of hex digits needed.
+         *  @return A reused buffer of at least LENGTH characters. */
+        char[] hex(int length) {
+            if (_hex.length < length) {
+                _hex = new char[length];
+            }
+            return _hex;
+        }
+
+        /** The digest of this thread. */
+        private MessageDigest _digest;
+
+        /** Buffer into which strings are encoded. */
+        private byte[] _bytes = new byte[256];
+
+        /** Buffer into which digests are hex-encoded. */
+        private char[] _hex = new char[64];
+    }
+
+    /** The hexadecimal digits, indexed by value. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The digest and buffers of each thread. */
+    private static final ThreadLocal<State> STATE =
+        ThreadLocal.withInitial(State::new);
+
+    /** The algorithm of the current repository, or null if not yet read. */
+    private static volatile String _algorithm;
+}
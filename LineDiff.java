@@ -0,0 +1,193 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** A line-based diff of two versions of a file, computed with Myers'
+ *  O(ND) algorithm in linear space: the common prefix and suffix are
+ *  trimmed, the middle snake of the rest is found by searching from both
+ *  ends at once, and the two halves on either side of it are diffed
+ *  recursively. Lines are numbered by content first, so that comparing
+ *  two lines compares two ints.
+ *  @author Raman Varma
+ */
+public class LineDiff {
+
+    /** @param oldLines - The lines of the old version.
+     *  @param newLines - The lines of the new version.
+     *  @return For each line of NEWLINES, the index of the line of OLDLINES
+     *  it was kept from, or -1 if it was inserted. The kept lines form a
+     *  longest common subsequence of the two versions. */
+    public static int[] match(String[] oldLines, String[] newLines) {
+        HashMap<String, Integer> numbers = new HashMap<>();
+        LineDiff diff = new LineDiff(number(oldLines, numbers),
+                number(newLines, numbers));
+        diff.diff(0, oldLines.length, 0, newLines.length);
+        return diff._match;
+    }
+
+    /** @param data - The contents of a version of a file.
+     *  @return The lines of DATA, decoded as UTF-8, without their line
+     *  terminators. */
+    public static String[] lines(byte[] data) {
+        String contents = new String(data, StandardCharsets.UTF_8);
+        if (contents.isEmpty()) {
+            return new String[0];
+        }
+        String[] lines = contents.split("\n", -1);
+        if (lines[lines.length - 1].isEmpty()) {
+            lines = Arrays.copyOf(lines, lines.length - 1);
+        }
+        return lines;
+    }
+
+    /** @param lines - Some lines.
+     *  @param numbers - The numbers of the distinct lines seen so far.
+     *  @return The numbers of LINES, numbering new lines in NUMBERS. */
+    private static int[] number(String[] lines,
+                                HashMap<String, Integer> numbers) {
+        int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            Integer n = numbers.putIfAbsent(lines[i], numbers.size());
+            result[i] = n == null ? numbers.size() - 1 : n;
+        }
+        return result;
+    }
+
+    /** Creates a diff of A against B, matching nothing yet.
+     *  @param a - The numbered lines of the old version.
+     *  @param b - The numbered lines of the new version. */
+    private LineDiff(int[] a, int[] b) {
+        _a = a;
+        _b = b;
+        _match = new int[b.length];
+        Arrays.fill(_match, -1);
+    }
+
+    /** Matches the lines of _B[BLO..BHI) against those of _A[ALO..AHI).
+     *  @param aLo - The first old line.
+     *  @param aHi - The end of the old lines.
+     *  @param bLo - The first new line.
+     *  @param bHi - The end of the new lines. */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            _match[bLo] = aLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            _match[bHi - 1] = aHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split != null) {
+            diff(aLo, aLo + split[0], bLo, bLo + split[1]);
+            diff(aLo + split[0], aHi, bLo + split[1], bHi);
+        }
+    }
+
+    /** Searches for the middle snake of an edit script turning
+     *  _A[ALO..AHI) into _B[BLO..BHI), extending furthest-reaching paths
+     *  forwards from the start and backwards from the end until they meet.
+     *  @param aLo - The first old line.
+     *  @param aHi - The end of the old lines.
+     *  @param bLo - The first new line.
+     *  @param bHi - The end of the new lines.
+     *  @return The offsets {x, y} of the point at which the two paths meet,
+     *  relative to ALO and BLO, or null if the ranges have no common
+     *  line. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d
+                        && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && _a[aLo + x1] == _b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (odd) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length
+                            && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return new int[] {x1, y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d
+                        && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                        && _a[aHi - x2 - 1] == _b[bHi - y2 - 1]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!odd) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length
+                            && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {x1, y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** The numbered lines of the old version. */
+    private final int[] _a;
+
+    /** The numbered lines of the new version. */
+    private final int[] _b;
+
+    /** For each new line, the index of the old line it matches, or -1. */
+    private final int[] _match;
+}
@@ -1,6 +1,8 @@
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -11,14 +13,12 @@ public class Main {
     /** Gitlet hidden directory. */
     static final File REPO = new File(".gitlet");
 
-    /** Staging area directory containing an addition and removal stage. */
+    /** Staging area directory containing the staging index. */
     static final File STAGING = new File(REPO + "/staging");
 
-    /** Addition stage directory. */
-    static final File STAGING_ADD = new File(STAGING + "/addition");
-
-    /** Removal stage directory. */
-    static final File STAGING_REMOVE = new File(STAGING + "/removal");
+    /** Staging index file mapping files staged for addition to their blobs
+     *  and recording tombstones for files staged for removal. */
+    static final File INDEX = new File(STAGING + "/index");
 
     /** Commit directory containing all commits (immutable). */
     static final File COMMITS = new File(REPO + "/commits");
@@ -32,18 +32,94 @@ public class Main {
     /** Files directory containing all committed files. */
     static final File FILES = new File(REPO + "/files");
 
+    /** The branches and HEAD of the repository. */
+    static final Refs REFS = new Refs(REPO);
+
+    /** The blobs of the repository, stored whole in FILES or as chunks. */
+    static final BlobStore BLOBS = new BlobStore(REPO);
+
+    /** The shallow boundary of the repository, if it has limited history. */
+    static final Shallow SHALLOW = new Shallow(REPO);
+
+    /** The sparse-checkout patterns of the repository. */
+    static final Sparse SPARSE = new Sparse(REPO);
+
     /** Remotes directory containing a HashMap of all remote name to directory
      *  mappings.*/
     static final File REMOTES_MAP = new File(REPO + "/remotes");
 
-    /** The default length of a full SHA1 ID. */
-    static final int FULL_SHA1_LENGTH = 40;
+    /** Option of init naming the hash algorithm of the new repository. */
+    static final String HASH_FLAG = "--hash=";
+
+    /** Option of clone limiting the number of commits copied. */
+    static final String DEPTH_FLAG = "--depth=";
+
+    /** Option of merge reporting the result without making any change. */
+    static final String DRY_RUN_FLAG = "--dry-run";
+
+    /** Option of clone copying commits without their blobs. */
+    static final String NO_BLOBS_FLAG = "--filter=blob:none";
+
+    /** Flag that, given before the command, prints a summary of the
+     *  command's performance metrics to standard error. */
+    static final String TRACE_FLAG = "--trace";
+
+    /** Commands that never write to the repository, and so hold its lock
+     *  shared with each other. */
+    static final Set<String> READ_ONLY_COMMANDS = Set.of("log", "global-log",
+            "find", "status", "fsck");
+
+    /** Commits deserialized during this invocation, keyed by SHA1 ID. */
+    private static final HashMap<ObjectId, Commit> COMMIT_CACHE =
+        new HashMap<>();
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) throws IOException {
+        boolean trace = args.length > 0 && args[0].equals(TRACE_FLAG);
+        if (trace) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         initialChecks(args);
         String command = args[0];
+        Metrics.begin(command, trace);
+        Metrics.Phase phase = Metrics.phase(command);
+        RepoLock lock = lockRepository(command);
+        try {
+            runCommand(command, args);
+        } finally {
+            if (lock != null) {
+                lock.close();
+            }
+            phase.close();
+        }
+    }
+
+    /** @param command - The name of the command to be run.
+     *  @return The lock COMMAND must hold on the repository while it runs:
+     *  shared for commands that only read it, exclusive for the others, and
+     *  null for commands that run outside of a repository and for watch,
+     *  which runs until it is killed. Once the lock is held exclusively,
+     *  changes staged by older versions of Gitlet are moved into the
+     *  staging index. */
+    public static RepoLock lockRepository(String command) {
+        if (command.equals("init") || command.equals("watch")
+                || !requireGitletDir().contains(command)) {
+            return null;
+        } else if (READ_ONLY_COMMANDS.contains(command)) {
+            return RepoLock.shared(REPO);
+        } else {
+            RepoLock lock = RepoLock.exclusive(REPO);
+            StagingIndex.importLegacy(INDEX);
+            return lock;
+        }
+    }
+
+    /** Runs the gitlet command COMMAND.
+     *  @param command - The name of the command.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void runCommand(String command, String... args)
+            throws IOException {
         switch (command) {
         case "init":
             checkInit(args);
@@ -84,6 +160,45 @@ public class Main {
         case "merge":
             checkMerge(args);
             break;
+        case "add-remote":
+            checkAddRemote(args);
+            break;
+        case "rm-remote":
+            checkRmRemote(args);
+            break;
+        case "push":
+            checkPush(args);
+            break;
+        case "fetch":
+            checkFetch(args);
+            break;
+        case "pull":
+            checkPull(args);
+            break;
+        case "prune":
+            checkPrune(args);
+            break;
+        case "fsck":
+            checkFsck(args);
+            break;
+        case "config":
+            checkConfig(args);
+            break;
+        case "pack-refs":
+            checkPackRefs(args);
+            break;
+        case "blame":
+            checkBlame(args);
+            break;
+        case "clone":
+            checkClone(args);
+            break;
+        case "watch":
+            checkWatch(args);
+            break;
+        case "rebase":
+            checkRebase(args);
+            break;
         default:
             commandDoesNotExist();
             break;
@@ -108,10 +223,48 @@ public class Main {
     /** Checks init command input case.
      *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
     public static void checkInit(String... args) throws IOException {
-        if (args.length != 1) {
+        String algorithm = HashEngine.SHA1;
+        if (args.length == 2 && args[1].startsWith(HASH_FLAG)) {
+            algorithm = HashEngine.algorithmNamed(
+                    args[1].substring(HASH_FLAG.length()));
+        } else if (args.length != 1) {
+            incorrectOperands();
+        }
+        if (algorithm == null) {
             incorrectOperands();
         }
-        init();
+        init(algorithm);
+    }
+
+    /** Checks clone command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkClone(String... args) throws IOException {
+        if (args.length < 2 || args.length > 5) {
+            incorrectOperands();
+        }
+        String branchName = null;
+        int depth = 0;
+        boolean partial = false;
+        for (int i = 2; i < args.length; i += 1) {
+            if (args[i].equals(NO_BLOBS_FLAG) && !partial) {
+                partial = true;
+            } else if (args[i].startsWith(DEPTH_FLAG) && depth == 0) {
+                try {
+                    depth = Integer.parseInt(
+                            args[i].substring(DEPTH_FLAG.length()));
+                } catch (NumberFormatException excp) {
+                    incorrectOperands();
+                }
+                if (depth <= 0) {
+                    incorrectOperands();
+                }
+            } else if (!args[i].startsWith("--") && branchName == null) {
+                branchName = args[i];
+            } else {
+                incorrectOperands();
+            }
+        }
+        Remote.clone(args[1], branchName, depth, partial);
     }
 
     /** Checks add command input case.
@@ -157,10 +310,13 @@ public class Main {
     /** Checks log command input case.
      *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
     public static void checkLog(String... args) {
-        if (args.length != 1) {
+        if (args.length == 3 && args[1].equals("--")) {
+            log(args[2]);
+        } else if (args.length == 1) {
+            log();
+        } else {
             incorrectOperands();
         }
-        log();
     }
 
     /** Checks global-log command input case.
@@ -237,35 +393,147 @@ public class Main {
     /** Checks merge command input case.
      *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
     public static void checkMerge(String... args) throws IOException {
+        if (args.length == 3 && args[1].equals(DRY_RUN_FLAG)) {
+            merge(args[2], true);
+        } else if (args.length == 2) {
+            merge(args[1], false);
+        } else {
+            incorrectOperands();
+        }
+    }
+
+    /** Checks add-remote command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkAddRemote(String... args) {
+        if (args.length != 3) {
+            incorrectOperands();
+        }
+        Remote.addRemote(args[1], args[2]);
+    }
+
+    /** Checks rm-remote command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkRmRemote(String... args) {
+        if (args.length != 2) {
+            incorrectOperands();
+        }
+        Remote.rmRemote(args[1]);
+    }
+
+    /** Checks push command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkPush(String... args) throws IOException {
+        if (args.length != 3) {
+            incorrectOperands();
+        }
+        Remote.push(args[1], args[2]);
+    }
+
+    /** Checks fetch command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkFetch(String... args) throws IOException {
+        if (args.length != 3) {
+            incorrectOperands();
+        }
+        Remote.fetch(args[1], args[2]);
+    }
+
+    /** Checks pull command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkPull(String... args) throws IOException {
+        if (args.length != 3) {
+            incorrectOperands();
+        }
+        Remote.pull(args[1], args[2]);
+    }
+
+    /** Checks prune command input case. Accepts the options --dry-run and
+     *  --grace=DAYS in any order.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkPrune(String... args) {
+        boolean dryRun = false;
+        int graceDays = Prune.DEFAULT_GRACE_DAYS;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--dry-run")) {
+                dryRun = true;
+            } else if (args[i].matches("--grace=\\d+")) {
+                graceDays = Integer.parseInt(args[i].substring(8));
+            } else {
+                incorrectOperands();
+            }
+        }
+        Prune.prune(graceDays, dryRun);
+    }
+
+    /** Checks fsck command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkFsck(String... args) {
+        if (args.length != 1) {
+            incorrectOperands();
+        }
+        Fsck.fsck();
+    }
+
+    /** Checks pack-refs command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkPackRefs(String... args) {
+        if (args.length != 1) {
+            incorrectOperands();
+        }
+        REFS.pack();
+    }
+
+    /** Checks blame command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkBlame(String... args) {
         if (args.length != 2) {
             incorrectOperands();
         }
-        merge(args[1]);
+        Blame.blame(args[1]);
+    }
+
+    /** Checks config command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkConfig(String... args) {
+        if (args.length != 2 && args.length != 3) {
+            incorrectOperands();
+        }
+        Config.config(args[1], args.length == 3 ? args[2] : null);
+    }
+
+    /** Checks rebase command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkRebase(String... args) {
+        if (args.length != 2) {
+            incorrectOperands();
+        }
+        Rebase.rebase(args[1]);
+    }
+
+    /** Checks watch command input case.
+     *  @param args - ARGS contains <COMMAND> <OPERAND> .... */
+    public static void checkWatch(String... args) throws IOException {
+        if (args.length != 1) {
+            incorrectOperands();
+        }
+        Monitor.watch();
     }
 
     /** @return - Returns a HashSet of all the gitlet commands that require
-     *  an initialized gitlet directory (all commands but init). */
+     *  an initialized gitlet directory (all commands but init and clone). */
     public static HashSet<String> requireGitletDir() {
         return new HashSet<>(Arrays.asList("add", "commit", "rm",
                 "log", "global-log", "find", "status", "checkout", "branch",
-                "rm-branch", "reset", "merge"));
+                "rm-branch", "reset", "merge", "add-remote", "rm-remote",
+                "push", "fetch", "pull", "prune",
+                "fsck", "config", "pack-refs", "blame", "watch", "rebase"));
     }
 
     /** Determines if a file with name fileName is staged for addition.
      *  @param fileName - The name of the file.
      *  @return - Whether file with name fileName is staged. */
     public static boolean isStaged(String fileName) {
-        boolean isStaged = false;
-        File[] stagedForAdd = STAGING_ADD.listFiles();
-        if (stagedForAdd != null) {
-            for (File f : stagedForAdd) {
-                if (f.getName().equals(fileName)) {
-                    isStaged = true;
-                    break;
-                }
-            }
-        }
-        return isStaged;
+        return readStagingIndex().isStagedForAddition(fileName);
     }
 
     /** Determines if a file with name fileName is tracked in the
@@ -275,7 +543,7 @@ public class Main {
     public static boolean isTracked(String fileName) {
         boolean isTracked = false;
         Commit headCommit = getHeadCommit();
-        HashMap<String, String> trackedFiles = headCommit.getTrackedFiles();
+        Snapshot trackedFiles = headCommit.getTrackedFiles();
         if (trackedFiles != null && trackedFiles.containsKey(fileName)) {
             isTracked = true;
         }
@@ -323,42 +591,54 @@ public class Main {
      *  contains no files and has the commit message "initial commit". It will
      *  have a single branch: master, which initially points to this initial
      *  commit, and master will be the current branch. The timestamp for this
-     *  initial commit will be 00:00:00 UTC, Thursday, 1 January 1970. */
-    public static void init() throws IOException {
+     *  initial commit will be 00:00:00 UTC, Thursday, 1 January 1970.
+     *  @param algorithm - The hash algorithm of the IDs of the new
+     *  repository's objects. */
+    public static void init(String algorithm) throws IOException {
         if (REPO.exists()) {
             System.out.println("A Gitlet version-control system "
                     + "already exists in the current directory.");
             System.exit(0);
         } else {
-            REPO.mkdir();
-            STAGING.mkdir();
-            STAGING_ADD.mkdir();
-            STAGING_REMOVE.mkdir();
-            COMMITS.mkdir();
-            BRANCHES.mkdir();
-            HEAD.createNewFile();
-            FILES.mkdir();
-            REMOTES_MAP.mkdir();
+            createRepository(algorithm);
 
             Date initialDate = new Date(0);
             String initialMessage = "initial commit";
-            String parent = null;
-            HashMap<String, String> trackedFiles = null;
-            String mergedInParent = null;
-            String cSHA1 = Utils.sha1(initialMessage, initialDate.toString());
+            ObjectId parent = null;
+            Snapshot trackedFiles = null;
+            ObjectId mergedInParent = null;
+            ObjectId cSHA1 = Commit.id(parent, initialMessage, initialDate,
+                    trackedFiles);
             Commit initial = new Commit(parent, initialMessage, initialDate,
                     trackedFiles, mergedInParent, cSHA1);
             File initialFile = new File(COMMITS + "/" + cSHA1);
             Utils.writeObject(initialFile, initial);
 
-            String pathToMaster = BRANCHES + "/master";
-            File master = new File(pathToMaster);
-            Utils.writeContents(master, cSHA1);
-            File head = new File(String.valueOf(HEAD));
-            Utils.writeContents(head, pathToMaster);
+            REFS.write("master", cSHA1);
+            REFS.setCurrentBranch("master");
         }
     }
 
+    /** Creates the directories and files of an empty repository whose IDs
+     *  are computed with ALGORITHM, with no commits or branches.
+     *  @param algorithm - The standard name of the hash algorithm. */
+    static void createRepository(String algorithm) throws IOException {
+        REPO.mkdir();
+        if (!algorithm.equals(HashEngine.SHA1)) {
+            Config config = Config.read(REPO);
+            config.set(HashEngine.HASH_ALGORITHM, algorithm);
+            config.write();
+        }
+        HashEngine.setAlgorithm(algorithm);
+        STAGING.mkdir();
+        new StagingIndex(INDEX).write();
+        COMMITS.mkdir();
+        BRANCHES.mkdir();
+        HEAD.createNewFile();
+        FILES.mkdir();
+        REMOTES_MAP.mkdir();
+    }
+
     /** Adds a copy of the file as it currently exists to the staging area.
      *  Staging an already-staged file overwrites the previous entry in the
      *  staging area with the new contents. If the current working version
@@ -373,25 +653,30 @@ public class Main {
             System.out.println("File does not exist.");
             System.exit(0);
         } else {
-            byte[] addFileContents = Utils.readContents(addFile);
-            String addFileSHA1 = Utils.sha1((Object) addFileContents);
-            File copyFile = new File(STAGING_ADD + "/" + fileName);
+            WorkingTree tree = WorkingTree.cached();
+            String addFileSHA1 = tree == null ? null
+                    : tree.files().get(fileName);
+            if (addFileSHA1 == null) {
+                try {
+                    addFileSHA1 = ObjectReader.hash(addFile);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            StagingIndex index = readStagingIndex();
             Commit headCommit = getHeadCommit();
-            HashMap<String, String> headTrackedFiles =
-                    headCommit.getTrackedFiles();
+            Snapshot headTrackedFiles = headCommit.getTrackedFiles();
             if (headTrackedFiles != null
                     && headTrackedFiles.containsKey(fileName)
                     && headTrackedFiles.get(fileName).equals(addFileSHA1)) {
-                if (copyFile.exists()) {
-                    copyFile.delete();
-                }
+                index.unstage(fileName);
             } else {
-                Utils.writeContents(copyFile, (Object) addFileContents);
-            }
-            File stagedForRemoval = new File(STAGING_REMOVE + "/" + fileName);
-            if (stagedForRemoval.exists()) {
-                stagedForRemoval.delete();
+                if (!BLOBS.contains(addFileSHA1)) {
+                    writeBlob(addFileSHA1, Utils.readContents(addFile));
+                }
+                index.stageForAddition(fileName, addFileSHA1);
             }
+            index.write();
         }
     }
 
@@ -410,113 +695,45 @@ public class Main {
      *  @param message - The commit's log message.
      *  @param mergedInParent - The merged-in parent of the commit. Null if
      *  the commit does not have a merged-in parent. */
-    public static void commit(String message, String mergedInParent)
+    public static void commit(String message, ObjectId mergedInParent)
             throws IOException {
         Date timestamp = new Date();
-        if (Objects.requireNonNull(STAGING_ADD.listFiles()).length == 0
-                && Objects.requireNonNull(STAGING_REMOVE.listFiles()).length == 0) {
+        StagingIndex index = readStagingIndex();
+        if (index.isEmpty()) {
             noChanges();
         } else {
             Commit headCommit = getHeadCommit();
-            HashMap<String, String> trackedFilesHead = headCommit.getTrackedFiles();
-            HashMap<String, String> clonedTrackedFiles = new HashMap<>();
-            String parentSHA1;
-            if (headCommit.getTrackedFiles() != null) {
-                parentSHA1 = Utils.sha1(headCommit.getParent(),
-                        headCommit.getMessage(),
-                        headCommit.getTimestamp().toString(),
-                        convertMapToByte(headCommit.getTrackedFiles()));
-            } else {
-                parentSHA1 = Utils.sha1(headCommit.getMessage(),
-                        headCommit.getTimestamp().toString());
-            }
+            Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+            TreeMap<String, String> clonedTrackedFiles = new TreeMap<>();
+            ObjectId parentSHA1 = REFS.headCommit();
             if (trackedFilesHead != null) {
-                for (String fileName : trackedFilesHead.keySet()) {
-                    String fSHA1 = trackedFilesHead.get(fileName);
-                    clonedTrackedFiles.put(fileName, fSHA1);
+                for (int i = 0; i < trackedFilesHead.size(); i += 1) {
+                    clonedTrackedFiles.put(trackedFilesHead.name(i),
+                            trackedFilesHead.id(i));
                 }
             }
-
-            File[] stagedForAdd = STAGING_ADD.listFiles();
-            if (stagedForAdd != null) {
-                for (File add : stagedForAdd) {
-                    String fileName = add.getName();
-                    byte[] addsContent = Utils.readContents(add);
-                    String fSHA1 = Utils.sha1((Object) addsContent);
-                    if (clonedTrackedFiles.containsKey(fileName)) {
-                        clonedTrackedFiles.replace(fileName, fSHA1);
-                    } else {
-                        clonedTrackedFiles.put(fileName, fSHA1);
-                    }
-                }
+            for (Map.Entry<String, String> add
+                    : index.getAdditions().entrySet()) {
+                clonedTrackedFiles.put(add.getKey(), add.getValue());
             }
-            File[] stagedForRm = STAGING_REMOVE.listFiles();
-            if (stagedForRm != null) {
-                for (File rm: stagedForRm) {
-                    String fileName = rm.getName();
-                    clonedTrackedFiles.remove(fileName);
-                }
+            for (String fileName : index.getRemovals()) {
+                clonedTrackedFiles.remove(fileName);
             }
 
-            String commitSHA1 = Utils.sha1(parentSHA1, message,
-                    timestamp.toString(), convertMapToByte(clonedTrackedFiles));
+            Snapshot trackedFiles = Snapshot.of(clonedTrackedFiles);
+            ObjectId commitSHA1 = Commit.id(parentSHA1, message, timestamp,
+                    trackedFiles);
             Commit commit = new Commit(parentSHA1, message, timestamp,
-                    clonedTrackedFiles, mergedInParent, commitSHA1);
+                    trackedFiles, mergedInParent, commitSHA1);
             File commitFile = new File(COMMITS + "/" + commitSHA1);
-            Utils.writeObject(commitFile, commit);
-
-            File[] currFiles = FILES.listFiles();
-            for (String fileName: clonedTrackedFiles.keySet()) {
-                String fileNameSHA1 = clonedTrackedFiles.get(fileName);
-                boolean alreadyInFiles = false;
-                if (currFiles != null) {
-                    for (File f : currFiles) {
-                        if (fileNameSHA1.equals(f.getName())) {
-                            alreadyInFiles = true;
-                            break;
-                        }
-                    }
-                    if (!alreadyInFiles) {
-                        File addNewCommitFile =
-                                new File(FILES + "/" + fileNameSHA1);
-                        if (stagedForAdd != null) {
-                            for (File f : stagedForAdd) {
-                                if (f.getName().equals(fileName)) {
-                                    byte[] fileNameContents =
-                                            Utils.readContents(f);
-                                    Utils.writeContents(addNewCommitFile,
-                                            (Object) fileNameContents);
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    File addNewCommitFile =
-                            new File(FILES + "/" + fileNameSHA1);
-                    if (stagedForAdd != null) {
-                        for (File f : stagedForAdd) {
-                            if (f.getName().equals(fileName)) {
-                                byte[] fileNameContents = Utils.readContents(f);
-                                Utils.writeContents(addNewCommitFile,
-                                        (Object) fileNameContents);
-                            }
-                        }
-                    }
-                }
-            }
-            if (stagedForAdd != null) {
-                for (File fileInAdd : stagedForAdd) {
-                    fileInAdd.delete();
-                }
-            }
-            if (stagedForRm != null) {
-                for (File fileInRm : stagedForRm) {
-                    fileInRm.delete();
-                }
-            }
-            String pathToHead = Utils.readContentsAsString(HEAD);
-            File currHead = new File(pathToHead);
-            Utils.writeContents(currHead, commitSHA1);
+            writeAtomically(commitFile, Utils.serialize(commit));
+            ChangedPaths.write(REPO, commitSHA1, parentSHA1,
+                    trackedFiles, trackedFilesHead);
+
+            index.clear();
+            index.write();
+            REFS.write(getCurrentBranch(), commitSHA1);
+            new Reachability(REPO).updateHead(commitSHA1);
         }
     }
 
@@ -535,21 +752,18 @@ public class Main {
      *  @param isStaged - Whether the file is staged.
      *  @param isTracked - Whether the file is tracked. */
     public static void rm(String fileName, boolean isStaged, boolean isTracked) {
+        StagingIndex index = readStagingIndex();
         if (isStaged) {
-            File rmStaged = new File(STAGING_ADD + "/" + fileName);
-            rmStaged.delete();
+            index.unstage(fileName);
         }
         if (isTracked) {
-            String fileSHA1 = getHeadCommit().getTrackedFiles().get(fileName);
-            File rmFile = new File(FILES + "/" + fileSHA1);
-            byte[] fileToRmContents = Utils.readContents(rmFile);
-            File stageForRm = new File(STAGING_REMOVE + "/" + fileName);
-            Utils.writeContents(stageForRm, (Object) fileToRmContents);
+            index.stageForRemoval(fileName);
             File removedFile = new File(fileName);
             if (removedFile.exists()) {
                 Utils.restrictedDelete(removedFile);
             }
         }
+        index.write();
     }
 
     /** Starting at the current head commit, display information about each
@@ -560,62 +774,111 @@ public class Main {
      *  was made, and the commit message. */
     public static void log() {
         Commit c = getHeadCommit();
-        while (c != null) {
-            displayInfo(c, c.getMergedInParent() != null);
-            String parentSHA1 = c.getParent();
-            File parentCommitFile = new File(COMMITS + "/" + parentSHA1);
-            if (parentCommitFile.exists()) {
-                c = Utils.readObject(parentCommitFile, Commit.class);
-            } else {
-                c = null;
+        try (Output out = Output.open()) {
+            while (c != null && !out.isClosed()) {
+                displayInfo(out, c, c.getMergedInParent() != null);
+                ObjectId parentSHA1 = c.getParent();
+                File parentCommitFile = new File(COMMITS + "/" + parentSHA1);
+                if (parentCommitFile.exists()) {
+                    c = readCommit(parentSHA1);
+                } else {
+                    c = null;
+                }
+            }
+        }
+    }
+
+    /** Like log, except displays only the commits that added, modified or
+     *  removed the file named FILENAME relative to their first parent. The
+     *  walk follows the parent IDs stored in the changed-path filters of the
+     *  commits, and reads a commit only if its filter admits FILENAME or it
+     *  has no filter, so that most commits are never loaded.
+     *  @param fileName - The name of the file. */
+    public static void log(String fileName) {
+        try (Output out = Output.open()) {
+            log(out, fileName);
+        }
+    }
+
+    /** Writes the log of the file named FILENAME to OUT.
+     *  @param out - The output.
+     *  @param fileName - The name of the file. */
+    private static void log(Output out, String fileName) {
+        ObjectId commitSHA1 = REFS.headCommit();
+        while (commitSHA1 != null && !out.isClosed()
+                && new File(COMMITS + "/" + commitSHA1).exists()) {
+            ChangedPaths filter = ChangedPaths.read(REPO, commitSHA1);
+            if (filter != null) {
+                Metrics.increment(Metrics.Counter.BLOOM_CHECKS);
+                if (!filter.mightContain(fileName)) {
+                    Metrics.increment(Metrics.Counter.BLOOM_NEGATIVES);
+                    commitSHA1 = filter.getParent();
+                    continue;
+                }
             }
+            Commit c = readCommit(commitSHA1);
+            ObjectId parentSHA1 = c.getParent();
+            if (parentSHA1 != null
+                    && !new File(COMMITS + "/" + parentSHA1).exists()) {
+                parentSHA1 = null;
+            }
+            Snapshot parentFiles = parentSHA1 == null ? null
+                    : readCommit(parentSHA1).getTrackedFiles();
+            String blobSHA1 = c.getTrackedFiles() == null ? null
+                    : c.getTrackedFiles().get(fileName);
+            String parentBlobSHA1 = parentFiles == null ? null
+                    : parentFiles.get(fileName);
+            if (!Objects.equals(blobSHA1, parentBlobSHA1)) {
+                displayInfo(out, c, c.getMergedInParent() != null);
+            } else if (filter != null) {
+                Metrics.increment(Metrics.Counter.BLOOM_FALSE_POSITIVES);
+            }
+            commitSHA1 = parentSHA1;
         }
     }
 
     /** Like log, except displays information about all commits ever made.
-     *  The order of the commits does not matter. */
+     *  The order of the commits does not matter. Each commit is displayed
+     *  as soon as it is read and is not kept in the commit cache, so the
+     *  history is never held in memory at once. */
     public static void globalLog() {
         File commitsDir = new File(COMMITS.toString());
         List<String> allCommits = Utils.plainFilenamesIn(commitsDir);
         if (allCommits != null) {
-            for (String commitSHA1 : allCommits) {
-                File commitFile = new File(COMMITS + "/" + commitSHA1);
-                Commit c = Utils.readObject(commitFile, Commit.class);
-                displayInfo(c, c.getMergedInParent() != null);
+            try (Output out = Output.open()) {
+                for (String commitSHA1 : allCommits) {
+                    if (out.isClosed()) {
+                        break;
+                    }
+                    Commit c = Utils.readObject(new File(commitsDir,
+                            commitSHA1), Commit.class);
+                    displayInfo(out, c, c.getMergedInParent() != null);
+                }
             }
         }
     }
 
-    /** Displays the following information about commit C: the commit id,
-     *  the time the commit was made, and the commit message. If the commit
-     *  has a merged-in parent, also display the first 7 characters of its
-     *  two parents' IDs on the second line.
+    /** Writes the following information about commit C to OUT: the
+     *  commit id, the time the commit was made, and the commit message. If
+     *  the commit has a merged-in parent, also display the first 7
+     *  characters of its two parents' IDs on the second line.
+     *  @param out - The output.
      *  @param c - The commit object whose information is displayed.
      *  @param mergedParentExists - Whether the commit has a merged-in
      *  parent. */
-    public static void displayInfo(Commit c, boolean mergedParentExists) {
-        System.out.println("===");
-        String commitSHA1;
-        if (c.getTrackedFiles() != null) {
-            commitSHA1 = Utils.sha1(c.getParent(), c.getMessage(),
-                    c.getTimestamp().toString(),
-                    convertMapToByte(c.getTrackedFiles()));
-        } else {
-            commitSHA1 = Utils.sha1(c.getMessage(),
-                    c.getTimestamp().toString());
-        }
-        System.out.println("commit " + commitSHA1);
+    public static void displayInfo(Output out, Commit c,
+                                   boolean mergedParentExists) {
+        out.println("===");
+        out.println("commit " + c.getCommitSHA1());
         if (mergedParentExists) {
-            String firstParent = c.getParent().subSequence(0, 7).toString();
-            String mergedInParent = c.getMergedInParent().subSequence(0, 7).toString();
-            System.out.println("Merge: " + firstParent + " " + mergedInParent);
-        }
-        Date timestamp = c.getTimestamp();
-        SimpleDateFormat formatTimestamp =
-                new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
-        String requiredFormat = formatTimestamp.format(timestamp);
-        System.out.println("Date: " + requiredFormat);
-        System.out.println(c.getMessage() + System.lineSeparator());
+            String firstParent = c.getParent().abbreviate(7);
+            String mergedInParent = c.getMergedInParent().abbreviate(7);
+            out.println("Merge: " + firstParent + " " + mergedInParent);
+        }
+        String requiredFormat = Output.DATE_FORMAT.format(
+                c.getTimestamp().toInstant());
+        out.println("Date: " + requiredFormat);
+        out.println(c.getMessage() + System.lineSeparator());
     }
 
     /** Prints out the IDs of all commits that have the given commit
@@ -624,26 +887,27 @@ public class Main {
      *  @param commitMessage - The given commit message. */
     public static void find(String commitMessage) {
         File commitsDir = new File(COMMITS.toString());
-        File[] allCommitFiles = commitsDir.listFiles();
+        File[] allCommitFiles = Utils.listFiles(commitsDir);
         boolean commitExists = false;
-        if (allCommitFiles != null) {
-            for (File f : allCommitFiles) {
-                Commit c = Utils.readObject(f, Commit.class);
-                String cCommitMessage = c.getMessage();
-                if (commitMessage.equals(cCommitMessage)) {
-                    if (!commitExists) {
-                        commitExists = true;
+        try (Output out = Output.open()) {
+            if (allCommitFiles != null) {
+                for (File f : allCommitFiles) {
+                    if (out.isClosed()) {
+                        return;
+                    }
+                    Commit c = Utils.readObject(f, Commit.class);
+                    String cCommitMessage = c.getMessage();
+                    if (commitMessage.equals(cCommitMessage)) {
+                        if (!commitExists) {
+                            commitExists = true;
+                        }
+                        out.println(f.getName());
                     }
-                    System.out.println(f.getName());
                 }
             }
             if (!commitExists) {
-                System.out.println("Found no commit with that message.");
-                System.exit(0);
+                out.println("Found no commit with that message.");
             }
-        } else {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
         }
     }
 
@@ -651,59 +915,53 @@ public class Main {
      *  branch with a *. Also displays what files have been staged for
      *  addition or removal. */
     public static void status() {
-        List<String> stagedFiles = Utils.plainFilenamesIn(STAGING_ADD);
-        List<String> removedFiles = Utils.plainFilenamesIn(STAGING_REMOVE);
+        StagingIndex index = readStagingIndex();
+        TreeMap<String, String> stagedBlobs = index.getAdditions();
+        List<String> stagedFiles = new ArrayList<>(stagedBlobs.keySet());
+        List<String> removedFiles = index.getRemovals();
         List<String> untrackedFiles = new ArrayList<>();
         List<String> modifiedNotStaged = new ArrayList<>();
 
         Commit headCommit = getHeadCommit();
-        HashMap<String, String> trackedFilesHead
-                = headCommit.getTrackedFiles();
-        Set<String> fileNamesHead = null;
-        if (trackedFilesHead != null) {
-            fileNamesHead = trackedFilesHead.keySet();
-        }
-        File cwd = new File(".");
-        File[] workingFiles = cwd.listFiles();
-        if (workingFiles != null) {
-            for (File f : workingFiles) {
-                if (f.isFile()) {
-                    String fileName = f.getName();
-                    boolean notStaged = stagedFiles != null
-                            && !stagedFiles.contains(fileName);
-                    boolean emptyOrNotInHead = fileNamesHead == null
-                            || !fileNamesHead.contains(fileName);
-                    boolean fileRemoved = removedFiles != null
-                            && removedFiles.contains(fileName);
-                    boolean emptyOrNotStaged = stagedFiles == null
-                            || !stagedFiles.contains(fileName);
-                    if ((notStaged && emptyOrNotInHead) ||
-                            (fileRemoved && emptyOrNotStaged)) {
-                        untrackedFiles.add(fileName);
-                    }
-                    byte[] fsContents = Utils.readContents(f);
-                    String fSHA1 = Utils.sha1((Object) fsContents);
-                    boolean notInHead = fileNamesHead != null
-                            && fileNamesHead.contains(fileName);
-                    if (notInHead && emptyOrNotStaged) {
-                        String headFileSHA1 = trackedFilesHead.get(fileName);
-                        if (!fSHA1.equals(headFileSHA1)) {
-                            modifiedNotStaged.add(fileName + " (modified)");
-                        }
-                    }
-                    if (!modifiedNotStaged.contains(fileName) && stagedFiles != null
-                            && stagedFiles.contains(fileName)) {
-                        File stagedFile = new File(STAGING_ADD + "/" + fileName);
-                        byte[] stagedFileContents = Utils.readContents(stagedFile);
-                        String stagedFileSHA1 = Utils.sha1((Object) stagedFileContents);
-                        if (!fSHA1.equals(stagedFileSHA1)) {
-                            modifiedNotStaged.add(fileName + " (modified)");
-                        }
-                    }
+        Snapshot fileNamesHead = headCommit.getTrackedFiles();
+        TreeMap<String, String> workingFiles = WorkingTree.read().files();
+        for (Map.Entry<String, String> f : workingFiles.entrySet()) {
+            String fileName = f.getKey();
+            boolean notStaged = stagedFiles != null
+                    && !stagedFiles.contains(fileName);
+            boolean emptyOrNotInHead = fileNamesHead == null
+                    || !fileNamesHead.containsKey(fileName);
+            boolean fileRemoved = removedFiles != null
+                    && removedFiles.contains(fileName);
+            boolean emptyOrNotStaged = stagedFiles == null
+                    || !stagedFiles.contains(fileName);
+            if ((notStaged && emptyOrNotInHead) ||
+                    (fileRemoved && emptyOrNotStaged)) {
+                untrackedFiles.add(fileName);
+            }
+            String fSHA1 = f.getValue();
+            boolean notInHead = fileNamesHead != null
+                    && fileNamesHead.containsKey(fileName);
+            if (notInHead && emptyOrNotStaged) {
+                String headFileSHA1 = fileNamesHead.get(fileName);
+                if (!fSHA1.equals(headFileSHA1)) {
+                    modifiedNotStaged.add(fileName + " (modified)");
+                }
+            }
+            if (!modifiedNotStaged.contains(fileName) && stagedFiles != null
+                    && stagedFiles.contains(fileName)) {
+                String stagedFileSHA1 = stagedBlobs.get(fileName);
+                if (!fSHA1.equals(stagedFileSHA1)) {
+                    modifiedNotStaged.add(fileName + " (modified)");
                 }
             }
         }
-        List<String> allBranches = Utils.plainFilenamesIn(BRANCHES);
+        List<String> allBranches = new ArrayList<>();
+        for (String branchName : REFS.all().keySet()) {
+            if (!branchName.contains("/")) {
+                allBranches.add(branchName);
+            }
+        }
         String currentBranchName = getCurrentBranch();
         if (allBranches != null) {
             for (int i = 0; i < allBranches.size(); i += 1) {
@@ -713,31 +971,24 @@ public class Main {
                 }
             }
         }
-        if (workingFiles != null && stagedFiles != null) {
+        if (stagedFiles != null) {
             List<String> stagedFilesCopy = new ArrayList<>(stagedFiles);
-            for (File f : workingFiles) {
-                String fileName = f.getName();
-                stagedFilesCopy.remove(fileName);
-            }
+            stagedFilesCopy.removeAll(workingFiles.keySet());
             for (String stagedFileName : stagedFilesCopy) {
-                if (!modifiedNotStaged.contains(stagedFileName)) {
+                if (!modifiedNotStaged.contains(stagedFileName)
+                        && SPARSE.includes(stagedFileName)) {
                     modifiedNotStaged.add(stagedFileName + " (deleted)");
                 }
             }
-        } else if (stagedFiles != null) {
-            for (String stagedFileName: stagedFiles) {
-                modifiedNotStaged.add(stagedFileName + " (deleted)");
-            }
         }
         if (fileNamesHead != null) {
-            if (workingFiles != null) {
-                for (File f : workingFiles) {
-                    fileNamesHead.remove(f.getName());
+            for (String fileNameHead : fileNamesHead.names()) {
+                if (workingFiles.containsKey(fileNameHead)) {
+                    continue;
                 }
-            }
-            for (String fileNameHead : fileNamesHead) {
-                if (removedFiles == null
-                        || !removedFiles.contains(fileNameHead)) {
+                if ((removedFiles == null
+                        || !removedFiles.contains(fileNameHead))
+                        && SPARSE.includes(fileNameHead)) {
                     modifiedNotStaged.add(fileNameHead + " (deleted)");
                 }
             }
@@ -795,19 +1046,10 @@ public class Main {
      *  @param fileName - The name of the file to checkout. */
     public static void checkout1(String fileName) {
         Commit headCommit = getHeadCommit();
-        HashMap<String, String> trackedFiles = headCommit.getTrackedFiles();
+        Snapshot trackedFiles = headCommit.getTrackedFiles();
         if (trackedFiles.containsKey(fileName)) {
             String fileNameSHA1 = trackedFiles.get(fileName);
-            File[] committedFiles = FILES.listFiles();
-            if (committedFiles != null) {
-                for (File f : committedFiles) {
-                    if (fileNameSHA1.equals(f.getName())) {
-                        byte[] fsContents = Utils.readContents(f);
-                        File addToCWD = new File(fileName);
-                        Utils.writeContents(addToCWD, (Object) fsContents);
-                    }
-                }
-            }
+            BLOBS.writeTo(fileNameSHA1, new File(fileName));
         } else {
             noFile();
         }
@@ -826,54 +1068,43 @@ public class Main {
      *  @param fileName - The name of the file to checkout.
      *  @param commitID - The ID of the commit from which the file is taken. */
     public static void checkout2(String commitID, String fileName) {
-        File[] allCommits = COMMITS.listFiles();
+        ObjectId commitSHA1 = findCommit(commitID);
+        if (commitSHA1 == null) {
+            noCommit();
+        }
+        Snapshot trackedFiles = readCommit(commitSHA1).getTrackedFiles();
+        if (trackedFiles != null && trackedFiles.containsKey(fileName)) {
+            String fileNameSHA1 = trackedFiles.get(fileName);
+            BLOBS.writeTo(fileNameSHA1, new File(fileName));
+        } else {
+            noFile();
+        }
+    }
+
+    /** @param commitID - The ID of a commit, which may be abbreviated to
+     *  any number of its leading digits.
+     *  @return The ID of a commit whose ID begins with COMMITID, or null if
+     *  there is none. */
+    public static ObjectId findCommit(String commitID) {
+        if (commitID.isEmpty()) {
+            return null;
+        } else if (commitID.length() >= HashEngine.idLength()) {
+            return HashEngine.isId(commitID)
+                    && new File(COMMITS, commitID).isFile()
+                    ? ObjectId.fromHex(commitID) : null;
+        }
+        List<String> allCommits = Utils.plainFilenamesIn(COMMITS);
         if (allCommits != null) {
-            boolean noCommitWithID = true;
-            for (File commitFile : allCommits) {
-                Commit commit = Utils.readObject(commitFile, Commit.class);
-                String commitSHA1;
-                if (commit.getTrackedFiles() != null) {
-                    commitSHA1 = Utils.sha1(commit.getParent(),
-                            commit.getMessage(),
-                            commit.getTimestamp().toString(),
-                            convertMapToByte(commit.getTrackedFiles()));
-                } else {
-                    commitSHA1 = Utils.sha1(commit.getMessage(),
-                            commit.getTimestamp().toString());
-                }
-                String commitSHA1Shorten = "";
-                if (commitID.length() < FULL_SHA1_LENGTH) {
-                    commitSHA1Shorten
-                            = (String) commitSHA1.subSequence(0, commitID.length());
-                }
-                boolean matchesShortenedID = !commitSHA1Shorten.isEmpty()
-                        && commitSHA1Shorten.equals(commitID);
-                if (commitSHA1.equals(commitID) || matchesShortenedID) {
-                    noCommitWithID = false;
-                    HashMap<String, String> trackedFiles = commit.getTrackedFiles();
-                    if (trackedFiles.containsKey(fileName)) {
-                        String fileNameSHA1 = trackedFiles.get(fileName);
-                        File[] committedFiles = FILES.listFiles();
-                        if (committedFiles != null) {
-                            for (File f : committedFiles) {
-                                if (fileNameSHA1.equals(f.getName())) {
-                                    byte[] fsContents = Utils.readContents(f);
-                                    File addToCWD = new File(fileName);
-                                    Utils.writeContents(addToCWD, (Object) fsContents);
-                                }
-                            }
-                        }
-                    } else {
-                        noFile();
+            for (String commitName : allCommits) {
+                if (HashEngine.isId(commitName)) {
+                    ObjectId commitSHA1 = ObjectId.fromHex(commitName);
+                    if (commitSHA1.startsWith(commitID)) {
+                        return commitSHA1;
                     }
                 }
             }
-            if (noCommitWithID) {
-                noCommit();
-            }
-        } else {
-            noCommit();
         }
+        return null;
     }
 
     /** Takes all files in the commit at the head of the given branch, and
@@ -886,46 +1117,34 @@ public class Main {
      *  @param branchName - The name of the branch being checked-out. */
     public static void checkout3(String branchName) {
         handleErrorsCheckout3(branchName);
-        String pathToCheckedOutBranch = BRANCHES + "/" + branchName;
-        File checkedOutBranch = new File(pathToCheckedOutBranch);
-        String checkedOutCommitSHA1
-                = Utils.readContentsAsString(checkedOutBranch);
-        File[] allCommits = COMMITS.listFiles();
+        ObjectId checkedOutCommitSHA1 = REFS.read(branchName);
+        File[] allCommits = Utils.listFiles(COMMITS);
         Commit checkedOutCommit = null;
         if (allCommits != null) {
-            for (File f : allCommits) {
-                if (checkedOutCommitSHA1.equals(f.getName())) {
-                    checkedOutCommit = Utils.readObject(f, Commit.class);
-                    break;
-                }
+            if (new File(COMMITS, checkedOutCommitSHA1.toString()).isFile()) {
+                checkedOutCommit = readCommit(checkedOutCommitSHA1);
             }
             Commit headCommit = getHeadCommit();
-            HashMap<String, String> trackedFilesHead
-                    = headCommit.getTrackedFiles();
-            Set<String> headFiles;
+            Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+            List<String> headFiles;
             if (trackedFilesHead == null) {
-                headFiles = new HashSet<>();
+                headFiles = new ArrayList<>();
             } else {
-                headFiles = trackedFilesHead.keySet();
+                headFiles = trackedFilesHead.names();
             }
             if (checkedOutCommit != null) {
-                HashMap<String, String> trackedFilesCheckedOut
+                Snapshot trackedFilesCheckedOut
                         = checkedOutCommit.getTrackedFiles();
-                Set<String> checkedOutFiles;
-                if (trackedFilesCheckedOut != null) {
-                    checkedOutFiles = trackedFilesCheckedOut.keySet();
-                } else {
-                    checkedOutFiles = new HashSet<>();
+                if (trackedFilesCheckedOut == null) {
+                    trackedFilesCheckedOut = Snapshot.EMPTY;
                 }
-                for (String fileName : checkedOutFiles) {
-                    String fileNameSHA1 = trackedFilesCheckedOut.get(fileName);
-                    File f = new File(FILES + "/" + fileNameSHA1);
-                    byte[] fsContents = Utils.readContents(f);
-                    File fInCWD = new File(fileName);
-                    Utils.writeContents(fInCWD, fsContents);
+                BLOBS.require(sparseBlobs(trackedFilesCheckedOut));
+                for (int i = 0; i < trackedFilesCheckedOut.size(); i += 1) {
+                    materialize(trackedFilesCheckedOut.name(i),
+                            trackedFilesCheckedOut.id(i));
                 }
                 for (String fileName : headFiles) {
-                    if (!checkedOutFiles.contains(fileName)) {
+                    if (!trackedFilesCheckedOut.containsKey(fileName)) {
                         File f = new File(fileName);
                         f.delete();
                     }
@@ -938,23 +1157,12 @@ public class Main {
             }
         }
         clearStagingArea();
-        Utils.writeContents(HEAD, pathToCheckedOutBranch);
+        REFS.setCurrentBranch(branchName);
     }
 
     /** Clear the staging area (addition stage and removal stage). */
     public static void clearStagingArea() {
-        File[] stagedForAdd = STAGING_ADD.listFiles();
-        if (stagedForAdd != null) {
-            for (File f : stagedForAdd) {
-                f.delete();
-            }
-        }
-        File[] stagedForRemoval = STAGING_REMOVE.listFiles();
-        if (stagedForRemoval != null) {
-            for (File f : stagedForRemoval) {
-                f.delete();
-            }
-        }
+        new StagingIndex(INDEX).write();
     }
 
     /** Handles the following error cases for CHECKOUT3: If no branch with
@@ -965,45 +1173,31 @@ public class Main {
      *  the way; delete it, or add and commit it first." and exit.
      *  @param branchName - The name of the branch. */
     public static void handleErrorsCheckout3(String branchName) {
-        File branchesDir = new File(BRANCHES.toString());
-        List<String> allBranchNames = Utils.plainFilenamesIn(branchesDir);
-        if (allBranchNames != null && !allBranchNames.contains(branchName)) {
+        ObjectId checkedOutCommitSHA1 = REFS.read(branchName);
+        if (checkedOutCommitSHA1 == null) {
             System.out.println("No such branch exists.");
             System.exit(0);
         }
-        File head = new File(HEAD.toString());
-        String pathToBranch = Utils.readContentsAsString(head);
-        File currBranch = new File(pathToBranch);
-        if (branchName.equals(currBranch.getName())) {
+        if (branchName.equals(getCurrentBranch())) {
             System.out.println("No need to checkout the current branch.");
             System.exit(0);
         }
-        File checkedOutBranch = new File(BRANCHES + "/" + branchName);
-        String checkedOutCommitSHA1 = Utils.readContentsAsString(checkedOutBranch);
-        File checkedOutCommitFile
-                = new File(COMMITS + "/" + checkedOutCommitSHA1);
-        Commit checkedOutCommit
-                = Utils.readObject(checkedOutCommitFile, Commit.class);
+        Commit checkedOutCommit = readCommit(checkedOutCommitSHA1);
         if (checkedOutCommit != null) {
             Commit headCommit = getHeadCommit();
-            HashMap<String, String> trackedFilesHead = headCommit.getTrackedFiles();
-            HashMap<String, String> trackedFilesCheckedOut
+            Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+            Snapshot trackedFilesCheckedOut
                     = checkedOutCommit.getTrackedFiles();
-            File cwd = new File(".");
-            File[] workingFiles = cwd.listFiles();
-            if (workingFiles != null) {
-                for (File f : workingFiles) {
-                    String fileName = f.getName();
-                    boolean notInHead = trackedFilesHead == null
-                            || !trackedFilesHead.containsKey(fileName);
-                    boolean inCheckedOut = trackedFilesCheckedOut != null
-                            && trackedFilesCheckedOut.containsKey(fileName);
-                    if (notInHead && inCheckedOut) {
-                        System.out.println("There is an untracked file in the"
-                                + " way; delete it, or add "
-                                + "and commit it first.");
-                        System.exit(0);
-                    }
+            for (String fileName : workingFileNames()) {
+                boolean notInHead = trackedFilesHead == null
+                        || !trackedFilesHead.containsKey(fileName);
+                boolean inCheckedOut = trackedFilesCheckedOut != null
+                        && trackedFilesCheckedOut.containsKey(fileName);
+                if (notInHead && inCheckedOut && SPARSE.includes(fileName)) {
+                    System.out.println("There is an untracked file in the"
+                            + " way; delete it, or add "
+                            + "and commit it first.");
+                    System.exit(0);
                 }
             }
         }
@@ -1014,20 +1208,11 @@ public class Main {
      *  the newly created branch.
      *  @param branchName - The name of the new branch. */
     public static void branch(String branchName) {
-        File branchesDir = new File(BRANCHES.toString());
-        List<String> allBranchNames = Utils.plainFilenamesIn(branchesDir);
-        if (allBranchNames != null && allBranchNames.contains(branchName)) {
+        if (REFS.exists(branchName)) {
             System.out.println("A branch with that name already exists.");
             System.exit(0);
         }
-        File head = new File(String.valueOf(HEAD));
-        String pathToHeadCommit = Utils.readContentsAsString(head);
-        File branchOfHead = new File(pathToHeadCommit);
-        String headSHA1 = Utils.readContentsAsString(branchOfHead);
-
-        String pathToNewBranch = BRANCHES + "/" + branchName;
-        File newBranch = new File(pathToNewBranch);
-        Utils.writeContents(newBranch, headSHA1);
+        REFS.write(branchName, REFS.headCommit());
     }
 
     /** Deletes the branch with the given name. This means to delete
@@ -1035,18 +1220,15 @@ public class Main {
      *  delete all commits that were created under the branch.
      *  @param branchName - The name of the branch to remove. */
     public static void rmBranch(String branchName) {
-        File removeBranch = new File(BRANCHES + "/" + branchName);
-        if (!removeBranch.exists()) {
+        if (!REFS.exists(branchName)) {
             System.out.println("A branch with that name does not exist.");
             System.exit(0);
         }
-        String pathToCurrBranch = Utils.readContentsAsString(HEAD);
-        File currBranch = new File(pathToCurrBranch);
-        if (branchName.equals(currBranch.getName())) {
+        if (branchName.equals(getCurrentBranch())) {
             System.out.println("Cannot remove the current branch.");
             System.exit(0);
         }
-        removeBranch.delete();
+        REFS.delete(branchName);
     }
 
     /** Checks out all the files tracked by the given commit. Removes
@@ -1056,55 +1238,30 @@ public class Main {
      *  cleared.
      *  @param commitID - The ID of the given commit. */
     public static void reset(String commitID) {
-        String fullSHA1 = "";
-        if (commitID.length() < FULL_SHA1_LENGTH) {
-            File[] allCommits = COMMITS.listFiles();
-            if (allCommits != null) {
-                for (File commit : allCommits) {
-                    String commitName = commit.getName();
-                    if (commitName.contains(commitID)) {
-                        fullSHA1 = commitName;
-                        break;
-                    }
-                }
-            }
-        } else {
-            File commitIDFile = new File(COMMITS + "/" + commitID);
-            if (commitIDFile.exists()) {
-                fullSHA1 = commitID;
-            }
-        }
-        if (fullSHA1.isEmpty()) {
+        ObjectId fullSHA1 = findCommit(commitID);
+        if (fullSHA1 == null) {
             System.out.println("No commit with that id exists.");
             System.exit(0);
         }
-        File checkedOutCommitFile = new File(COMMITS + "/" + fullSHA1);
-        Commit checkedOutCommit
-                = Utils.readObject(checkedOutCommitFile, Commit.class);
+        Commit checkedOutCommit = readCommit(fullSHA1);
         handleError2Reset(checkedOutCommit);
 
-        HashMap<String, String> trackedFilesCheckedOut
-                = checkedOutCommit.getTrackedFiles();
-        Set<String> checkedOutFiles = trackedFilesCheckedOut.keySet();
-        for (String fileName : checkedOutFiles) {
-            String fileNameSHA1 = trackedFilesCheckedOut.get(fileName);
-            File f = new File(FILES + "/" + fileNameSHA1);
-            byte[] fsContents = Utils.readContents(f);
-            File fInCWD = new File(fileName);
-            Utils.writeContents(fInCWD, (Object) fsContents);
+        Snapshot trackedFilesCheckedOut = checkedOutCommit.getTrackedFiles();
+        BLOBS.require(sparseBlobs(trackedFilesCheckedOut));
+        for (int i = 0; i < trackedFilesCheckedOut.size(); i += 1) {
+            materialize(trackedFilesCheckedOut.name(i),
+                    trackedFilesCheckedOut.id(i));
         }
         Commit headCommit = getHeadCommit();
-        HashMap<String, String> trackedFilesHead = headCommit.getTrackedFiles();
-        Set<String> headFiles = trackedFilesHead.keySet();
-        for (String fileName : headFiles) {
-            if (!checkedOutFiles.contains(fileName)) {
+        Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+        for (String fileName : trackedFilesHead.names()) {
+            if (!trackedFilesCheckedOut.containsKey(fileName)) {
                 File f = new File(fileName);
                 f.delete();
             }
         }
-        String currBranchName = getCurrentBranch();
-        File currBranch = new File(BRANCHES + "/" + currBranchName);
-        Utils.writeContents(currBranch, fullSHA1);
+        REFS.write(getCurrentBranch(), fullSHA1);
+        new Reachability(REPO).updateHead(fullSHA1);
         clearStagingArea();
     }
 
@@ -1114,93 +1271,280 @@ public class Main {
      *  @param checkedOutCommit - The checked-out commit object. */
     public static void handleError2Reset(Commit checkedOutCommit) {
         Commit headCommit = getHeadCommit();
-        HashMap<String, String> trackedFilesHead = headCommit.getTrackedFiles();
-        HashMap<String, String> trackedFilesCheckedOut
-                = checkedOutCommit.getTrackedFiles();
-        File cwd = new File(".");
-        File[] workingFiles = cwd.listFiles();
-        if (workingFiles != null) {
-            for (File f : workingFiles) {
-                if (f.isFile()) {
-                    String fileName = f.getName();
-                    boolean trackedByHead = trackedFilesHead.containsKey(fileName);
-                    boolean fInCheckedOutCommit
-                            = trackedFilesCheckedOut.containsKey(fileName);
-                    File stagedForAdd
-                            = new File(STAGING_ADD + "/" + fileName);
-                    boolean isStagedForAdd = stagedForAdd.exists();
-                    if (!trackedByHead && fInCheckedOutCommit && !isStagedForAdd) {
-                        System.out.println("There is an untracked file in the "
-                                + "way; delete it, or add "
-                                + "and commit it first.");
-                        System.exit(0);
-                    }
-                }
+        Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+        Snapshot trackedFilesCheckedOut = checkedOutCommit.getTrackedFiles();
+        StagingIndex index = readStagingIndex();
+        for (String fileName : workingFileNames()) {
+            boolean trackedByHead = trackedFilesHead.containsKey(fileName);
+            boolean fInCheckedOutCommit
+                    = trackedFilesCheckedOut.containsKey(fileName);
+            boolean isStagedForAdd = index.isStagedForAddition(fileName);
+            if (!trackedByHead && fInCheckedOutCommit && !isStagedForAdd
+                    && SPARSE.includes(fileName)) {
+                System.out.println("There is an untracked file in the "
+                        + "way; delete it, or add "
+                        + "and commit it first.");
+                System.exit(0);
             }
         }
     }
 
-    /** Merges files from the given branch into the current branch.
-     *  @param branchName - The name of the given branch. */
-    public static void merge(String branchName) throws IOException {
+    /** Merges files from the given branch into the current branch. The
+     *  files of the merge commit and the conflicts are computed in memory
+     *  from the files tracked at the split point, the head and the given
+     *  branch, and only then written to the working directory and staged,
+     *  in one pass. In a shallow clone the two branches may have no common
+     *  ancestor within the copied history, in which case every file is
+     *  merged as if it were absent at the split point.
+     *  @param branchName - The name of the given branch.
+     *  @param dryRun - Whether to only report the conflicting files,
+     *  changing nothing. */
+    public static void merge(String branchName, boolean dryRun)
+            throws IOException {
         handleErrorsMerge(branchName);
         Commit head = getHeadCommit();
-        File headCommitFile = new File(BRANCHES + "/" + getCurrentBranch());
-        String headSHA1 = Utils.readContentsAsString(headCommitFile);
-
-        File branchFile = new File(BRANCHES + "/" + branchName);
-        String branchSHA1 = Utils.readContentsAsString(branchFile);
-        File branchHeadCommitFile = new File(COMMITS + "/" + branchSHA1);
-        Commit branch = Utils.readObject(branchHeadCommitFile, Commit.class);
-
-        HashMap<Commit, Integer> markedByHead = getMarkedCommits(head);
-        HashMap<Commit, Integer> markedByBranch = getMarkedCommits(branch);
-        Commit splitPoint = findUnion(markedByHead, markedByBranch);
-        String splitPointSHA1 = splitPoint.getCommitSHA1();
-        if (splitPointSHA1.equals(branchSHA1)) {
+        ObjectId headSHA1 = REFS.headCommit();
+        ObjectId branchSHA1 = REFS.read(branchName);
+        Commit branch = readCommit(branchSHA1);
+
+        Reachability reachability = new Reachability(REPO);
+        boolean branchIsAncestor;
+        boolean headIsAncestor = false;
+        Metrics.Phase ancestry = Metrics.phase("ancestry");
+        try {
+            branchIsAncestor = reachability.isAncestor(branchSHA1, headSHA1);
+            if (!branchIsAncestor) {
+                headIsAncestor = reachability.isAncestor(headSHA1, branchSHA1);
+            }
+        } finally {
+            ancestry.close();
+        }
+        if (branchIsAncestor) {
             printAncestorMessage();
-        } else if (splitPointSHA1.equals(headSHA1)) {
+        } else if (headIsAncestor && dryRun) {
+            System.out.println("Current branch would be fast-forwarded.");
+        } else if (headIsAncestor) {
             checkout3(branchName);
             System.out.println("Current branch fast-forwarded.");
         } else {
-            HashSet<String> modInBranchSinceSplit = new HashSet<>();
-            HashMap<String, String> trackedFilesBranch = branch.getTrackedFiles();
-            Set<String> trackedFilesBranchNames = trackedFilesBranch.keySet();
-            HashMap<String, String> trackedFilesSplitPoint
-                    = splitPoint.getTrackedFiles();
-            HashMap<String, String> trackedFilesHead = head.getTrackedFiles();
-            mergeCase1(branchSHA1, trackedFilesSplitPoint, trackedFilesBranch,
-                    trackedFilesBranchNames, trackedFilesHead,
-                    modInBranchSinceSplit);
-            mergeCase2(trackedFilesBranchNames, trackedFilesHead,
-                    trackedFilesSplitPoint, branchSHA1);
-            boolean encounteredConflict = mergeCase3And4(false,
-                    trackedFilesSplitPoint, trackedFilesHead,
-                    trackedFilesBranch);
-            for (String fileName : trackedFilesBranchNames) {
-                boolean notAtSplitPoint = trackedFilesSplitPoint == null
-                        || !trackedFilesSplitPoint.containsKey(fileName);
-                if (notAtSplitPoint
-                        && trackedFilesHead.containsKey(fileName)) {
-                    String fileSHA1AtHead = trackedFilesHead.get(fileName);
-                    String fileSHA1AtBranch = trackedFilesBranch.get(fileName);
-                    if (!fileSHA1AtHead.equals(fileSHA1AtBranch)) {
-                        replaceContents(fileName, fileSHA1AtHead,
-                                fileSHA1AtBranch);
-                        add(fileName);
-                        encounteredConflict = true;
-                    }
+            Commit splitPoint;
+            Metrics.Phase mergeBase = Metrics.phase("merge-base");
+            try {
+                Events.MergeBase event = new Events.MergeBase();
+                event.begin();
+                HashMap<Commit, Integer> markedByHead = getMarkedCommits(head);
+                HashMap<Commit, Integer> markedByBranch
+                        = getMarkedCommits(branch);
+                splitPoint = findUnion(markedByHead, markedByBranch);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.head = headSHA1.toString();
+                    event.branch = branchSHA1.toString();
+                    event.splitPoint = splitPoint == null ? null
+                            : splitPoint.getCommitSHA1().toString();
+                    event.commitsVisited = markedByHead.size()
+                            + markedByBranch.size();
+                    event.commit();
                 }
+            } finally {
+                mergeBase.close();
+            }
+            TreeMap<String, String[]> conflicts = new TreeMap<>();
+            TreeMap<String, String> changes = mergeTrees(
+                    splitPoint == null ? null : splitPoint.getTrackedFiles(),
+                    head.getTrackedFiles(), branch.getTrackedFiles(),
+                    conflicts);
+            if (dryRun) {
+                for (String fileName : conflicts.keySet()) {
+                    System.out.println("Conflict in " + fileName);
+                }
+                if (conflicts.isEmpty()) {
+                    System.out.println("Merge would succeed without "
+                            + "conflicts.");
+                } else {
+                    System.out.println("Encountered a merge conflict.");
+                }
+                return;
+            }
+            Metrics.Phase writeMerge = Metrics.phase("write-merge");
+            try {
+                writeMergeResult(head.getTrackedFiles(), changes, conflicts);
+            } finally {
+                writeMerge.close();
             }
             String logMessage = "Merged " + branchName + " into "
-                    + headCommitFile.getName() + ".";
+                    + getCurrentBranch() + ".";
             commit(logMessage, branchSHA1);
-            if (encounteredConflict) {
+            if (!conflicts.isEmpty()) {
                 System.out.println("Encountered a merge conflict.");
             }
         }
     }
 
+    /** Computes the files of a merge commit without touching the working
+     *  directory or the staging area. Renames are detected first, so that
+     *  all three snapshots use the new names.
+     *  @param split - The files tracked at the split point, or null if
+     *  there is none.
+     *  @param head - The files tracked by the head commit.
+     *  @param branch - The files tracked by the given branch.
+     *  @param conflicts - Map to which the conflicting files are added,
+     *  each with the IDs of its blobs in the head and the given branch
+     *  (null where absent).
+     *  @return The files of the merge commit that differ from HEAD, with
+     *  the IDs of their new blobs, or null for files removed. Each
+     *  conflicting file keeps its blob in the head, if any, until its
+     *  merged contents are written. */
+    static TreeMap<String, String> mergeTrees(Snapshot split, Snapshot head,
+                                              Snapshot branch,
+                                              TreeMap<String, String[]>
+                                                      conflicts) {
+        Snapshot trackedFilesBranch = branch == null ? Snapshot.EMPTY
+                : branch;
+        Snapshot trackedFilesHead = head == null ? Snapshot.EMPTY : head;
+        Snapshot trackedFilesSplitPoint = split;
+        if (split != null) {
+            Metrics.Phase renames = Metrics.phase("renames");
+            try {
+                Snapshot[] renamed = Renames.apply(split, trackedFilesHead,
+                        trackedFilesBranch);
+                trackedFilesSplitPoint = renamed[0];
+                trackedFilesHead = renamed[1];
+                trackedFilesBranch = renamed[2];
+            } finally {
+                renames.close();
+            }
+        }
+        TreeMap<String, String> changes = new TreeMap<>();
+        HashSet<String> modInBranchSinceSplit = new HashSet<>();
+        List<String> trackedFilesBranchNames = trackedFilesBranch.names();
+        Events.MergeCase event = new Events.MergeCase();
+        event.begin();
+        mergeCase1(trackedFilesSplitPoint, trackedFilesBranch,
+                trackedFilesBranchNames, trackedFilesHead,
+                modInBranchSinceSplit, changes);
+        commitMergeCase(event, "mergeCase1",
+                trackedFilesBranchNames.size(), false);
+        event = new Events.MergeCase();
+        event.begin();
+        mergeCase2(trackedFilesBranch, trackedFilesHead,
+                trackedFilesSplitPoint, changes);
+        commitMergeCase(event, "mergeCase2",
+                trackedFilesBranchNames.size(), false);
+        event = new Events.MergeCase();
+        event.begin();
+        mergeCase3And4(trackedFilesSplitPoint, trackedFilesHead,
+                trackedFilesBranch, changes, conflicts);
+        commitMergeCase(event, "mergeCase3And4",
+                trackedFilesSplitPoint == null ? 0
+                        : trackedFilesSplitPoint.size(),
+                !conflicts.isEmpty());
+        for (String fileName : trackedFilesBranchNames) {
+            boolean notAtSplitPoint = trackedFilesSplitPoint == null
+                    || !trackedFilesSplitPoint.containsKey(fileName);
+            if (notAtSplitPoint && trackedFilesHead.containsKey(fileName)) {
+                String fileSHA1AtHead = trackedFilesHead.get(fileName);
+                String fileSHA1AtBranch = trackedFilesBranch.get(fileName);
+                if (!fileSHA1AtHead.equals(fileSHA1AtBranch)) {
+                    conflicts.put(fileName, new String[] {fileSHA1AtHead,
+                        fileSHA1AtBranch});
+                }
+            }
+        }
+        if (trackedFilesHead != head) {
+            trackedFilesHead.diff(head, (fileName, renamed, original) -> {
+                if (!changes.containsKey(fileName)) {
+                    changes.put(fileName, renamed);
+                }
+            });
+        }
+        return changes;
+    }
+
+    /** Writes the result of a merge to the working directory and the
+     *  staging area in a single pass. The blobs needed are fetched first,
+     *  in one batch if the repository is a partial clone. The merged
+     *  contents of each conflicting file are stored as a blob and added to
+     *  CHANGES. Then every changed file whose blob differs from HEAD is
+     *  written, unless it is outside the sparse checkout and not in
+     *  conflict, and staged for addition, and every file of HEAD removed
+     *  is deleted and staged for removal. The staging index is written
+     *  once.
+     *  @param head - The files tracked by the head commit.
+     *  @param changes - The files of the merge commit that differ from
+     *  HEAD, with null for those removed.
+     *  @param conflicts - The conflicting files, with the IDs of their
+     *  blobs in the head and the given branch. */
+    static void writeMergeResult(Snapshot head,
+                                 TreeMap<String, String> changes,
+                                 TreeMap<String, String[]> conflicts) {
+        Set<String> needed = new HashSet<>();
+        for (Map.Entry<String, String> file : changes.entrySet()) {
+            if (file.getValue() != null
+                    && !file.getValue().equals(head.get(file.getKey()))
+                    && SPARSE.includes(file.getKey())) {
+                needed.add(file.getValue());
+            }
+        }
+        for (String[] sides : conflicts.values()) {
+            for (String blobSHA1 : sides) {
+                if (blobSHA1 != null) {
+                    needed.add(blobSHA1);
+                }
+            }
+        }
+        BLOBS.require(needed);
+        for (Map.Entry<String, String[]> conflict : conflicts.entrySet()) {
+            byte[] contents = conflictContents(conflict.getValue()[0],
+                    conflict.getValue()[1]);
+            String blobSHA1 = Utils.sha1((Object) contents);
+            writeBlob(blobSHA1, contents);
+            changes.put(conflict.getKey(), blobSHA1);
+        }
+        StagingIndex index = readStagingIndex();
+        for (Map.Entry<String, String> file : changes.entrySet()) {
+            String fileName = file.getKey();
+            String blobSHA1 = file.getValue();
+            String headSHA1 = head.get(fileName);
+            if (blobSHA1 == null) {
+                if (headSHA1 != null) {
+                    index.stageForRemoval(fileName);
+                    File removedFile = new File(fileName);
+                    if (removedFile.exists()) {
+                        Utils.restrictedDelete(removedFile);
+                    }
+                }
+                continue;
+            }
+            if (blobSHA1.equals(headSHA1)) {
+                continue;
+            }
+            if (conflicts.containsKey(fileName) || SPARSE.includes(fileName)) {
+                BLOBS.writeTo(blobSHA1, new File(fileName));
+            }
+            index.stageForAddition(fileName, blobSHA1);
+        }
+        index.write();
+    }
+
+    /** Ends EVENT, which was begun before a case of merge resolution, and
+     *  records it if a recording is enabling it.
+     *  @param event - The event of the merge case.
+     *  @param mergeCase - The name of the merge case.
+     *  @param files - The number of files the case considered.
+     *  @param conflict - Whether the case encountered a merge conflict. */
+    private static void commitMergeCase(Events.MergeCase event,
+                                        String mergeCase, int files,
+                                        boolean conflict) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.mergeCase = mergeCase;
+            event.files = files;
+            event.conflict = conflict;
+            event.commit();
+        }
+    }
+
     /** Print message for merge method. */
     public static void printAncestorMessage() {
         System.out.println("Given branch is an "
@@ -1209,27 +1553,27 @@ public class Main {
 
     /** Any files that have been modified in the given branch since the split
      *  point, but not modified in the current branch since the split point
-     *  should be changed to their versions in the given branch (checked out
-     *  from the commit at the front of the given branch). These files should
-     *  then all be automatically staged.
-     *  @param branchSHA1 - The SHA1 ID of the given branch.
-     *  @param trackedFilesSplitPoint - A HashMap of the files tracked by the
+     *  should be changed to their versions in the given branch in CHANGES.
+     *  @param trackedFilesSplitPoint - A Snapshot of the files tracked by the
      *  commit at the split point, where the keys are file names and values are
      *  file IDs.
-     *  @param trackedFilesBranch - A HashMap of the files tracked by the
+     *  @param trackedFilesBranch - A Snapshot of the files tracked by the
      *  commit at the given branch, where the keys are file names and values are
      *  file IDs.
-     *  @param trackedFilesBranchNames - The keyset of TRACKEDFILESBRANCH.
-     *  @param trackedFilesHead - A HashMap of the files tracked by the head
+     *  @param trackedFilesBranchNames - The names of the files of
+     *  TRACKEDFILESBRANCH.
+     *  @param trackedFilesHead - A Snapshot of the files tracked by the head
      *  commit, where the keys are file names and values are file IDs.
      *  @param modInBranchSinceSplit - A HashSet of the files modified in the
-     *  given branch since the split point. */
-    public static void mergeCase1(String branchSHA1,
-                                  HashMap<String, String> trackedFilesSplitPoint,
-                                  HashMap<String, String> trackedFilesBranch,
-                                  Set<String> trackedFilesBranchNames,
-                                  HashMap<String, String> trackedFilesHead,
-                                  HashSet<String> modInBranchSinceSplit) {
+     *  given branch since the split point.
+     *  @param changes - The files of the merge commit that differ from
+     *  the head, keyed by name, with null for those removed. */
+    public static void mergeCase1(Snapshot trackedFilesSplitPoint,
+                                  Snapshot trackedFilesBranch,
+                                  List<String> trackedFilesBranchNames,
+                                  Snapshot trackedFilesHead,
+                                  HashSet<String> modInBranchSinceSplit,
+                                  TreeMap<String, String> changes) {
         if (trackedFilesSplitPoint != null) {
             for (String fileName : trackedFilesBranchNames) {
                 if (trackedFilesSplitPoint.containsKey(fileName)) {
@@ -1242,82 +1586,77 @@ public class Main {
                 }
             }
         }
-        HashSet<String> notModInHeadSinceSplit = new HashSet<>();
         for (String fileName : modInBranchSinceSplit) {
             if (trackedFilesHead.containsKey(fileName)) {
                 String fileContentHead = trackedFilesHead.get(fileName);
                 String fileContentSplitPoint
                         = trackedFilesSplitPoint.get(fileName);
                 if (fileContentHead.equals(fileContentSplitPoint)) {
-                    notModInHeadSinceSplit.add(fileName);
+                    changes.put(fileName, trackedFilesBranch.get(fileName));
                 }
             }
         }
-        for (String fileName : notModInHeadSinceSplit) {
-            checkout2(branchSHA1, fileName);
-            add(fileName);
-        }
     }
 
     /** Any files that were not present at the split point and are present
-     *  only in the given branch should be checked out and staged.
-     *  @param trackedFilesBranchNames - The names of the files tracked by
-     *  the given branch.
-     *  @param trackedFilesHead - A HashMap of the files tracked by the head
+     *  only in the given branch should be added to CHANGES.
+     *  @param trackedFilesBranch - A Snapshot of the files tracked by the
+     *  commit at the given branch, where the keys are file names and values are
+     *  file IDs.
+     *  @param trackedFilesHead - A Snapshot of the files tracked by the head
      *  commit, where the keys are file names and values are file IDs.
-     *  @param trackedFilesSplitPoint - A HashMap of the files tracked by the
+     *  @param trackedFilesSplitPoint - A Snapshot of the files tracked by the
      *  commit at the split point, where the keys are file names and values are
      *  file IDs.
-     *  @param branchSHA1 - The SHA1 ID of the given branch. */
-    public static void mergeCase2(Set<String> trackedFilesBranchNames,
-                                  HashMap<String, String> trackedFilesHead,
-                                  HashMap<String, String> trackedFilesSplitPoint,
-                                  String branchSHA1) {
-        for (String fileName : trackedFilesBranchNames) {
+     *  @param changes - The files of the merge commit that differ from
+     *  the head, keyed by name, with null for those removed. */
+    public static void mergeCase2(Snapshot trackedFilesBranch,
+                                  Snapshot trackedFilesHead,
+                                  Snapshot trackedFilesSplitPoint,
+                                  TreeMap<String, String> changes) {
+        for (String fileName : trackedFilesBranch.names()) {
             boolean notAtSplitPoint = trackedFilesSplitPoint == null
                     || !trackedFilesSplitPoint.containsKey(fileName);
             if (!trackedFilesHead.containsKey(fileName) && notAtSplitPoint) {
-                checkout2(branchSHA1, fileName);
-                add(fileName);
+                changes.put(fileName, trackedFilesBranch.get(fileName));
             }
         }
     }
 
     /** Takes care of the following possible cases of merging: Any files
      *  present at the split point, unmodified in the current branch,
-     *  and absent in the given branch should be removed (and untracked);
+     *  and absent in the given branch should be removed in CHANGES;
      *  Any files in the current and given branches that are changed (with
      *  regards to the split point) and are different from one another,
      *  or the contents of one are changed and the other file is deleted,
-     *  should have its contents replaced in the working directory and staged
-     *  for addition.
-     *  @param encounteredConflict - Whether a merge conflict has been
-     *  encountered: Initialized to false.
-     *  @param trackedFilesSplitPoint - A HashMap of the files tracked by the
+     *  are in conflict and are added to CONFLICTS.
+     *  @param trackedFilesSplitPoint - A Snapshot of the files tracked by the
      *  commit at the split point, where the keys are file names and values are
      *  file IDs.
-     *  @param trackedFilesHead - A HashMap of the files tracked by the head
+     *  @param trackedFilesHead - A Snapshot of the files tracked by the head
      *  commit, where the keys are file names and values are file IDs.
-     *  @param trackedFilesBranch - A HashMap of the files tracked by the
+     *  @param trackedFilesBranch - A Snapshot of the files tracked by the
      *  commit at the given branch, where the keys are file names and values are
      *  file IDs.
-     *  @return Whether a merge conflict was encountered. */
-    public static boolean mergeCase3And4(boolean encounteredConflict,
-                                         HashMap<String, String> trackedFilesSplitPoint,
-                                         HashMap<String, String> trackedFilesHead,
-                                         HashMap<String, String> trackedFilesBranch) {
+     *  @param changes - The files of the merge commit that differ from
+     *  the head, keyed by name, with null for those removed.
+     *  @param conflicts - The conflicting files, with the IDs of their blobs
+     *  in the head and the given branch (null where absent). */
+    public static void mergeCase3And4(Snapshot trackedFilesSplitPoint,
+                                      Snapshot trackedFilesHead,
+                                      Snapshot trackedFilesBranch,
+                                      TreeMap<String, String> changes,
+                                      TreeMap<String, String[]> conflicts) {
         if (trackedFilesSplitPoint != null) {
-            Set<String> trackedFileNamesSplitPoint
-                    = trackedFilesSplitPoint.keySet();
+            List<String> trackedFileNamesSplitPoint
+                    = trackedFilesSplitPoint.names();
             for (String fileName : trackedFileNamesSplitPoint) {
                 String fileSHA1AtSplit = trackedFilesSplitPoint.get(fileName);
                 if (trackedFilesHead.containsKey(fileName)
                         && !trackedFilesBranch.containsKey(fileName)) {
                     String fileSHA1AtHead = trackedFilesHead.get(fileName);
                     if (fileSHA1AtSplit.equals(fileSHA1AtHead)) {
-                        File isStaged
-                                = new File(STAGING_ADD + "/" + fileName);
-                        rm(fileName, isStaged.exists(), true);
+                        changes.put(fileName, null);
                     }
                 }
             }
@@ -1332,63 +1671,79 @@ public class Main {
                     if (!fileSHA1AtSplit.equals(fileSHA1AtHead)
                             && !fileSHA1AtSplit.equals(fileSHA1AtBranch)) {
                         if (!fileSHA1AtHead.equals(fileSHA1AtBranch)) {
-                            replaceContents(fileNameAtSplit, fileSHA1AtHead,
-                                    fileSHA1AtBranch);
-                            add(fileNameAtSplit);
-                            encounteredConflict = true;
+                            conflicts.put(fileNameAtSplit, new String[] {
+                                fileSHA1AtHead, fileSHA1AtBranch});
                         }
                     }
                 } else if (atHeadCommit) {
                     String fSHA1AtHead = trackedFilesHead.get(fileNameAtSplit);
                     if (!fileSHA1AtSplit.equals(fSHA1AtHead)) {
-                        replaceContents(fileNameAtSplit,
-                                fSHA1AtHead, null);
-                        add(fileNameAtSplit);
-                        encounteredConflict = true;
+                        conflicts.put(fileNameAtSplit,
+                                new String[] {fSHA1AtHead, null});
                     }
                 } else if (atBranchCommit) {
                     String fileSHA1AtBranch = trackedFilesBranch.get(fileNameAtSplit);
                     if (!fileSHA1AtSplit.equals(fileSHA1AtBranch)) {
-                        replaceContents(fileNameAtSplit, null,
-                                fileSHA1AtBranch);
-                        add(fileNameAtSplit);
-                        encounteredConflict = true;
+                        conflicts.put(fileNameAtSplit,
+                                new String[] {null, fileSHA1AtBranch});
                     }
                 }
             }
         }
-        return encounteredConflict;
     }
 
-    /** Replaces the contents of conflicting files, which are any files
+    /** Returns the contents of a conflicting file, which is any file
      *  modified in different ways in the current and given branches.
-     *  @param fileName - The name of the conflicting file whose contents
-     *  should be replaced.
      *  @param fileSHA1AtHead - The SHA1 ID of the file at the head commit
-     *  of the current branch.
+     *  of the current branch, or null if it is absent there.
      *  @param fileSHA1AtBranch - The SHA1 ID of the file at the head commit
-     *  of the given branch. */
-    public static void replaceContents(String fileName, String fileSHA1AtHead,
-                                       String fileSHA1AtBranch) {
+     *  of the given branch, or null if it is absent there.
+     *  @return The contents of both versions, between conflict markers. */
+    public static byte[] conflictContents(String fileSHA1AtHead,
+                                          String fileSHA1AtBranch) {
         String contentsAtHead;
         if (fileSHA1AtHead == null) {
             contentsAtHead = "";
         } else {
-            File fileAtHead = new File(FILES + "/" + fileSHA1AtHead);
-            contentsAtHead = Utils.readContentsAsString(fileAtHead);
+            contentsAtHead = new String(BLOBS.read(fileSHA1AtHead),
+                    StandardCharsets.UTF_8);
         }
         String contentsAtBranch;
         if (fileSHA1AtBranch == null) {
             contentsAtBranch = "";
         } else {
-            File fileAtBranch = new File(FILES + "/" + fileSHA1AtBranch);
-            contentsAtBranch = Utils.readContentsAsString(fileAtBranch);
+            contentsAtBranch = new String(BLOBS.read(fileSHA1AtBranch),
+                    StandardCharsets.UTF_8);
         }
         String concatenatedContents = "<<<<<<< HEAD" + System.lineSeparator()
                 + contentsAtHead + "=======" + System.lineSeparator()
                 + contentsAtBranch + ">>>>>>>" + System.lineSeparator();
-        File fileToReplace = new File(fileName);
-        Utils.writeContents(fileToReplace, concatenatedContents);
+        return concatenatedContents.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Writes the blob with ID BLOBSHA1 to the file named FILENAME if the
+     *  file is in the sparse checkout, and otherwise deletes the file.
+     *  @param fileName - The name of the file.
+     *  @param blobSHA1 - The ID of the blob. */
+    static void materialize(String fileName, String blobSHA1) {
+        if (SPARSE.includes(fileName)) {
+            BLOBS.writeTo(blobSHA1, new File(fileName));
+        } else {
+            new File(fileName).delete();
+        }
+    }
+
+    /** @param trackedFiles - The files tracked by a commit.
+     *  @return The IDs of the blobs of those of TRACKEDFILES in the sparse
+     *  checkout. */
+    static List<String> sparseBlobs(Snapshot trackedFiles) {
+        List<String> blobs = new ArrayList<>();
+        for (int i = 0; i < trackedFiles.size(); i += 1) {
+            if (SPARSE.includes(trackedFiles.name(i))) {
+                blobs.add(trackedFiles.id(i));
+            }
+        }
+        return blobs;
     }
 
     /** Performs a depth-first traversal of the directed acyclic graph
@@ -1431,25 +1786,14 @@ public class Main {
 
     /** Finds all of the edges (parents) of commit V. If commit V has
      *  a merged-in parent, it will have two edges; otherwise, V will
-     *  have a single edge.
+     *  have a single edge. A commit on the shallow boundary has none.
      *  @param v - The commit object whose edges are to be found.
      *  @return An ArrayList containing all of the edges of commit V. */
     public static ArrayList<Commit> getEdges(Commit v) {
         ArrayList<Commit> edges = new ArrayList<>();
         if (v != null) {
-            if (v.getParent() != null) {
-                String vParentSHA1 = v.getParent();
-                File vParentFile = new File(COMMITS + "/" + vParentSHA1);
-                Commit vParent = Utils.readObject(vParentFile, Commit.class);
-                edges.add(vParent);
-            }
-            if (v.getMergedInParent() != null) {
-                String vMergedInParentSHA1 = v.getMergedInParent();
-                File vMergedInParentFile
-                        = new File(COMMITS + "/" + vMergedInParentSHA1);
-                Commit vMergedInParent
-                        = Utils.readObject(vMergedInParentFile, Commit.class);
-                edges.add(vMergedInParent);
+            for (ObjectId parent : SHALLOW.parents(v)) {
+                edges.add(readCommit(parent));
             }
         }
         return edges;
@@ -1468,7 +1812,7 @@ public class Main {
     public static Commit findUnion(HashMap<Commit, Integer> headMarked,
                                  HashMap<Commit, Integer> branchMarked) {
         Set<Commit> headMarkedCommits = new HashSet<>(headMarked.keySet());
-        Set<String> branchMarkedSHA1s = new HashSet<>();
+        Set<ObjectId> branchMarkedSHA1s = new HashSet<>();
         Set<Commit> unionMarkedCommits = new HashSet<>();
         Set<Commit> branchMarkedCommits = new HashSet<>(branchMarked.keySet());
 
@@ -1476,7 +1820,7 @@ public class Main {
             branchMarkedSHA1s.add(c.getCommitSHA1());
         }
         for (Commit c : headMarkedCommits) {
-            String cSHA1 = c.getCommitSHA1();
+            ObjectId cSHA1 = c.getCommitSHA1();
             if (branchMarkedSHA1s.contains(cSHA1)) {
                 unionMarkedCommits.add(c);
             }
@@ -1498,19 +1842,19 @@ public class Main {
      *  branch with the given name does not exist, print the error
      *  message "A branch with that name does not exist." If
      *  attempting to merge a branch with itself, print the error
-     *  message "Cannot merge a branch with itself."
+     *  message "Cannot merge a branch with itself." If a working file
+     *  not tracked by the head is tracked by the given branch and included
+     *  in the sparse checkout, so that the merge could overwrite it, print
+     *  the error message "There is an untracked file in the way; delete
+     *  it, or add and commit it first."
      *  @param branchName - The name of the given branch. */
     public static void handleErrorsMerge(String branchName) {
-        boolean nonEmptyAddStage
-                = Objects.requireNonNull(STAGING_ADD.listFiles()).length != 0;
-        boolean nonEmptyRemoveStage
-                = Objects.requireNonNull(STAGING_REMOVE.listFiles()).length != 0;
-        if (nonEmptyAddStage || nonEmptyRemoveStage) {
+        if (!readStagingIndex().isEmpty()) {
             System.out.println("You have uncommitted changes.");
             System.exit(0);
         }
-        File givenBranch = new File(BRANCHES + "/" + branchName);
-        if (!givenBranch.exists()) {
+        ObjectId branchCommitSHA1 = REFS.read(branchName);
+        if (branchCommitSHA1 == null) {
             System.out.println("A branch with that name does not exist.");
             System.exit(0);
         }
@@ -1518,56 +1862,117 @@ public class Main {
             System.out.println("Cannot merge a branch with itself.");
             System.exit(0);
         }
-        String branchCommitSHA1 = Utils.readContentsAsString(givenBranch);
-        File branchCommitFile = new File(COMMITS + "/" + branchCommitSHA1);
-        Commit branch = Utils.readObject(branchCommitFile, Commit.class);
+        Commit branch = readCommit(branchCommitSHA1);
         if (branch != null) {
             Commit headCommit = getHeadCommit();
-            HashMap<String, String> trackedFilesHead = headCommit.getTrackedFiles();
-            HashMap<String, String> trackedFilesBranch = branch.getTrackedFiles();
-            File cwd = new File(".");
-            File[] workingFiles = cwd.listFiles();
-            if (workingFiles != null) {
-                for (File f : workingFiles) {
-                    String fileName = f.getName();
-                    boolean notInHead = trackedFilesHead == null
-                            || !trackedFilesHead.containsKey(fileName);
-                    boolean inBranch = trackedFilesBranch != null
-                            && trackedFilesBranch.containsKey(fileName);
-                    if (notInHead && inBranch) {
-                        System.out.println("There is an untracked file in the w"
-                                + "ay; delete it, or add and commit it first.");
-                        System.exit(0);
-                    }
+            Snapshot trackedFilesHead = headCommit.getTrackedFiles();
+            Snapshot trackedFilesBranch = branch.getTrackedFiles();
+            for (String fileName : workingFileNames()) {
+                boolean notInHead = trackedFilesHead == null
+                        || !trackedFilesHead.containsKey(fileName);
+                boolean inBranch = trackedFilesBranch != null
+                        && trackedFilesBranch.containsKey(fileName);
+                if (notInHead && inBranch && SPARSE.includes(fileName)) {
+                    System.out.println("There is an untracked file in the w"
+                            + "ay; delete it, or add and commit it first.");
+                    System.exit(0);
                 }
             }
         }
     }
 
+    /** @return The names of the files in the working directory, taken
+     *  from the snapshot kept up to date by the monitor if one is running,
+     *  and otherwise listed. */
+    static Set<String> workingFileNames() {
+        WorkingTree tree = WorkingTree.cached();
+        if (tree != null) {
+            return tree.files().keySet();
+        }
+        Set<String> names = new TreeSet<>();
+        File[] workingFiles = Utils.listFiles(new File("."));
+        if (workingFiles != null) {
+            for (File f : workingFiles) {
+                if (f.isFile()) {
+                    names.add(f.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /** @return The staging index of the repository. */
+    public static StagingIndex readStagingIndex() {
+        return StagingIndex.read(INDEX);
+    }
+
+    /** Writes CONTENTS to the object store as the blob with ID BLOBSHA1,
+     *  unless a blob with that ID is already stored.
+     *  @param blobSHA1 - The SHA1 ID of CONTENTS.
+     *  @param contents - The contents of the blob. */
+    public static void writeBlob(String blobSHA1, byte[] contents) {
+        BLOBS.write(blobSHA1, contents);
+    }
+
+    /** Writes the concatenation of CONTENTS, each a String or a byte
+     *  array, to FILE by writing a temporary file next to it and renaming
+     *  that over FILE. Other processes, and this one if it is killed, see
+     *  either all of the old contents of FILE or all of the new ones. The
+     *  temporary file has a name of its own, ending in ".lock", so that
+     *  concurrent writers of FILE never write the same temporary file, and
+     *  the temporary files of a killed writer are removed by RepoLock.
+     *  @param file - The file to write.
+     *  @param contents - The contents to write. */
+    public static void writeAtomically(File file, Object... contents) {
+        File temp = null;
+        try {
+            temp = File.createTempFile(file.getName() + "-new", ".lock",
+                    file.getAbsoluteFile().getParentFile());
+            Utils.writeContents(temp, contents);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
     /** @param trackedFiles - The HashMap to be converted to a byte
      *  array.
-     *  @return The byte array representation of TRACKEDFILES. */
+     *  @return The byte array representation of TRACKEDFILES, which is
+     *  its serialized form. */
     public static byte[] convertMapToByte(HashMap<String, String> trackedFiles) {
-        File containHashMap = new File(REPO + "/hashMapConvert");
-        Utils.writeObject(containHashMap, trackedFiles);
-        return Utils.readContents(containHashMap);
+        return Utils.serialize(trackedFiles);
     }
 
     /** @return The head commit of the current branch. */
     public static Commit getHeadCommit() {
-        File pathToHeadFile = new File(String.valueOf(HEAD));
-        String pathToHeadStr = Utils.readContentsAsString(pathToHeadFile);
-        File headCommitBranchFile = new File(pathToHeadStr);
-        String headCommitSHA1 = Utils.readContentsAsString(headCommitBranchFile);
-        File headCommitFile = new File(COMMITS + "/" + headCommitSHA1);
-        return Utils.readObject(headCommitFile, Commit.class);
+        return readCommit(REFS.headCommit());
+    }
+
+    /** @param commitSHA1 - The full SHA1 ID of a commit.
+     *  @return The commit with ID COMMITSHA1. Commits are immutable, so
+     *  each one is deserialized at most once per invocation. */
+    public static Commit readCommit(ObjectId commitSHA1) {
+        Commit c = COMMIT_CACHE.get(commitSHA1);
+        if (c != null) {
+            Metrics.increment(Metrics.Counter.CACHE_HITS);
+            return c;
+        }
+        Metrics.increment(Metrics.Counter.CACHE_MISSES);
+        c = Utils.readObject(new File(COMMITS + "/" + commitSHA1),
+                Commit.class);
+        COMMIT_CACHE.put(commitSHA1, c);
+        return c;
     }
 
-    /** @return The name of the current branch. */
+    /** @return The name of the current branch, which includes the remote
+     *  name for branches fetched from a remote. */
     public static String getCurrentBranch() {
-        File pathToHeadFile = new File(String.valueOf(HEAD));
-        String pathToHeadStr = Utils.readContentsAsString(pathToHeadFile);
-        File headCommitBranchFile = new File(pathToHeadStr);
-        return headCommitBranchFile.getName();
+        return REFS.currentBranch();
     }
 }
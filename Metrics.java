@@ -0,0 +1,266 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Process-wide performance counters of a single Gitlet invocation. The
+ *  I/O and hashing primitives in Utils and the command entry points in Main
+ *  record what they do here; the totals can be printed as a human-readable
+ *  summary (the --trace flag) or appended as one JSON line to the file
+ *  named by the GITLET_METRICS_FILE environment variable.
+ *  @author Raman Varma
+ */
+public class Metrics {
+
+    /** Environment variable naming the file to append JSON metrics to. */
+    static final String METRICS_FILE_ENV = "GITLET_METRICS_FILE";
+
+    /** Counter names, in the order they are reported. */
+    enum Counter {
+        /** Serialized objects deserialized. */
+        OBJECTS_READ,
+        /** Objects serialized. */
+        OBJECTS_WRITTEN,
+        /** Files read in full. */
+        FILES_READ,
+        /** Files written. */
+        FILES_WRITTEN,
+        /** Files checked out as hard links to blobs. */
+        FILES_LINKED,
+        /** Bytes read from files. */
+        BYTES_READ,
+        /** Bytes written to files. */
+        BYTES_WRITTEN,
+        /** Hashes computed. */
+        HASHES,
+        /** Bytes hashed. */
+        BYTES_HASHED,
+        /** Directories listed. */
+        DIRECTORY_LISTINGS,
+        /** Lookups answered by an in-memory cache. */
+        CACHE_HITS,
+        /** Lookups that missed an in-memory cache. */
+        CACHE_MISSES,
+        /** Chunks cut from large blobs. */
+        CHUNKS,
+        /** Bytes of large blobs split into chunks. */
+        BYTES_CHUNKED,
+        /** Bytes of chunks that were already stored. */
+        BYTES_DEDUPLICATED,
+        /** Missing blobs fetched from the promisor remote. */
+        BLOBS_FETCHED,
+        /** Bytes fetched from the promisor remote. */
+        BYTES_FETCHED,
+        /** Changed-path filters consulted by a path-limited walk. */
+        BLOOM_CHECKS,
+        /** Commits a changed-path filter ruled out. */
+        BLOOM_NEGATIVES,
+        /** Commits a changed-path filter admitted that had not changed the
+         *  path. */
+        BLOOM_FALSE_POSITIVES,
+        /** Files memory-mapped. */
+        FILES_MAPPED,
+        /** Bytes of files memory-mapped. */
+        BYTES_MAPPED,
+        /** Reads answered by an already mapped object file. */
+        MAPPINGS_REUSED
+    }
+
+    /** A timed phase of a command, closed in a finally block when the
+     *  phase ends. */
+    static final class Phase {
+
+        /** Starts the phase with name NAME.
+         *  @param name - The name of the phase. */
+        private Phase(String name) {
+            _name = name;
+            _start = System.nanoTime();
+        }
+
+        /** Ends this phase, adding its time to the total of its name. */
+        void close() {
+            long elapsed = System.nanoTime() - _start;
+            synchronized (PHASES) {
+                PHASES.merge(_name, elapsed, Long::sum);
+            }
+        }
+
+        /** The name of this phase. */
+        private final String _name;
+
+        /** The time this phase started, in nanoseconds. */
+        private final long _start;
+    }
+
+    /** Adds AMOUNT to counter C.
+     *  @param c - The counter.
+     *  @param amount - The amount to add. */
+    static void add(Counter c, long amount) {
+        COUNTERS[c.ordinal()].addAndGet(amount);
+    }
+
+    /** Adds one to counter C.
+     *  @param c - The counter. */
+    static void increment(Counter c) {
+        COUNTERS[c.ordinal()].incrementAndGet();
+    }
+
+    /** @param c - The counter.
+     *  @return The value of counter C. */
+    static long get(Counter c) {
+        return COUNTERS[c.ordinal()].get();
+    }
+
+    /** @param name - The name of the phase.
+     *  @return A started phase, whose wall time is recorded when it is
+     *  closed. Phases with the same name accumulate. */
+    static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /** Starts measuring the invocation of COMMAND. If TRACE is set, or the
+     *  GITLET_METRICS_FILE environment variable is, the metrics are
+     *  reported when the process exits, however it exits.
+     *  @param command - The command being run.
+     *  @param trace - Whether to print a summary to standard error. */
+    static void begin(String command, boolean trace) {
+        _command = command;
+        _start = System.nanoTime();
+        String metricsFile = System.getenv(METRICS_FILE_ENV);
+        if (!trace && (metricsFile == null || metricsFile.isEmpty())) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (trace) {
+                printSummary(System.err);
+            }
+            if (metricsFile != null && !metricsFile.isEmpty()) {
+                appendJson(metricsFile);
+            }
+        }));
+    }
+
+    /** Prints a human-readable summary of the metrics to OUT.
+     *  @param out - The stream to print to. */
+    static void printSummary(PrintStream out) {
+        out.printf("gitlet %s: %.3f ms%n", _command, elapsedMillis());
+        for (Counter c : Counter.values()) {
+            long value = get(c);
+            if (value != 0) {
+                out.printf("  %-20s %d%n",
+                        c.name().toLowerCase().replace('_', ' '), value);
+            }
+        }
+        if (get(Counter.BYTES_CHUNKED) != 0) {
+            out.printf("  %-20s %.2f%n", "dedup ratio", dedupRatio());
+        }
+        if (get(Counter.BLOOM_CHECKS) != 0) {
+            out.printf("  %-20s %.4f%n", "bloom fp rate",
+                    bloomFalsePositiveRate());
+        }
+        synchronized (PHASES) {
+            for (Map.Entry<String, Long> phase : PHASES.entrySet()) {
+                out.printf("  %-20s %.3f ms%n", "phase " + phase.getKey(),
+                        phase.getValue() / 1e6);
+            }
+        }
+    }
+
+    /** Appends the metrics as one JSON object on its own line to the file
+     *  named FILENAME.
+     *  @param fileName - The name of the file to append to. */
+    static void appendJson(String fileName) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"command\":\"").append(escape(_command)).append('"');
+        json.append(",\"time\":").append(System.currentTimeMillis());
+        json.append(",\"wall_ms\":").append(
+                String.format("%.3f", elapsedMillis()));
+        for (Counter c : Counter.values()) {
+            json.append(",\"").append(c.name().toLowerCase()).append("\":")
+                    .append(get(c));
+        }
+        json.append(",\"dedup_ratio\":").append(
+                String.format("%.3f", dedupRatio()));
+        json.append(",\"bloom_fp_rate\":").append(
+                String.format("%.4f", bloomFalsePositiveRate()));
+        json.append(",\"phases_ms\":{");
+        synchronized (PHASES) {
+            String separator = "";
+            for (Map.Entry<String, Long> phase : PHASES.entrySet()) {
+                json.append(separator).append('"')
+                        .append(escape(phase.getKey())).append("\":")
+                        .append(String.format("%.3f", phase.getValue() / 1e6));
+                separator = ",";
+            }
+        }
+        json.append("}}\n");
+        try (FileWriter out = new FileWriter(fileName, true)) {
+            out.write(json.toString());
+        } catch (IOException excp) {
+            System.err.println("Could not write metrics: "
+                    + excp.getMessage());
+        }
+    }
+
+    /** @return The ratio of the bytes of large blobs chunked to the bytes
+     *  of new chunks stored for them, or 1 if nothing was chunked. */
+    private static double dedupRatio() {
+        long chunked = get(Counter.BYTES_CHUNKED);
+        long stored = chunked - get(Counter.BYTES_DEDUPLICATED);
+        return chunked == 0 ? 1 : (double) chunked / Math.max(stored, 1);
+    }
+
+    /** @return The fraction of the commits that had not changed the path of
+     *  a path-limited walk which their changed-path filters nonetheless
+     *  admitted, or 0 if there were none. */
+    private static double bloomFalsePositiveRate() {
+        long notTouching = get(Counter.BLOOM_NEGATIVES)
+                + get(Counter.BLOOM_FALSE_POSITIVES);
+        return notTouching == 0 ? 0
+                : (double) get(Counter.BLOOM_FALSE_POSITIVES) / notTouching;
+    }
+
+    /** @return The milliseconds elapsed since the invocation began. */
+    private static double elapsedMillis() {
+        return (System.nanoTime() - _start) / 1e6;
+    }
+
+    /** @param s - A string.
+     *  @return S with JSON string special characters escaped. */
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder();
+        for (char ch : s.toCharArray()) {
+            if (ch == '"' || ch == '\\') {
+                escaped.append('\\').append(ch);
+            } else if (ch < ' ') {
+                escaped.append(String.format("\\u%04x", (int) ch));
+            } else {
+                escaped.append(ch);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /** The counters, indexed by Counter ordinal. */
+    private static final AtomicLong[] COUNTERS =
+        new AtomicLong[Counter.values().length];
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i += 1) {
+            COUNTERS[i] = new AtomicLong();
+        }
+    }
+
+    /** Total wall time in nanoseconds of each phase, keyed by name, in
+     *  the order the phases first ended. */
+    private static final LinkedHashMap<String, Long> PHASES =
+        new LinkedHashMap<>();
+
+    /** The command being run. */
+    private static String _command = "";
+
+    /** The time the invocation began, in nanoseconds. */
+    private static long _start = System.nanoTime();
+}
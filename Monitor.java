@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** The watch command of Gitlet, an opt-in monitor of the working
+ *  directory, and the client side that other commands use to ask it what
+ *  changed. The monitor appends the name of every file created, modified
+ *  or deleted in the working directory to a journal in the watch directory
+ *  of the repository, one per line. A position in the journal, together
+ *  with the ID of the monitor session that wrote it, is a token: the names
+ *  journaled between two tokens of the same session are the only files
+ *  that can have changed between them.
+ *
+ *  A client first synchronizes with the monitor by creating a cookie file
+ *  in the cookies directory, which the monitor also watches, and waiting
+ *  for the cookie's name, prefixed with "/", to reach the journal. Every
+ *  change made before the cookie is then journaled before it. If no
+ *  monitor is running, the cookie does not arrive in time, the monitor has
+ *  restarted since the client's last token, or the operating system
+ *  dropped events (journaled as an empty line), the client cannot know
+ *  what changed and scans the whole working directory instead.
+ *  @author Raman Varma
+ */
+public class Monitor {
+
+    /** The directory of the monitor's files. */
+    static final File WATCH_DIR = new File(Main.REPO, "watch");
+
+    /** The journal of changed file names. */
+    private static final File JOURNAL = new File(WATCH_DIR, "journal");
+
+    /** The ID of the current monitor session. */
+    private static final File SESSION = new File(WATCH_DIR, "session");
+
+    /** The file a running monitor holds locked. */
+    private static final File LOCK = new File(WATCH_DIR, "lock");
+
+    /** The directory of the cookie files of clients. */
+    private static final File COOKIES = new File(WATCH_DIR, "cookies");
+
+    /** The size in bytes beyond which the monitor starts a new session
+     *  with an empty journal. */
+    private static final long MAX_JOURNAL = 1 << 20;
+
+    /** The number of milliseconds a client waits for its cookie. */
+    private static final long COOKIE_TIMEOUT = 1000;
+
+    /** Watches the working directory until the process is killed,
+     *  journaling every change. Prints an error if a monitor is already
+     *  running for the repository. */
+    public static void watch() throws IOException {
+        COOKIES.mkdirs();
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock();
+             WatchService service = FileSystems.getDefault()
+                     .newWatchService()) {
+            if (lock == null) {
+                System.out.println("A watcher is already running.");
+                System.exit(0);
+            }
+            Path cwd = new File(".").toPath();
+            WatchKey workingKey = cwd.register(service, ENTRY_CREATE,
+                    ENTRY_MODIFY, ENTRY_DELETE);
+            COOKIES.toPath().register(service, ENTRY_CREATE);
+            startSession();
+            while (true) {
+                WatchKey key;
+                try {
+                    key = service.take();
+                } catch (InterruptedException excp) {
+                    return;
+                }
+                StringBuilder lines = new StringBuilder();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        lines.append('\n');
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (key != workingKey) {
+                        lines.append('/').append(name).append('\n');
+                    } else if (!name.equals(Main.REPO.getName())) {
+                        lines.append(name).append('\n');
+                    }
+                }
+                if (lines.length() > 0) {
+                    try (FileOutputStream out =
+                                 new FileOutputStream(JOURNAL, true)) {
+                        out.write(lines.toString().getBytes(
+                                StandardCharsets.UTF_8));
+                    }
+                }
+                if (!key.reset() && key == workingKey) {
+                    return;
+                }
+                if (JOURNAL.length() > MAX_JOURNAL) {
+                    startSession();
+                }
+            }
+        }
+    }
+
+    /** Starts a new session with an empty journal. The journal is emptied
+     *  before the new session ID is written, so a client never pairs the
+     *  new ID with a position in the old journal. */
+    private static void startSession() {
+        Main.writeAtomically(JOURNAL, "");
+        Main.writeAtomically(SESSION, Long.toHexString(
+                ThreadLocalRandom.current().nextLong()));
+    }
+
+    /** Waits until the running monitor has journaled every change made to
+     *  the working directory so far.
+     *  @return The current token, or null if no monitor is running or it
+     *  did not answer in time. */
+    static String token() {
+        if (!isRunning()) {
+            return null;
+        }
+        String session = Utils.readContentsAsString(SESSION);
+        long start = JOURNAL.length();
+        String cookie = Long.toHexString(System.nanoTime())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        File cookieFile = new File(COOKIES, cookie);
+        try {
+            if (!cookieFile.createNewFile()) {
+                return null;
+            }
+            String line = "/" + cookie + "\n";
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+            long backoff = 1;
+            while (System.currentTimeMillis() < deadline) {
+                byte[] tail = readJournal(start, JOURNAL.length());
+                int at = tail == null ? -1 : new String(tail,
+                        StandardCharsets.ISO_8859_1).indexOf(line);
+                if (at >= 0) {
+                    long end = start + at + line.length();
+                    if (!session.equals(
+                            Utils.readContentsAsString(SESSION))) {
+                        return null;
+                    }
+                    return session + " " + end;
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 20);
+            }
+            return null;
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** @param from - A token.
+     *  @param to - A later token.
+     *  @return The names of the files that may have changed between FROM
+     *  and TO, or null if that cannot be known. */
+    static Set<String> changes(String from, String to) {
+        String[] fromParts = from.split(" ");
+        String[] toParts = to.split(" ");
+        if (fromParts.length != 2 || !fromParts[0].equals(toParts[0])) {
+            return null;
+        }
+        long start = Long.parseLong(fromParts[1]);
+        long end = Long.parseLong(toParts[1]);
+        byte[] journal = start <= end ? readJournal(start, end) : null;
+        if (journal == null) {
+            return null;
+        }
+        Set<String> changed = new HashSet<>();
+        String[] lines = new String(journal, StandardCharsets.UTF_8)
+                .split("\n", -1);
+        for (int i = 0; i < lines.length - 1; i += 1) {
+            if (lines[i].isEmpty()) {
+                return null;
+            } else if (!lines[i].startsWith("/")) {
+                changed.add(lines[i]);
+            }
+        }
+        return changed;
+    }
+
+    /** @return Whether a monitor holds the lock of the watch directory. */
+    private static boolean isRunning() {
+        if (!LOCK.isFile() || !SESSION.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(),
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock == null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** @param start - The position of the first byte to read.
+     *  @param end - The position after the last byte to read.
+     *  @return The bytes of the journal from START up to END, or null if
+     *  the journal is shorter than END. */
+    private static byte[] readJournal(long start, long end) {
+        try (RandomAccessFile file = new RandomAccessFile(JOURNAL, "r")) {
+            if (file.length() < end) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (end - start)];
+            file.seek(start);
+            file.readFully(bytes);
+            Metrics.add(Metrics.Counter.BYTES_READ, bytes.length);
+            return bytes;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
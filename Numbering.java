@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The numbers given to the commits and blobs of a repository for its
+ *  reachability bitmaps. The file "numbering" of the bitmaps directory
+ *  lists the numbered objects in order, one line per object: "c" or "b"
+ *  for a commit or a blob, a space, and the ID. Every line has the same
+ *  length, so the object with a given number is read at a known offset.
+ *
+ *  The file "index" of the bitmaps directory holds the objects on the
+ *  first lines of the numbering sorted by ID, each with its number and,
+ *  for a commit, its position among the numbered commits, so that a
+ *  number is found by a binary search of the mapped file. It begins with
+ *  the length of an ID in bytes, the number of lines it covers and the
+ *  number of commits among them, each an int; each record is then the
+ *  bytes of an ID followed by the two ints, the second -1 for a blob.
+ *  The lines after those it covers are read into memory, and the index
+ *  is rebuilt once there are more than INDEX_SLACK of them, so that
+ *  opening the numbering costs time in the number of objects added since
+ *  rather than in the number of objects in the repository.
+ *  @author Raman Varma
+ */
+class Numbering {
+
+    /** The number of lines the index may fall behind the numbering. */
+    static final int INDEX_SLACK = 1024;
+
+    /** The length of the header of the index in bytes. */
+    private static final int HEADER = 12;
+
+    /** Opens the numbering stored in the directory BITMAPS. If READONLY,
+     *  objects numbered are remembered only until this numbering is
+     *  discarded, and nothing is written.
+     *  @param bitmaps - The bitmaps directory of a repository.
+     *  @param readOnly - Whether to leave the files unchanged. */
+    Numbering(File bitmaps, boolean readOnly) {
+        _bitmaps = bitmaps;
+        _file = new File(bitmaps, "numbering");
+        _indexFile = new File(bitmaps, "index");
+        _readOnly = readOnly;
+        try {
+            long size = _file.isFile() ? _file.length() : 0;
+            if (size > 0) {
+                _lines = map(_file, size);
+                int end = 0;
+                while (end < size && _lines.get(end) != '\n') {
+                    end += 1;
+                }
+                _lineLength = end + 1;
+                _idLength = (_lineLength - 3) / 2;
+                _count = (int) (size / _lineLength);
+            }
+            readIndex();
+            for (int n = _indexed; n < _count; n += 1) {
+                int start = n * _lineLength;
+                byte[] hex = new byte[2 * _idLength];
+                _lines.get(start + 2, hex, 0, hex.length);
+                addToTail(ObjectId.fromHex(
+                        new String(hex, StandardCharsets.US_ASCII)),
+                        _lines.get(start) == 'c');
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** @param id - The ID of a commit or blob.
+     *  @return The number of the object with ID ID, or -1 if it has
+     *  none. */
+    int number(ObjectId id) {
+        Integer n = _tailNumbers.get(id);
+        if (n != null) {
+            return n;
+        }
+        int record = find(id);
+        return record < 0 ? -1 : _index.getInt(recordStart(record)
+                + _idLength);
+    }
+
+    /** @param id - The ID of a commit.
+     *  @return The position of the commit with ID ID among the numbered
+     *  commits, or -1 if it is not a numbered commit. */
+    int ordinal(ObjectId id) {
+        Integer ordinal = _tailOrdinals.get(id);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int record = find(id);
+        return record < 0 ? -1 : _index.getInt(recordStart(record)
+                + _idLength + 4);
+    }
+
+    /** @param n - The number of an object.
+     *  @return The ID of the object numbered N. */
+    ObjectId id(int n) {
+        if (n >= _indexed) {
+            return _tailIds.get(n - _indexed);
+        }
+        byte[] hex = new byte[2 * _idLength];
+        _lines.get(n * _lineLength + 2, hex, 0, hex.length);
+        return ObjectId.fromHex(new String(hex, StandardCharsets.US_ASCII));
+    }
+
+    /** @param n - The number of an object.
+     *  @return Whether the object numbered N is a commit. */
+    boolean isCommit(int n) {
+        if (n >= _indexed) {
+            return _tailOrdinals.containsKey(_tailIds.get(n - _indexed));
+        }
+        return _lines.get(n * _lineLength) == 'c';
+    }
+
+    /** Gives the object with ID ID the next number.
+     *  @param id - The ID of a commit or blob that has no number.
+     *  @param isCommit - Whether ID is the ID of a commit.
+     *  @return The number of the object. */
+    int add(ObjectId id, boolean isCommit) {
+        if (_idLength == 0) {
+            _idLength = id.length();
+            _lineLength = 2 * _idLength + 3;
+        }
+        _pending.append(isCommit ? "c " : "b ").append(id).append('\n');
+        return addToTail(id, isCommit);
+    }
+
+    /** Appends the objects numbered since the last save to the numbering
+     *  file, and rebuilds the index if it has fallen more than INDEX_SLACK
+     *  lines behind. Does nothing if this numbering is read-only. */
+    void save() {
+        if (_readOnly || _pending.length() == 0) {
+            return;
+        }
+        _bitmaps.mkdir();
+        try (FileOutputStream out = new FileOutputStream(_file, true)) {
+            out.write(_pending.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _pending.setLength(0);
+        if (_tailIds.size() > INDEX_SLACK) {
+            writeIndex();
+        }
+    }
+
+    /** Gives the object with ID ID the next number, after the lines the
+     *  index covers.
+     *  @param id - The ID of a commit or blob.
+     *  @param isCommit - Whether ID is the ID of a commit.
+     *  @return The number of the object. */
+    private int addToTail(ObjectId id, boolean isCommit) {
+        int n = _indexed + _tailIds.size();
+        _tailIds.add(id);
+        _tailNumbers.put(id, n);
+        if (isCommit) {
+            _tailOrdinals.put(id, _indexedCommits + _tailOrdinals.size());
+        }
+        return n;
+    }
+
+    /** Maps the index if it is consistent with the numbering, and
+     *  otherwise treats it as covering no lines. */
+    private void readIndex() throws IOException {
+        if (!_indexFile.isFile() || _idLength == 0) {
+            return;
+        }
+        ByteBuffer index = map(_indexFile, _indexFile.length());
+        if (index.capacity() < HEADER || index.getInt(0) != _idLength) {
+            return;
+        }
+        int indexed = index.getInt(4);
+        if (indexed < 0 || indexed > _count || index.capacity()
+                != HEADER + (long) indexed * (_idLength + 8)) {
+            return;
+        }
+        _index = index;
+        _indexed = indexed;
+        _indexedCommits = index.getInt(8);
+    }
+
+    /** Replaces the index with one covering every line of the numbering,
+     *  merging the records of the old index with the lines after it. */
+    private void writeIndex() {
+        int recordLength = _idLength + 8;
+        ObjectId[] tail = _tailIds.toArray(new ObjectId[0]);
+        Arrays.sort(tail);
+        int total = _indexed + tail.length;
+        ByteBuffer result = ByteBuffer.allocate(HEADER
+                + total * recordLength);
+        result.putInt(_idLength).putInt(total)
+                .putInt(_indexedCommits + _tailOrdinals.size());
+        byte[] indexedId = new byte[_idLength];
+        int i = 0;
+        int j = 0;
+        while (i < _indexed || j < tail.length) {
+            if (i < _indexed) {
+                _index.get(recordStart(i), indexedId, 0, _idLength);
+            }
+            if (j == tail.length || (i < _indexed && Arrays.compareUnsigned(
+                    indexedId, tail[j].toBytes()) < 0)) {
+                result.put(_index.slice(recordStart(i), recordLength));
+                i += 1;
+            } else {
+                Integer ordinal = _tailOrdinals.get(tail[j]);
+                result.put(tail[j].toBytes())
+                        .putInt(_tailNumbers.get(tail[j]))
+                        .putInt(ordinal == null ? -1 : ordinal);
+                j += 1;
+            }
+        }
+        Main.writeAtomically(_indexFile, (Object) result.array());
+        try {
+            _lines = map(_file, _file.length());
+            _count = total;
+            readIndex();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _tailIds.clear();
+        _tailNumbers.clear();
+        _tailOrdinals.clear();
+    }
+
+    /** @param id - An ID.
+     *  @return The position of the record of ID in the index, or -1 if
+     *  it is not there. */
+    private int find(ObjectId id) {
+        if (_indexed == 0 || id.length() != _idLength) {
+            return -1;
+        }
+        byte[] target = id.toBytes();
+        byte[] probe = new byte[_idLength];
+        int low = 0;
+        int high = _indexed - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            _index.get(recordStart(mid), probe, 0, _idLength);
+            int cmp = Arrays.compareUnsigned(probe, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** @param record - The position of a record in the index.
+     *  @return The offset of that record in the index file. */
+    private int recordStart(int record) {
+        return HEADER + record * (_idLength + 8);
+    }
+
+    /** @param file - A file.
+     *  @param size - The number of bytes of FILE to map.
+     *  @return The first SIZE bytes of FILE mapped read-only. The mapping
+     *  is private to this numbering, so that it stays valid when FILE is
+     *  replaced. */
+    private static MappedByteBuffer map(File file, long size)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /** The bitmaps directory of the repository. */
+    private final File _bitmaps;
+
+    /** The numbering file. */
+    private final File _file;
+
+    /** The index file. */
+    private final File _indexFile;
+
+    /** Whether the files are left unchanged. */
+    private final boolean _readOnly;
+
+    /** The numbering file as it was when mapped, or null if empty. */
+    private ByteBuffer _lines;
+
+    /** The index, or null if it covers no lines. */
+    private ByteBuffer _index;
+
+    /** The length of a line of the numbering file, or 0 if unknown. */
+    private int _lineLength;
+
+    /** The length of an ID in bytes, or 0 if unknown. */
+    private int _idLength;
+
+    /** The number of complete lines in the numbering file as mapped. */
+    private int _count;
+
+    /** The number of lines the index covers. */
+    private int _indexed;
+
+    /** The number of commits among the lines the index covers. */
+    private int _indexedCommits;
+
+    /** The IDs of the objects after those the index covers, in order. */
+    private final ArrayList<ObjectId> _tailIds = new ArrayList<>();
+
+    /** The numbers of the objects in _tailIds, keyed by ID. */
+    private final HashMap<ObjectId, Integer> _tailNumbers = new HashMap<>();
+
+    /** The positions among all numbered commits of the commits in
+     *  _tailIds, keyed by ID. */
+    private final HashMap<ObjectId, Integer> _tailOrdinals = new HashMap<>();
+
+    /** Lines of the numbering file not yet written. */
+    private final StringBuilder _pending = new StringBuilder();
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The ID of a commit, blob or chunk: the digest of its contents, held as
+ *  bytes rather than as a string of hexadecimal digits. An ID is immutable,
+ *  and its hash code, taken from its leading bytes, which are already
+ *  uniformly distributed, is computed once. IDs made through fromHex() and
+ *  fromBytes() are interned, unless stopInterning() was called, so the IDs
+ *  met by a walk of the commit graph are shared, and two IDs are usually
+ *  equal because they are the same object; otherwise their hash codes and
+ *  then their bytes are compared.
+ *
+ *  IDs are hex-encoded only where they are displayed or name a file. The
+ *  digits of an abbreviated ID given by the user are compared with the
+ *  bytes directly by startsWith().
+ *  @author Raman Varma
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+    /** @param hex - An ID as hexadecimal digits, or null.
+     *  @return The ID HEX, interned, or null if HEX is null. */
+    static ObjectId fromHex(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        if (hex.length() == 0 || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("improper object ID " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("improper object ID "
+                        + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new ObjectId(bytes).intern();
+    }
+
+    /** @param bytes - An array holding an ID.
+     *  @param offset - The index of the first byte of the ID.
+     *  @param length - The length of the ID in bytes.
+     *  @return The ID, interned. */
+    static ObjectId fromBytes(byte[] bytes, int offset, int length) {
+        return new ObjectId(Arrays.copyOfRange(bytes, offset,
+                offset + length)).intern();
+    }
+
+    /** Creates the ID whose bytes are BYTES.
+     *  @param bytes - The bytes, which are not copied. */
+    private ObjectId(byte[] bytes) {
+        _bytes = bytes;
+        int hash = 0;
+        for (int i = 0; i < Math.min(4, bytes.length); i += 1) {
+            hash = (hash << 8) | (bytes[i] & 0xff);
+        }
+        _hash = hash;
+    }
+
+    /** @return The shared ID equal to this one, or this ID if IDs are
+     *  no longer interned. */
+    private ObjectId intern() {
+        if (!_interning) {
+            return this;
+        }
+        ObjectId shared = POOL.putIfAbsent(this, this);
+        return shared == null ? this : shared;
+    }
+
+    /** Stops interning the IDs made from now on, and drops those already
+     *  interned, for commands such as fsck that meet every object once,
+     *  where the pool would only grow with the history. */
+    static void stopInterning() {
+        _interning = false;
+        POOL.clear();
+    }
+
+    /** @return The length of this ID in bytes. */
+    public int length() {
+        return _bytes.length;
+    }
+
+    /** @return A copy of the bytes of this ID. */
+    public byte[] toBytes() {
+        return _bytes.clone();
+    }
+
+    /** @param prefix - Some hexadecimal digits, such as an abbreviated ID.
+     *  @return Whether this ID begins with the digits PREFIX. */
+    public boolean startsWith(String prefix) {
+        if (prefix.length() > 2 * _bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int b = _bytes[i / 2] & 0xff;
+            int digit = i % 2 == 0 ? b >>> 4 : b & 0xf;
+            if (Character.digit(prefix.charAt(i), 16) != digit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @param digits - The number of digits wanted.
+     *  @return The first DIGITS hexadecimal digits of this ID. */
+    public String abbreviate(int digits) {
+        return toString().substring(0, digits);
+    }
+
+    /** @return This ID as lower-case hexadecimal. */
+    @Override
+    public String toString() {
+        return HashEngine.toHex(_bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return _hash == other._hash && Arrays.equals(_bytes, other._bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return _hash;
+    }
+
+    /** Orders IDs as their hexadecimal forms are ordered. */
+    @Override
+    public int compareTo(ObjectId other) {
+        return Arrays.compareUnsigned(_bytes, other._bytes);
+    }
+
+    /** The interned IDs. */
+    private static final ConcurrentHashMap<ObjectId, ObjectId> POOL =
+        new ConcurrentHashMap<>();
+
+    /** Whether IDs are interned. */
+    private static volatile boolean _interning = true;
+
+    /** The bytes of this ID. */
+    private final byte[] _bytes;
+
+    /** The hash code of this ID. */
+    private final int _hash;
+}
@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** Reads the files of the object store through memory mappings instead of
+ *  copying them onto the heap. Commits are deserialized from a stream over
+ *  the mapped bytes, and files are hashed by feeding the mapped bytes to
+ *  the digest directly.
+ *
+ *  Objects are named by the hash of their contents and never change once
+ *  written, so the mapping of an object file stays valid for as long as
+ *  the file is named, and is kept in a pool for the rest of the command:
+ *  a commit read by both the commit cache and a reachability walk is then
+ *  mapped once. The pool holds at most MAX_POOLED bytes, evicting the
+ *  least recently used mappings first, which are unmapped once garbage
+ *  collected. Files of the working directory can change at any time, and
+ *  a mapped file that is truncated faults when the lost pages are read,
+ *  so they are never mapped: they are hashed by reading them through a
+ *  buffer reused by each thread.
+ *  @author Raman Varma
+ */
+public class ObjectReader {
+
+    /** The most bytes of mappings the pool holds. */
+    private static final long MAX_POOLED = 1L << 28;
+
+    /** @param file - An object file.
+     *  @return A read-only buffer of the contents of FILE, positioned at
+     *  its start, from the pool if FILE was mapped before. */
+    static ByteBuffer map(File file) throws IOException {
+        String key = file.getPath();
+        synchronized (POOL) {
+            MappedByteBuffer pooled = POOL.get(key);
+            if (pooled != null) {
+                Metrics.increment(Metrics.Counter.MAPPINGS_REUSED);
+                return pooled.asReadOnlyBuffer();
+            }
+        }
+        MappedByteBuffer mapped = mapFile(file);
+        synchronized (POOL) {
+            if (POOL.putIfAbsent(key, mapped) == null) {
+                _pooled += mapped.capacity();
+                Iterator<MappedByteBuffer> eldest = POOL.values().iterator();
+                while (_pooled > MAX_POOLED && eldest.hasNext()) {
+                    _pooled -= eldest.next().capacity();
+                    eldest.remove();
+                }
+            }
+        }
+        return mapped.asReadOnlyBuffer();
+    }
+
+    /** @param file - An object file.
+     *  @return A stream of the contents of FILE read from its mapping. */
+    static InputStream open(File file) throws IOException {
+        return new BufferStream(map(file));
+    }
+
+    /** @param file - A file that may change, such as a working file.
+     *  @return The ID of the contents of FILE, hashed by reading it. */
+    static String hash(File file) throws IOException {
+        MessageDigest md = HashEngine.digest();
+        ByteBuffer buffer = BUFFERS.get();
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            buffer.clear();
+            int n;
+            while ((n = channel.read(buffer)) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+                length += n;
+            }
+        }
+        Metrics.increment(Metrics.Counter.HASHES);
+        Metrics.add(Metrics.Counter.BYTES_HASHED, length);
+        Metrics.add(Metrics.Counter.BYTES_READ, length);
+        return HashEngine.toHex(md.digest());
+    }
+
+    /** @param file - An object file, which is not pooled.
+     *  @return The ID of the contents of FILE, hashed from a mapping of
+     *  it. */
+    static String hashObject(File file) throws IOException {
+        ByteBuffer contents = mapFile(file);
+        MessageDigest md = HashEngine.digest();
+        long length = contents.remaining();
+        md.update(contents);
+        Metrics.increment(Metrics.Counter.HASHES);
+        Metrics.add(Metrics.Counter.BYTES_HASHED, length);
+        Metrics.add(Metrics.Counter.BYTES_READ, length);
+        return HashEngine.toHex(md.digest());
+    }
+
+    /** @param file - A file.
+     *  @return A new read-only mapping of all of FILE. */
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Metrics.increment(Metrics.Counter.FILES_MAPPED);
+            Metrics.add(Metrics.Counter.BYTES_MAPPED, mapped.capacity());
+            return mapped;
+        }
+    }
+
+    /** An input stream over the remaining bytes of a buffer. */
+    private static final class BufferStream extends InputStream {
+
+        /** Creates a stream of the remaining bytes of BUFFER.
+         *  @param buffer - The buffer, which the stream advances. */
+        BufferStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0,
+                    Math.min(n, _buffer.remaining()));
+            _buffer.position(_buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return _buffer.remaining();
+        }
+
+        /** The buffer read. */
+        private final ByteBuffer _buffer;
+    }
+
+    /** The size of the buffer each thread reads files to hash through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** A buffer per thread for reading files to hash. */
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    /** The pooled mappings, keyed by path, least recently used first. */
+    private static final LinkedHashMap<String, MappedByteBuffer> POOL =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total size in bytes of the pooled mappings. */
+    private static long _pooled;
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/** The output of the commands that print one record per commit: log,
+ *  global-log and find. Records are written through a single buffered
+ *  writer as each commit is read, instead of one unbuffered line at a
+ *  time, and the buffer is flushed when the command ends.
+ *
+ *  When standard output is a terminal and PAGER is set in the config, the
+ *  output is piped to that command, run with "sh -c", instead. If the
+ *  pager exits before reading everything, for example because the user
+ *  quit it, the command stops reading commits as soon as it notices.
+ *  @author Raman Varma
+ */
+public class Output implements AutoCloseable {
+
+    /** Config key of the command that pages output written to a terminal.
+     *  Output is not paged if it is not set. */
+    static final String PAGER = "core.pager";
+
+    /** Format of the dates of commits, which is immutable and so can be
+     *  shared by every record. */
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
+
+    /** @return The output of the current command: the pager configured
+     *  for the repository if standard output is a terminal, and otherwise
+     *  standard output. */
+    public static Output open() {
+        String pager = System.console() == null ? null
+                : Config.read(Main.REPO).get(PAGER, null);
+        if (pager == null || pager.isEmpty()) {
+            return new Output(System.out, null);
+        }
+        try {
+            Process process = new ProcessBuilder("sh", "-c", pager)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            return new Output(process.getOutputStream(), process);
+        } catch (IOException excp) {
+            return new Output(System.out, null);
+        }
+    }
+
+    /** Creates an output that writes to STREAM.
+     *  @param stream - The stream written to.
+     *  @param pager - The pager process reading STREAM, or null. */
+    private Output(OutputStream stream, Process pager) {
+        _pager = pager;
+        _writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FilterOutputStream(stream) {
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                            throws IOException {
+                        try {
+                            out.write(b, off, len);
+                        } catch (IOException excp) {
+                            _closed = true;
+                            throw excp;
+                        }
+                    }
+                })));
+    }
+
+    /** Writes LINE followed by a line separator.
+     *  @param line - The line. */
+    public void println(String line) {
+        _writer.println(line);
+    }
+
+    /** @return Whether the reader of this output went away, after which
+     *  nothing more that is written reaches it. */
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    /** Flushes this output and, if it is paged, waits for the pager to
+     *  exit. Standard output itself is left open. */
+    @Override
+    public void close() {
+        _writer.flush();
+        if (_pager != null) {
+            _writer.close();
+            try {
+                _pager.waitFor();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** The writer through which everything is written. */
+    private final PrintWriter _writer;
+
+    /** The pager process, or null if output is not paged. */
+    private final Process _pager;
+
+    /** Whether writing to the underlying stream failed. */
+    private volatile boolean _closed;
+}
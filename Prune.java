@@ -0,0 +1,233 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/** The prune command of Gitlet, a mark-and-sweep garbage collector for
+ *  commits and blobs that are no longer reachable from any branch.
+ *  @author Raman Varma
+ */
+public class Prune {
+
+    /** The default grace period, in days, during which unreachable objects
+     *  are kept. */
+    static final int DEFAULT_GRACE_DAYS = 14;
+
+    /** Deletes every commit in COMMITS and every blob in FILES that is not
+     *  reachable from a branch in BRANCHES or from the staging index, along
+     *  with the manifests and chunks of such blobs if they are chunked, and
+     *  was last modified more than GRACEDAYS days ago. Commits modified
+     *  within the grace period are marked from as well as branches, so
+     *  that the parents and blobs of a commit that is kept are kept too.
+     *  Reports the number of objects and bytes reclaimed. Loose branches
+     *  are packed first, and the changed-path filters of reachable commits
+     *  that lack one are computed last.
+     *  @param graceDays - The grace period in days.
+     *  @param dryRun - Whether to only report what would be deleted. */
+    public static void prune(int graceDays, boolean dryRun) {
+        Set<ObjectId> reachableCommits = ConcurrentHashMap.newKeySet();
+        Set<String> reachableBlobs = ConcurrentHashMap.newKeySet();
+        if (!dryRun) {
+            Main.REFS.pack();
+        }
+        long cutoff = System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(graceDays);
+        List<ObjectId> heads = new ArrayList<>(Main.REFS.all().values());
+        heads.addAll(recentCommits(cutoff));
+        mark(heads, reachableCommits, reachableBlobs);
+        reachableBlobs.addAll(Main.readStagingIndex().getAdditions().values());
+
+        long[] reclaimed = new long[1];
+        int prunedCommits = sweep(Main.COMMITS, name -> HashEngine.isId(name)
+                && reachableCommits.contains(ObjectId.fromHex(name)),
+                cutoff, dryRun, reclaimed);
+        int prunedBlobs = sweep(Main.FILES, reachableBlobs::contains, cutoff,
+                dryRun, reclaimed)
+                + sweep(Main.BLOBS.manifestsDir(), reachableBlobs::contains,
+                        cutoff, dryRun, reclaimed);
+        sweep(Main.BLOBS.chunksDir(),
+                keptChunks(reachableBlobs, cutoff)::contains, cutoff, dryRun,
+                reclaimed);
+        if (!dryRun) {
+            dropOrphans(new File(Main.REPO, "bitmaps"));
+            dropOrphans(new File(Main.REPO, "bloom"));
+            File[] sketches = Utils.listFiles(new File(Main.REPO, "sketches"));
+            if (sketches != null) {
+                for (File sketch : sketches) {
+                    if (HashEngine.isId(sketch.getName())
+                            && !Main.BLOBS.contains(sketch.getName())) {
+                        sketch.delete();
+                    }
+                }
+            }
+            for (ObjectId commitSHA1 : reachableCommits) {
+                ChangedPaths.write(Main.REPO, commitSHA1);
+            }
+        }
+        System.out.println((dryRun ? "Would prune " : "Pruned ")
+                + prunedCommits + " commits and " + prunedBlobs
+                + " blobs, reclaiming " + reclaimed[0] + " bytes.");
+    }
+
+    /** @param cutoff - The start of the grace period.
+     *  @return The IDs of the commits modified at or after CUTOFF, which
+     *  are kept whether or not they are reachable. */
+    private static List<ObjectId> recentCommits(long cutoff) {
+        List<ObjectId> recent = new ArrayList<>();
+        File[] commits = Utils.listFiles(Main.COMMITS);
+        if (commits != null) {
+            for (File commit : commits) {
+                if (HashEngine.isId(commit.getName())
+                        && commit.lastModified() >= cutoff) {
+                    recent.add(ObjectId.fromHex(commit.getName()));
+                }
+            }
+        }
+        return recent;
+    }
+
+    /** Deletes the files in DIR named by the IDs of commits that no longer
+     *  exist, such as their bitmaps and changed-path filters.
+     *  @param dir - A directory of per-commit files. */
+    private static void dropOrphans(File dir) {
+        File[] files = Utils.listFiles(dir);
+        if (files != null) {
+            for (File file : files) {
+                if (HashEngine.isId(file.getName())
+                        && !new File(Main.COMMITS, file.getName()).exists()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Marks every commit reachable from the commits with IDs in HEADS, and
+     *  every blob those commits track, using a parallel traversal over all
+     *  available cores.
+     *  @param heads - The IDs of the commits to start from.
+     *  @param commits - Set to which reachable commit IDs are added.
+     *  @param blobs - Set to which reachable blob IDs are added. */
+    static void mark(List<ObjectId> heads, Set<ObjectId> commits,
+                     Set<String> blobs) {
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        AtomicInteger pending = new AtomicInteger(1);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            for (ObjectId head : heads) {
+                visit(head, pool, pending, done, commits, blobs);
+            }
+            if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+            done.get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Schedules the commit with ID COMMITSHA1 to be marked along with its
+     *  blobs and parents, unless it is already marked.
+     *  @param commitSHA1 - The ID of the commit.
+     *  @param pool - The threads of the traversal.
+     *  @param pending - The number of scheduled but unfinished visits.
+     *  @param done - Completed once no visits are pending.
+     *  @param commits - Set to which reachable commit IDs are added.
+     *  @param blobs - Set to which reachable blob IDs are added. */
+    private static void visit(ObjectId commitSHA1, ExecutorService pool,
+                              AtomicInteger pending,
+                              CompletableFuture<Void> done,
+                              Set<ObjectId> commits, Set<String> blobs) {
+        if (!commits.add(commitSHA1)) {
+            return;
+        }
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                Commit c = Utils.readObject(
+                        new File(Main.COMMITS + "/" + commitSHA1),
+                        Commit.class);
+                Snapshot trackedFiles = c.getTrackedFiles();
+                if (trackedFiles != null) {
+                    blobs.addAll(trackedFiles.ids());
+                }
+                for (ObjectId parent : Main.SHALLOW.parents(c)) {
+                    visit(parent, pool, pending, done, commits, blobs);
+                }
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            } catch (RuntimeException excp) {
+                done.completeExceptionally(excp);
+            }
+        });
+    }
+
+    /** @param reachableBlobs - The IDs of the reachable blobs.
+     *  @param cutoff - Manifests modified at or after this time are kept.
+     *  @return The IDs of the chunks of every manifest that is kept, being
+     *  reachable or within the grace period. */
+    private static Set<String> keptChunks(Set<String> reachableBlobs,
+                                          long cutoff) {
+        Set<String> chunks = new HashSet<>();
+        File[] manifests = Utils.listFiles(Main.BLOBS.manifestsDir());
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                String blobSHA1 = manifest.getName();
+                if (HashEngine.isId(blobSHA1)
+                        && (reachableBlobs.contains(blobSHA1)
+                            || manifest.lastModified() >= cutoff)) {
+                    chunks.addAll(Main.BLOBS.chunksOf(blobSHA1));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /** Deletes every file in DIR whose name is not REACHABLE and that was
+     *  last modified before CUTOFF, along with leftover temporary files of
+     *  interrupted writes.
+     *  @param dir - An object directory.
+     *  @param reachable - Whether a file name is the ID of a reachable
+     *  object in DIR.
+     *  @param cutoff - Files modified at or after this time are kept.
+     *  @param dryRun - Whether to only list what would be deleted.
+     *  @param reclaimed - Its first element is increased by the size of
+     *  every deleted file.
+     *  @return The number of objects deleted. */
+    private static int sweep(File dir, Predicate<String> reachable,
+                             long cutoff, boolean dryRun, long[] reclaimed) {
+        int pruned = 0;
+        File[] objects = Utils.listFiles(dir);
+        if (objects == null) {
+            return 0;
+        }
+        for (File object : objects) {
+            if (reachable.test(object.getName())
+                    || object.lastModified() >= cutoff) {
+                continue;
+            }
+            if (dryRun) {
+                System.out.println(object.getPath());
+            }
+            reclaimed[0] += object.length();
+            if (dryRun || object.delete()) {
+                if (HashEngine.isId(object.getName())) {
+                    pruned += 1;
+                }
+            }
+        }
+        return pruned;
+    }
+}
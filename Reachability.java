@@ -0,0 +1,232 @@
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** Reachability bitmaps of a Gitlet repository. Every commit and blob is
+ *  given a stable number, and selected commits (branch heads and every
+ *  BITMAP_INTERVAL-th commit) store a compressed bitmap of the numbers of
+ *  all objects reachable from them. Questions such as "is X an ancestor of
+ *  Y" or "which objects does Y reach that X does not" are then answered
+ *  with bitmap operations, deserializing only the few commits between the
+ *  queried commit and the nearest stored bitmap.
+ *
+ *  Commits are always numbered after their parents, so a commit is never
+ *  an ancestor of a commit with a smaller number. The numbers are kept by
+ *  a Numbering, which reads only what it is asked for.
+ *  @author Raman Varma
+ */
+public class Reachability {
+
+    /** Every BITMAP_INTERVAL-th numbered commit keeps its bitmap even when
+     *  it is no longer a branch head. */
+    static final int BITMAP_INTERVAL = 16;
+
+    /** Creates the reachability bitmaps of the repository whose .gitlet
+     *  directory is REPO.
+     *  @param repo - The .gitlet directory of the repository. */
+    public Reachability(File repo) {
+        this(repo, false);
+    }
+
+    /** Creates the reachability bitmaps of the repository whose .gitlet
+     *  directory is REPO. If READONLY, objects are numbered only in memory
+     *  and nothing in REPO is changed, so that REPO need only be locked
+     *  for reading; updateHead() must not then be called.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @param readOnly - Whether to leave REPO unchanged. */
+    public Reachability(File repo, boolean readOnly) {
+        _repo = repo;
+        _bitmaps = new File(repo, "bitmaps");
+        _shallow = new Shallow(repo, readOnly);
+        _numbering = new Numbering(_bitmaps, readOnly);
+    }
+
+    /** @param commitSHA1 - The ID of a commit.
+     *  @return A bitmap of the numbers of every commit and blob reachable
+     *  from the commit with ID COMMITSHA1, including itself. */
+    public CompressedBitmap reach(ObjectId commitSHA1) {
+        CompressedBitmap result = new CompressedBitmap();
+        HashSet<ObjectId> marked = new HashSet<>();
+        ArrayDeque<ObjectId> fringe = new ArrayDeque<>();
+        HashMap<ObjectId, Commit> walked = new HashMap<>();
+        fringe.push(commitSHA1);
+        while (!fringe.isEmpty()) {
+            ObjectId id = fringe.pop();
+            if (!marked.add(id)) {
+                continue;
+            }
+            CompressedBitmap stored = readBitmap(id);
+            if (stored != null) {
+                result.or(stored);
+                continue;
+            }
+            Commit c = Utils.readObject(new File(_repo, "commits/" + id),
+                    Commit.class);
+            walked.put(id, c);
+            for (ObjectId parent : _shallow.parents(c)) {
+                fringe.push(parent);
+            }
+        }
+        for (ObjectId id : topologicalOrder(walked)) {
+            Commit c = walked.get(id);
+            result.add(number(id, true));
+            Snapshot trackedFiles = c.getTrackedFiles();
+            if (trackedFiles != null) {
+                for (int i = 0; i < trackedFiles.size(); i += 1) {
+                    result.add(number(trackedFiles.objectId(i), false));
+                }
+            }
+        }
+        _numbering.save();
+        return result;
+    }
+
+    /** @param ancestorSHA1 - The ID of the possible ancestor.
+     *  @param descendantSHA1 - The ID of the possible descendant.
+     *  @return Whether the commit with ID ANCESTORSHA1 is in the history of
+     *  the commit with ID DESCENDANTSHA1. */
+    public boolean isAncestor(ObjectId ancestorSHA1,
+                              ObjectId descendantSHA1) {
+        if (ancestorSHA1.equals(descendantSHA1)) {
+            return true;
+        }
+        if (!new File(_repo, "commits/" + ancestorSHA1).exists()) {
+            return false;
+        }
+        int ancestor = _numbering.number(ancestorSHA1);
+        int descendant = _numbering.number(descendantSHA1);
+        if (ancestor >= 0 && descendant >= 0 && ancestor > descendant) {
+            return false;
+        }
+        CompressedBitmap reachable = reach(descendantSHA1);
+        ancestor = _numbering.number(ancestorSHA1);
+        return ancestor >= 0 && reachable.contains(ancestor);
+    }
+
+    /** Stores the bitmap of the commit with ID COMMITSHA1, which has just
+     *  become a branch head, and drops the bitmaps of its parents if they
+     *  are neither branch heads nor BITMAP_INTERVAL-th commits.
+     *  @param commitSHA1 - The ID of the new branch head. */
+    public void updateHead(ObjectId commitSHA1) {
+        CompressedBitmap reachable = reach(commitSHA1);
+        Main.writeAtomically(new File(_bitmaps, commitSHA1.toString()),
+                (Object) reachable.toBytes());
+        Commit c = Utils.readObject(new File(_repo, "commits/" + commitSHA1),
+                Commit.class);
+        HashSet<ObjectId> heads = null;
+        for (ObjectId parent : new ObjectId[] {c.getParent(),
+                                               c.getMergedInParent()}) {
+            if (parent == null
+                    || !new File(_bitmaps, parent.toString()).exists()) {
+                continue;
+            }
+            int ordinal = _numbering.ordinal(parent);
+            if (ordinal >= 0 && ordinal % BITMAP_INTERVAL == 0) {
+                continue;
+            }
+            if (heads == null) {
+                heads = new HashSet<>(new Refs(_repo).all().values());
+            }
+            if (!heads.contains(parent)) {
+                new File(_bitmaps, parent.toString()).delete();
+            }
+        }
+    }
+
+    /** @param bitmap - A bitmap of object numbers.
+     *  @return The IDs of the commits in BITMAP, parents before their
+     *  children. */
+    public List<ObjectId> commitsIn(CompressedBitmap bitmap) {
+        List<ObjectId> commits = new ArrayList<>();
+        for (int n : bitmap.toArray()) {
+            if (_numbering.isCommit(n)) {
+                commits.add(_numbering.id(n));
+            }
+        }
+        return commits;
+    }
+
+    /** @param bitmap - A bitmap of object numbers.
+     *  @return The IDs of the blobs in BITMAP. */
+    public List<String> blobsIn(CompressedBitmap bitmap) {
+        List<String> blobs = new ArrayList<>();
+        for (int n : bitmap.toArray()) {
+            if (!_numbering.isCommit(n)) {
+                blobs.add(_numbering.id(n).toString());
+            }
+        }
+        return blobs;
+    }
+
+    /** @param commitSHA1 - The ID of a commit.
+     *  @return The stored bitmap of the commit with ID COMMITSHA1, or null
+     *  if it has none. */
+    private CompressedBitmap readBitmap(ObjectId commitSHA1) {
+        File bitmap = new File(_bitmaps, commitSHA1.toString());
+        if (!bitmap.isFile()) {
+            return null;
+        }
+        return CompressedBitmap.fromBytes(Utils.readContents(bitmap));
+    }
+
+    /** @param id - The ID of a commit or blob.
+     *  @param isCommit - Whether ID is the ID of a commit.
+     *  @return The number of the object with ID ID, numbering it first if
+     *  it has no number yet. */
+    private int number(ObjectId id, boolean isCommit) {
+        int n = _numbering.number(id);
+        return n >= 0 ? n : _numbering.add(id, isCommit);
+    }
+
+    /** @param commits - Commits as values and their IDs as keys.
+     *  @return The IDs of COMMITS ordered so that every commit comes after
+     *  those of its parents that are in COMMITS. */
+    private static List<ObjectId> topologicalOrder(
+            HashMap<ObjectId, Commit> commits) {
+        List<ObjectId> order = new ArrayList<>();
+        HashSet<ObjectId> done = new HashSet<>();
+        ArrayDeque<ObjectId> stack = new ArrayDeque<>();
+        for (ObjectId start : commits.keySet()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                ObjectId id = stack.peek();
+                if (done.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean parentsDone = true;
+                Commit c = commits.get(id);
+                for (ObjectId parent : new ObjectId[] {c.getParent(),
+                                                       c.getMergedInParent()}) {
+                    if (parent != null && commits.containsKey(parent)
+                            && !done.contains(parent)) {
+                        stack.push(parent);
+                        parentsDone = false;
+                    }
+                }
+                if (parentsDone) {
+                    stack.pop();
+                    done.add(id);
+                    order.add(id);
+                }
+            }
+        }
+        return order;
+    }
+
+    /** The .gitlet directory of the repository. */
+    private final File _repo;
+
+    /** Directory containing the numbering file and the stored bitmaps,
+     *  each named by the ID of its commit. */
+    private final File _bitmaps;
+
+    /** The shallow boundary of the repository, at which walks stop. */
+    private final Shallow _shallow;
+
+    /** The numbers of the commits and blobs. */
+    private final Numbering _numbering;
+}
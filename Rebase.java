@@ -0,0 +1,283 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The rebase command of Gitlet, which replays the commits of the current
+ *  branch that the given branch does not have on top of the given branch's
+ *  head, giving linear history. The replay happens in memory: each commit
+ *  is turned into the changes it made to the files of its first parent,
+ *  and those changes are applied to the files of the commit replayed
+ *  before it. A change conflicts if the file was also changed, in a
+ *  different way, by the given branch or by an earlier replayed commit.
+ *  Commits whose changes are already present are dropped, and merge
+ *  commits are replayed as the changes they made to their first parent.
+ *
+ *  The new commits keep the messages and timestamps of the originals, are
+ *  written together once they have all been built, and the current branch
+ *  is then moved to the last of them. The working directory is updated
+ *  once, at the end, or at the first conflict, which stops the replay.
+ *  @author Raman Varma
+ */
+public class Rebase {
+
+    /** The number of characters of a commit ID that are displayed. */
+    private static final int ABBREVIATED_LENGTH = 7;
+
+    /** Replays the commits of the current branch onto the head of the branch
+     *  named BRANCHNAME. If a commit conflicts, the commits before it are
+     *  kept, its non-conflicting changes and the conflicting files, with
+     *  both versions between conflict markers, are written and staged, and
+     *  the commits after it are not replayed.
+     *  @param branchName - The name of the branch to rebase onto. */
+    public static void rebase(String branchName) {
+        handleErrors(branchName);
+        ObjectId headSHA1 = Main.REFS.headCommit();
+        ObjectId ontoSHA1 = Main.REFS.read(branchName);
+        Reachability reachability = new Reachability(Main.REPO);
+        if (reachability.isAncestor(ontoSHA1, headSHA1)) {
+            System.out.println("Current branch is up to date.");
+            return;
+        }
+        Commit head = Main.readCommit(headSHA1);
+        Snapshot headFiles = filesOf(head);
+        List<ObjectId> toReplay = new ArrayList<>();
+        for (ObjectId commitSHA1 = headSHA1; commitSHA1 != null
+                && !reachability.isAncestor(commitSHA1, ontoSHA1); ) {
+            toReplay.add(commitSHA1);
+            ObjectId parentSHA1 = Main.readCommit(commitSHA1).getParent();
+            commitSHA1 = parentSHA1 != null
+                    && new File(Main.COMMITS, parentSHA1.toString()).exists()
+                    ? parentSHA1 : null;
+        }
+        Collections.reverse(toReplay);
+
+        ObjectId parentSHA1 = ontoSHA1;
+        Snapshot ontoFiles = filesOf(Main.readCommit(ontoSHA1));
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int i = 0; i < ontoFiles.size(); i += 1) {
+            files.put(ontoFiles.name(i), ontoFiles.id(i));
+        }
+        List<Commit> replayed = new ArrayList<>();
+        TreeMap<String, String> stopFiles = null;
+        Set<String> conflicts = new HashSet<>();
+        ObjectId stoppedAt = null;
+        Metrics.Phase replay = Metrics.phase("replay");
+        try {
+            for (ObjectId commitSHA1 : toReplay) {
+                Commit c = Main.readCommit(commitSHA1);
+                Snapshot before = c.getParent() == null ? Snapshot.EMPTY
+                        : filesOf(Main.readCommit(c.getParent()));
+                TreeMap<String, String> after = new TreeMap<>(files);
+                if (!replay(before, filesOf(c), after, conflicts)) {
+                    stopFiles = after;
+                    stoppedAt = commitSHA1;
+                    break;
+                }
+                if (after.equals(files)) {
+                    continue;
+                }
+                Snapshot trackedFiles = Snapshot.of(after);
+                ObjectId newSHA1 = Commit.id(parentSHA1, c.getMessage(),
+                        c.getTimestamp(), trackedFiles);
+                replayed.add(new Commit(parentSHA1, c.getMessage(),
+                        c.getTimestamp(), trackedFiles, null, newSHA1));
+                parentSHA1 = newSHA1;
+                files = after;
+            }
+        } finally {
+            replay.close();
+        }
+        TreeMap<String, String> target = stopFiles != null ? stopFiles
+                : files;
+        checkUntracked(headFiles, target);
+
+        Metrics.Phase writeCommits = Metrics.phase("write-commits");
+        try {
+            Snapshot parentFiles = ontoFiles;
+            for (Commit c : replayed) {
+                Main.writeAtomically(new File(Main.COMMITS,
+                        c.getCommitSHA1().toString()), Utils.serialize(c));
+                ChangedPaths.write(Main.REPO, c.getCommitSHA1(),
+                        c.getParent(), c.getTrackedFiles(), parentFiles);
+                parentFiles = c.getTrackedFiles();
+            }
+            Main.REFS.write(Main.getCurrentBranch(), parentSHA1);
+            reachability.updateHead(parentSHA1);
+        } finally {
+            writeCommits.close();
+        }
+        Metrics.Phase writeTree = Metrics.phase("write-working-tree");
+        try {
+            writeWorkingTree(headFiles, files, target, conflicts);
+        } finally {
+            writeTree.close();
+        }
+        if (stoppedAt != null) {
+            System.out.println("Encountered a merge conflict replaying "
+                    + stoppedAt.abbreviate(ABBREVIATED_LENGTH) + ".");
+            int skipped = toReplay.size() - toReplay.indexOf(stoppedAt) - 1;
+            if (skipped > 0) {
+                System.out.println(skipped + " later commits were not "
+                        + "replayed.");
+            }
+        }
+    }
+
+    /** Applies the changes made between BEFORE and AFTERCOMMIT to FILES.
+     *  A change to a file whose blob in FILES is neither its blob in BEFORE
+     *  nor its blob in AFTERCOMMIT conflicts; the file is then set in FILES
+     *  to the blob of its merged contents, which is stored, and its name is
+     *  added to CONFLICTS.
+     *  @param before - The files of the first parent of a commit.
+     *  @param afterCommit - The files of the commit.
+     *  @param files - The files to apply the changes to.
+     *  @param conflicts - Set to which conflicting file names are added.
+     *  @return Whether no change conflicted. */
+    private static boolean replay(Snapshot before, Snapshot afterCommit,
+                                  TreeMap<String, String> files,
+                                  Set<String> conflicts) {
+        List<String> conflicting = new ArrayList<>();
+        afterCommit.diff(before, (fileName, ours, base) -> {
+            String theirs = files.get(fileName);
+            if (Objects.equals(theirs, base)) {
+                if (ours == null) {
+                    files.remove(fileName);
+                } else {
+                    files.put(fileName, ours);
+                }
+            } else if (!Objects.equals(theirs, ours)) {
+                conflicting.add(fileName);
+            }
+        });
+        Main.BLOBS.require(conflictBlobs(conflicting, afterCommit, files));
+        for (String fileName : conflicting) {
+            byte[] contents = Main.conflictContents(files.get(fileName),
+                    afterCommit.get(fileName));
+            String blobSHA1 = Utils.sha1((Object) contents);
+            Main.writeBlob(blobSHA1, contents);
+            files.put(fileName, blobSHA1);
+            conflicts.add(fileName);
+        }
+        return conflicting.isEmpty();
+    }
+
+    /** @param conflicting - The names of conflicting files.
+     *  @param ours - The files of the commit being replayed.
+     *  @param theirs - The files it is replayed onto.
+     *  @return The IDs of the blobs of both sides of the conflicting
+     *  files. */
+    private static List<String> conflictBlobs(List<String> conflicting,
+                                              Snapshot ours,
+                                              Map<String, String> theirs) {
+        List<String> blobs = new ArrayList<>();
+        for (String fileName : conflicting) {
+            if (ours.get(fileName) != null) {
+                blobs.add(ours.get(fileName));
+            }
+            if (theirs.get(fileName) != null) {
+                blobs.add(theirs.get(fileName));
+            }
+        }
+        return blobs;
+    }
+
+    /** Moves the working directory from the files HEADFILES of the old head
+     *  to TARGET, writing only the files whose blobs differ, and stages the
+     *  differences between the new head's files NEWHEADFILES and TARGET,
+     *  which are only those of a conflicting commit.
+     *  @param headFiles - The files of the old head commit.
+     *  @param newHeadFiles - The files of the new head commit.
+     *  @param target - The files to check out.
+     *  @param conflicts - The names of the conflicting files, which are
+     *  written even outside the sparse checkout. */
+    private static void writeWorkingTree(Snapshot headFiles,
+                                         Map<String, String> newHeadFiles,
+                                         Map<String, String> target,
+                                         Set<String> conflicts) {
+        List<String> needed = new ArrayList<>();
+        for (Map.Entry<String, String> file : target.entrySet()) {
+            if (!file.getValue().equals(headFiles.get(file.getKey()))
+                    && Main.SPARSE.includes(file.getKey())) {
+                needed.add(file.getValue());
+            }
+        }
+        Main.BLOBS.require(needed);
+        for (Map.Entry<String, String> file : target.entrySet()) {
+            String fileName = file.getKey();
+            if (conflicts.contains(fileName)) {
+                Main.BLOBS.writeTo(file.getValue(), new File(fileName));
+            } else if (!file.getValue().equals(headFiles.get(fileName))) {
+                Main.materialize(fileName, file.getValue());
+            }
+        }
+        for (String fileName : headFiles.names()) {
+            if (!target.containsKey(fileName)) {
+                File removed = new File(fileName);
+                if (removed.exists()) {
+                    Utils.restrictedDelete(removed);
+                }
+            }
+        }
+        StagingIndex index = Main.readStagingIndex();
+        for (Map.Entry<String, String> file : target.entrySet()) {
+            if (!file.getValue().equals(newHeadFiles.get(file.getKey()))) {
+                index.stageForAddition(file.getKey(), file.getValue());
+            }
+        }
+        for (String fileName : newHeadFiles.keySet()) {
+            if (!target.containsKey(fileName)) {
+                index.stageForRemoval(fileName);
+            }
+        }
+        index.write();
+    }
+
+    /** If a file untracked by the head commit is in the working directory
+     *  and TARGET would overwrite it, prints "There is an untracked file in
+     *  the way; delete it, or add and commit it first." and exits.
+     *  @param headFiles - The files of the head commit.
+     *  @param target - The files to be checked out. */
+    private static void checkUntracked(Snapshot headFiles,
+                                       Map<String, String> target) {
+        for (String fileName : Main.workingFileNames()) {
+            if (!headFiles.containsKey(fileName)
+                    && target.containsKey(fileName)
+                    && Main.SPARSE.includes(fileName)) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                System.exit(0);
+            }
+        }
+    }
+
+    /** Prints an error and exits if there are staged changes, the branch
+     *  named BRANCHNAME does not exist, or it is the current branch.
+     *  @param branchName - The name of the branch to rebase onto. */
+    private static void handleErrors(String branchName) {
+        if (!Main.readStagingIndex().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            System.exit(0);
+        }
+        if (Main.REFS.read(branchName) == null) {
+            System.out.println("A branch with that name does not exist.");
+            System.exit(0);
+        }
+        if (branchName.equals(Main.getCurrentBranch())) {
+            System.out.println("Cannot rebase a branch onto itself.");
+            System.exit(0);
+        }
+    }
+
+    /** @param c - A commit.
+     *  @return The files tracked by C, empty for the initial commit. */
+    private static Snapshot filesOf(Commit c) {
+        return c.getTrackedFiles() == null ? Snapshot.EMPTY
+                : c.getTrackedFiles();
+    }
+}
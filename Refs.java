@@ -0,0 +1,263 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The branches and HEAD of a Gitlet repository. A branch is stored either
+ *  as a loose file in the branches directory, named by the branch and
+ *  containing the ID of its head commit, or as a line of the packed-refs
+ *  file. A loose file overrides a packed line for the same branch, so
+ *  updating a branch only ever writes its loose file; the pack-refs step
+ *  of maintenance moves all loose branches into the packed-refs file.
+ *
+ *  The packed-refs file has one line per branch of the form
+ *  "[branch name] [commit id]", sorted by the UTF-8 bytes of the names, and
+ *  a branch is looked up by binary search on the contents of the file
+ *  without parsing the other lines. HEAD contains the path of the loose
+ *  file of the current branch, whether or not that file exists.
+ *  @author Raman Varma
+ */
+public class Refs {
+
+    /** The name of the packed-refs file in a .gitlet directory. */
+    static final String PACKED_REFS = "packed-refs";
+
+    /** The prefix of the contents of HEAD before the current branch's
+     *  name. */
+    static final String HEAD_PREFIX = ".gitlet/branches/";
+
+    /** Creates the refs of the repository whose .gitlet directory is REPO.
+     *  @param repo - The .gitlet directory of the repository. */
+    public Refs(File repo) {
+        _branches = new File(repo, "branches");
+        _packed = new File(repo, PACKED_REFS);
+        _head = new File(repo, "HEAD");
+    }
+
+    /** @return The name of the current branch, which includes the remote
+     *  name for branches fetched from a remote. */
+    public String currentBranch() {
+        if (_currentBranch == null) {
+            String path = Utils.readContentsAsString(_head);
+            if (path.startsWith(HEAD_PREFIX)) {
+                _currentBranch = path.substring(HEAD_PREFIX.length());
+            } else {
+                _currentBranch = new File(path).getName();
+            }
+        }
+        return _currentBranch;
+    }
+
+    /** Makes the branch with name BRANCHNAME the current branch.
+     *  @param branchName - The name of the branch. */
+    public void setCurrentBranch(String branchName) {
+        Main.writeAtomically(_head, HEAD_PREFIX + branchName);
+        _currentBranch = branchName;
+    }
+
+    /** @return The ID of the head commit of the current branch. */
+    public ObjectId headCommit() {
+        return read(currentBranch());
+    }
+
+    /** @param branchName - The name of a branch.
+     *  @return The ID of the head commit of the branch with name
+     *  BRANCHNAME, or null if there is no such branch. */
+    public ObjectId read(String branchName) {
+        File loose = new File(_branches, branchName);
+        if (loose.isFile()) {
+            return ObjectId.fromHex(Utils.readContentsAsString(loose));
+        }
+        return ObjectId.fromHex(lookUpPacked(branchName));
+    }
+
+    /** @param branchName - The name of a branch.
+     *  @return Whether a branch with name BRANCHNAME exists. */
+    public boolean exists(String branchName) {
+        return read(branchName) != null;
+    }
+
+    /** Points the branch with name BRANCHNAME at the commit with ID
+     *  COMMITSHA1, creating the branch if it does not exist.
+     *  @param branchName - The name of the branch.
+     *  @param commitSHA1 - The ID of the commit. */
+    public void write(String branchName, ObjectId commitSHA1) {
+        File loose = new File(_branches, branchName);
+        loose.getParentFile().mkdirs();
+        Main.writeAtomically(loose, commitSHA1.toString());
+    }
+
+    /** Points the branch with name BRANCHNAME at the commit with ID
+     *  NEWSHA1, provided it still points at the commit with ID EXPECTEDSHA1
+     *  (or does not exist, if EXPECTEDSHA1 is null).
+     *  @param branchName - The name of the branch.
+     *  @param expectedSHA1 - The ID the branch is expected to point at.
+     *  @param newSHA1 - The ID the branch should point at.
+     *  @return Whether the branch was updated. */
+    public boolean compareAndSet(String branchName, ObjectId expectedSHA1,
+                                 ObjectId newSHA1) {
+        ObjectId currentSHA1 = read(branchName);
+        if (expectedSHA1 == null ? currentSHA1 != null
+                : !expectedSHA1.equals(currentSHA1)) {
+            return false;
+        }
+        write(branchName, newSHA1);
+        return true;
+    }
+
+    /** Deletes the branch with name BRANCHNAME, rewriting the packed-refs
+     *  file if the branch is packed.
+     *  @param branchName - The name of the branch. */
+    public void delete(String branchName) {
+        new File(_branches, branchName).delete();
+        if (lookUpPacked(branchName) != null) {
+            TreeMap<String, String> packed = readPacked();
+            packed.remove(branchName);
+            writePacked(packed);
+        }
+    }
+
+    /** @return The IDs of the head commits of all branches, keyed by
+     *  branch name, in order of name. */
+    public TreeMap<String, ObjectId> all() {
+        TreeMap<String, String> branches = readPacked();
+        addLoose(_branches, "", branches);
+        TreeMap<String, ObjectId> heads = new TreeMap<>();
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            heads.put(branch.getKey(), ObjectId.fromHex(branch.getValue()));
+        }
+        return heads;
+    }
+
+    /** Moves every loose branch into the packed-refs file.
+     *  @return The number of branches packed. */
+    public int pack() {
+        TreeMap<String, String> packed = readPacked();
+        TreeMap<String, String> loose = new TreeMap<>();
+        addLoose(_branches, "", loose);
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        packed.putAll(loose);
+        writePacked(packed);
+        for (String branchName : loose.keySet()) {
+            new File(_branches, branchName).delete();
+        }
+        return loose.size();
+    }
+
+    /** Adds the loose branches in DIR to BRANCHES, with names prefixed by
+     *  PREFIX.
+     *  @param dir - The branches directory, or a subdirectory of it.
+     *  @param prefix - The prefix of the names of the branches in DIR.
+     *  @param branches - The branches found so far, keyed by name. */
+    private static void addLoose(File dir, String prefix,
+                                 TreeMap<String, String> branches) {
+        File[] files = Utils.listFiles(dir);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                addLoose(file, name + "/", branches);
+            } else if (!name.endsWith(".lock")) {
+                branches.put(name, Utils.readContentsAsString(file));
+            }
+        }
+    }
+
+    /** @param branchName - The name of a branch.
+     *  @return The ID in the packed-refs file of the branch with name
+     *  BRANCHNAME, or null if it is not packed. */
+    private String lookUpPacked(String branchName) {
+        byte[] data = packedBytes();
+        byte[] key = branchName.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = data.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = mid;
+            while (start > lo && data[start - 1] != '\n') {
+                start -= 1;
+            }
+            int end = start;
+            while (end < data.length && data[end] != '\n') {
+                end += 1;
+            }
+            int space = end - 1;
+            while (space > start && data[space] != ' ') {
+                space -= 1;
+            }
+            int cmp = Arrays.compareUnsigned(data, start, space,
+                    key, 0, key.length);
+            if (cmp == 0) {
+                return new String(data, space + 1, end - space - 1,
+                        StandardCharsets.UTF_8);
+            } else if (cmp < 0) {
+                lo = end + 1;
+            } else {
+                hi = start;
+            }
+        }
+        return null;
+    }
+
+    /** @return All of the branches in the packed-refs file, keyed by
+     *  name. */
+    private TreeMap<String, String> readPacked() {
+        TreeMap<String, String> packed = new TreeMap<>();
+        String contents = new String(packedBytes(), StandardCharsets.UTF_8);
+        for (String line : contents.split("\n")) {
+            int space = line.lastIndexOf(' ');
+            if (space > 0) {
+                packed.put(line.substring(0, space),
+                        line.substring(space + 1));
+            }
+        }
+        return packed;
+    }
+
+    /** Replaces the packed-refs file with one containing PACKED.
+     *  @param packed - The branches to pack, keyed by name. */
+    private void writePacked(TreeMap<String, String> packed) {
+        String[] names = packed.keySet().toArray(new String[0]);
+        Arrays.sort(names, (a, b) -> Arrays.compareUnsigned(
+                a.getBytes(StandardCharsets.UTF_8),
+                b.getBytes(StandardCharsets.UTF_8)));
+        StringBuilder contents = new StringBuilder();
+        for (String name : names) {
+            contents.append(name).append(' ').append(packed.get(name))
+                    .append('\n');
+        }
+        byte[] bytes = contents.toString().getBytes(StandardCharsets.UTF_8);
+        Main.writeAtomically(_packed, (Object) bytes);
+        _packedBytes = bytes;
+    }
+
+    /** @return The contents of the packed-refs file, read the first time
+     *  they are needed, or nothing if there is no packed-refs file. */
+    private byte[] packedBytes() {
+        if (_packedBytes == null) {
+            _packedBytes = _packed.isFile() ? Utils.readContents(_packed)
+                    : new byte[0];
+        }
+        return _packedBytes;
+    }
+
+    /** The directory of loose branches. */
+    private final File _branches;
+
+    /** The packed-refs file. */
+    private final File _packed;
+
+    /** The HEAD file. */
+    private final File _head;
+
+    /** The name of the current branch, or null if not yet read. */
+    private String _currentBranch;
+
+    /** The contents of the packed-refs file, or null if not yet read. */
+    private byte[] _packedBytes;
+}
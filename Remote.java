@@ -0,0 +1,414 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Remote commands of Gitlet, which synchronize the current repository with
+ *  another Gitlet repository on the local file system. Only the commits and
+ *  blobs missing on the receiving side are transferred.
+ *  @author Raman Varma
+ */
+public class Remote {
+
+    /** File in REMOTES_MAP containing a HashMap of all remote names to
+     *  the paths of their .gitlet directories. */
+    static final File REMOTES = new File(Main.REMOTES_MAP + "/remotes");
+
+    /** Saves the given login information under the given remote name.
+     *  Attempts to push or pull from the given remote name will then
+     *  attempt to use the .gitlet directory REMOTEDIR.
+     *  @param remoteName - The name of the remote.
+     *  @param remoteDir - The path of the remote's .gitlet directory, using
+     *  forward slashes as separators. */
+    public static void addRemote(String remoteName, String remoteDir) {
+        HashMap<String, String> remotes = readRemotes();
+        if (remotes.containsKey(remoteName)) {
+            System.out.println("A remote with that name already exists.");
+            System.exit(0);
+        }
+        remotes.put(remoteName, remoteDir.replace("/", File.separator));
+        Utils.writeObject(REMOTES, remotes);
+    }
+
+    /** Removes information associated with the given remote name.
+     *  @param remoteName - The name of the remote. */
+    public static void rmRemote(String remoteName) {
+        HashMap<String, String> remotes = readRemotes();
+        if (!remotes.containsKey(remoteName)) {
+            System.out.println("A remote with that name does not exist.");
+            System.exit(0);
+        }
+        remotes.remove(remoteName);
+        Utils.writeObject(REMOTES, remotes);
+    }
+
+    /** Appends the current branch's commits to the end of the given branch
+     *  at the given remote, transferring only the commits and blobs the
+     *  remote is missing. Only works if the remote branch's head is in the
+     *  history of the current local head.
+     *  @param remoteName - The name of the remote.
+     *  @param remoteBranch - The name of the branch at the remote. */
+    public static void push(String remoteName, String remoteBranch)
+            throws IOException {
+        File remoteRepo = getRemoteRepo(remoteName);
+        RepoLock remoteLock = RepoLock.exclusive(remoteRepo);
+        try {
+            Refs remoteRefs = new Refs(remoteRepo);
+            ObjectId localHeadSHA1 = Main.REFS.headCommit();
+            ObjectId remoteHeadSHA1 = remoteRefs.read(remoteBranch);
+            if (remoteHeadSHA1 != null) {
+                if (!new Reachability(Main.REPO).isAncestor(remoteHeadSHA1,
+                        localHeadSHA1)) {
+                    pullFirst();
+                }
+            }
+            transfer(Main.REPO, localHeadSHA1, remoteHeadSHA1, remoteRepo);
+            if (!remoteRefs.compareAndSet(remoteBranch, remoteHeadSHA1,
+                    localHeadSHA1)) {
+                pullFirst();
+            }
+            new Reachability(remoteRepo).updateHead(localHeadSHA1);
+        } finally {
+            remoteLock.close();
+        }
+    }
+
+    /** Creates a repository in the current directory from the repository
+     *  whose .gitlet directory is REMOTEDIR, with the branch BRANCHNAME of
+     *  the remote as its current branch and the remote saved as "origin".
+     *  The files of the branch's head are checked out. If DEPTH is
+     *  positive, only the DEPTH commits nearest the head along first
+     *  parents are copied, along with the blobs they track, and those of
+     *  them whose parents were not copied become the shallow boundary. If
+     *  PARTIAL, no blobs are copied: the remote becomes the promisor remote
+     *  of the new repository, from which blobs are fetched as they are
+     *  needed, starting with those of the files checked out.
+     *  @param remoteDir - The path of the remote's .gitlet directory, using
+     *  forward slashes as separators.
+     *  @param branchName - The name of the branch at the remote, or null
+     *  for the remote's current branch.
+     *  @param depth - The number of commits to copy, or 0 for all.
+     *  @param partial - Whether to copy the commits without their blobs. */
+    public static void clone(String remoteDir, String branchName, int depth,
+                             boolean partial) throws IOException {
+        if (Main.REPO.exists()) {
+            System.out.println("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+            System.exit(0);
+        }
+        File remoteRepo = new File(remoteDir.replace("/", File.separator));
+        if (!new File(remoteRepo, "commits").isDirectory()) {
+            System.out.println("Remote directory not found.");
+            System.exit(0);
+        }
+        Snapshot trackedFiles;
+        RepoLock remoteLock = RepoLock.shared(remoteRepo);
+        try {
+            Refs remoteRefs = new Refs(remoteRepo);
+            if (branchName == null) {
+                branchName = remoteRefs.currentBranch();
+            }
+            ObjectId headSHA1 = remoteRefs.read(branchName);
+            if (headSHA1 == null) {
+                System.out.println("That remote does not have that branch.");
+                System.exit(0);
+            }
+            trackedFiles = readCommit(remoteRepo, headSHA1).getTrackedFiles();
+            if (trackedFiles != null) {
+                for (String fileName : trackedFiles.names()) {
+                    if (new File(fileName).exists()) {
+                        System.out.println("There is an untracked file in the "
+                                + "way; delete it, or add and commit it first.");
+                        System.exit(0);
+                    }
+                }
+            }
+            Main.createRepository(Config.read(remoteRepo).get(
+                    HashEngine.HASH_ALGORITHM, HashEngine.SHA1));
+            List<ObjectId> commits;
+            if (depth > 0) {
+                Set<ObjectId> boundary = new HashSet<>();
+                commits = findShallowCommits(remoteRepo, headSHA1, depth,
+                        boundary);
+                Main.SHALLOW.addAll(boundary);
+            } else {
+                commits = findMissingCommits(remoteRepo, headSHA1, Main.REPO);
+                Set<ObjectId> boundary = new HashSet<>();
+                Shallow remoteShallow = new Shallow(remoteRepo, true);
+                for (ObjectId commitSHA1 : commits) {
+                    if (remoteShallow.isBoundary(commitSHA1)) {
+                        boundary.add(commitSHA1);
+                    }
+                }
+                Main.SHALLOW.addAll(boundary);
+            }
+            if (partial) {
+                Config config = Config.read(Main.REPO);
+                config.set(BlobStore.PROMISOR, "origin");
+                config.write();
+            } else {
+                Set<String> blobs = new HashSet<>();
+                for (ObjectId commitSHA1 : commits) {
+                    Snapshot files = readCommit(remoteRepo, commitSHA1)
+                            .getTrackedFiles();
+                    if (files != null) {
+                        blobs.addAll(files.ids());
+                    }
+                }
+                BlobStore remoteBlobs = new BlobStore(remoteRepo);
+                for (String blobSHA1 : blobs) {
+                    remoteBlobs.copyTo(blobSHA1, Main.BLOBS);
+                }
+            }
+            for (ObjectId commitSHA1 : commits) {
+                copyAtomically(new File(remoteRepo, "commits/" + commitSHA1),
+                        new File(Main.COMMITS, commitSHA1.toString()));
+                ChangedPaths.write(Main.REPO, commitSHA1);
+            }
+            addRemote("origin", remoteDir);
+            Main.REFS.write("origin/" + branchName, headSHA1);
+            Main.REFS.write(branchName, headSHA1);
+            Main.REFS.setCurrentBranch(branchName);
+            new Reachability(Main.REPO).updateHead(headSHA1);
+        } finally {
+            remoteLock.close();
+        }
+        if (trackedFiles != null) {
+            Main.BLOBS.require(trackedFiles.ids());
+            for (int i = 0; i < trackedFiles.size(); i += 1) {
+                Main.BLOBS.writeTo(trackedFiles.id(i),
+                        new File(trackedFiles.name(i)));
+            }
+        }
+    }
+
+    /** Walks first parents from the commit with ID HEADSHA1 in repository
+     *  FROM, taking at most DEPTH commits and stopping early at a commit on
+     *  FROM's own shallow boundary.
+     *  @param from - The .gitlet directory of the repository.
+     *  @param headSHA1 - The ID of the first commit.
+     *  @param depth - The most commits to take.
+     *  @param boundary - Set to which the IDs of the commits taken whose
+     *  parents are not taken are added.
+     *  @return The IDs of the commits taken, parents before their
+     *  children. */
+    static List<ObjectId> findShallowCommits(File from, ObjectId headSHA1,
+                                             int depth,
+                                             Set<ObjectId> boundary) {
+        List<ObjectId> commits = new ArrayList<>();
+        Shallow shallow = new Shallow(from, true);
+        ObjectId commitSHA1 = headSHA1;
+        while (commitSHA1 != null && commits.size() < depth) {
+            commits.add(commitSHA1);
+            Commit commit = readCommit(from, commitSHA1);
+            ObjectId[] parents = shallow.parents(commit);
+            boolean isLast = parents.length == 0
+                    || commits.size() == depth;
+            if ((isLast && commit.getParent() != null)
+                    || parents.length > 1) {
+                boundary.add(commitSHA1);
+            }
+            commitSHA1 = parents.length == 0 ? null : parents[0];
+        }
+        Collections.reverse(commits);
+        return commits;
+    }
+
+    /** Brings down commits from the remote Gitlet repository into the local
+     *  Gitlet repository, transferring only the commits and blobs the local
+     *  repository is missing, and points the branch [remote name]/[remote
+     *  branch name] at the remote branch's head. The remote is only read,
+     *  so it is locked shared with its other readers.
+     *  @param remoteName - The name of the remote.
+     *  @param remoteBranch - The name of the branch at the remote. */
+    public static void fetch(String remoteName, String remoteBranch)
+            throws IOException {
+        File remoteRepo = getRemoteRepo(remoteName);
+        ObjectId remoteHeadSHA1;
+        String trackingBranch = remoteName + "/" + remoteBranch;
+        ObjectId haveSHA1 = Main.REFS.read(trackingBranch);
+        RepoLock remoteLock = RepoLock.shared(remoteRepo);
+        try {
+            remoteHeadSHA1 = new Refs(remoteRepo).read(remoteBranch);
+            if (remoteHeadSHA1 == null) {
+                System.out.println("That remote does not have that branch.");
+                System.exit(0);
+            }
+            transfer(remoteRepo, remoteHeadSHA1, haveSHA1, Main.REPO);
+        } finally {
+            remoteLock.close();
+        }
+        Main.REFS.write(trackingBranch, remoteHeadSHA1);
+        new Reachability(Main.REPO).updateHead(remoteHeadSHA1);
+    }
+
+    /** Fetches branch [remote name]/[remote branch name] as for the fetch
+     *  command, and then merges that fetch into the current branch.
+     *  @param remoteName - The name of the remote.
+     *  @param remoteBranch - The name of the branch at the remote. */
+    public static void pull(String remoteName, String remoteBranch)
+            throws IOException {
+        fetch(remoteName, remoteBranch);
+        Main.merge(remoteName + "/" + remoteBranch, false);
+    }
+
+    /** Copies every commit reachable from the commit with ID HEADSHA1 in
+     *  repository FROM that repository TO is missing, along with the blobs
+     *  they track that TO is missing. Blobs are copied before commits, and
+     *  commits are copied parents first, so that TO never contains a commit
+     *  whose history is incomplete. TO computes the changed-path filters
+     *  of the commits it receives. If FROM is the promisor remote of TO,
+     *  no blobs are copied, since TO fetches them when it needs them. If
+     *  FROM has the commit with ID HAVESHA1, which TO is known to have, the
+     *  objects to send are computed with reachability bitmaps instead of a
+     *  walk of the commit graph. Objects of FROM those bitmaps have not
+     *  numbered are numbered only in memory, so FROM is never changed.
+     *  @param from - The .gitlet directory of the sending repository.
+     *  @param headSHA1 - The ID of the commit to send.
+     *  @param haveSHA1 - The ID of a commit TO has, or null.
+     *  @param to - The .gitlet directory of the receiving repository. */
+    static void transfer(File from, ObjectId headSHA1, ObjectId haveSHA1,
+                         File to) throws IOException {
+        List<ObjectId> missingCommits;
+        Set<String> missingBlobs = new HashSet<>();
+        if (haveSHA1 != null
+                && new File(from, "commits/" + haveSHA1).exists()) {
+            Reachability reachability = new Reachability(from, true);
+            CompressedBitmap toSend = reachability.reach(headSHA1)
+                    .andNot(reachability.reach(haveSHA1));
+            missingCommits = reachability.commitsIn(toSend);
+            missingBlobs.addAll(reachability.blobsIn(toSend));
+        } else {
+            missingCommits = findMissingCommits(from, headSHA1, to);
+            for (ObjectId commitSHA1 : missingCommits) {
+                Snapshot trackedFiles
+                        = readCommit(from, commitSHA1).getTrackedFiles();
+                if (trackedFiles != null) {
+                    missingBlobs.addAll(trackedFiles.ids());
+                }
+            }
+        }
+        BlobStore fromBlobs = new BlobStore(from);
+        BlobStore toBlobs = new BlobStore(to);
+        if (!toBlobs.isPromisor(from)) {
+            for (String blobSHA1 : missingBlobs) {
+                fromBlobs.copyTo(blobSHA1, toBlobs);
+            }
+        }
+        for (ObjectId commitSHA1 : missingCommits) {
+            File commit = new File(to, "commits/" + commitSHA1);
+            if (!commit.exists()) {
+                copyAtomically(new File(from, "commits/" + commitSHA1),
+                        commit);
+            }
+            ChangedPaths.write(to, commitSHA1);
+        }
+    }
+
+    /** Walks the commit graph of repository FROM starting at the commit with
+     *  ID HEADSHA1, stopping at commits repository TO already has. Since a
+     *  repository only stores a commit once its whole history is stored, the
+     *  walk never descends into common history.
+     *  @param from - The .gitlet directory of the sending repository.
+     *  @param headSHA1 - The ID of the commit to send.
+     *  @param to - The .gitlet directory of the receiving repository.
+     *  @return The IDs of the commits TO is missing, parents before their
+     *  children. */
+    static List<ObjectId> findMissingCommits(File from, ObjectId headSHA1,
+                                             File to) {
+        List<ObjectId> missing = new ArrayList<>();
+        HashSet<ObjectId> marked = new HashSet<>();
+        ArrayDeque<ObjectId> fringe = new ArrayDeque<>();
+        Shallow shallow = new Shallow(from, true);
+        fringe.push(headSHA1);
+        while (!fringe.isEmpty()) {
+            ObjectId commitSHA1 = fringe.pop();
+            if (!marked.add(commitSHA1)
+                    || new File(to, "commits/" + commitSHA1).exists()) {
+                continue;
+            }
+            missing.add(commitSHA1);
+            Commit commit = readCommit(from, commitSHA1);
+            for (ObjectId parent : shallow.parents(commit)) {
+                fringe.push(parent);
+            }
+        }
+        Collections.reverse(missing);
+        return missing;
+    }
+
+    /** Copies the object SOURCE to TARGET through a temporary file of its
+     *  own, so that TARGET either does not exist or is complete.
+     *  @param source - The object file to copy.
+     *  @param target - The object file to create. */
+    static void copyAtomically(File source, File target) throws IOException {
+        File temp = File.createTempFile(target.getName() + "-new", ".tmp",
+                target.getAbsoluteFile().getParentFile());
+        try {
+            Files.copy(source.toPath(), temp.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @param commitSHA1 - The ID of a commit stored in REPO.
+     *  @return The commit with ID COMMITSHA1 stored in REPO. */
+    static Commit readCommit(File repo, ObjectId commitSHA1) {
+        return Utils.readObject(new File(repo, "commits/" + commitSHA1),
+                Commit.class);
+    }
+
+    /** @param remoteName - The name of the remote.
+     *  @return The .gitlet directory of the remote with name REMOTENAME. */
+    static File getRemoteRepo(String remoteName) {
+        String remoteDir = readRemotes().get(remoteName);
+        if (remoteDir == null || !new File(remoteDir).isDirectory()) {
+            System.out.println("Remote directory not found.");
+            System.exit(0);
+        }
+        File remoteRepo = new File(remoteDir);
+        String remoteAlgorithm = Config.read(remoteRepo).get(
+                HashEngine.HASH_ALGORITHM, HashEngine.SHA1);
+        if (!remoteAlgorithm.equals(HashEngine.algorithm())) {
+            System.out.println("The remote uses a different hash algorithm.");
+            System.exit(0);
+        }
+        return remoteRepo;
+    }
+
+    /** @return A HashMap of all remote names to the paths of their .gitlet
+     *  directories. */
+    static HashMap<String, String> readRemotes() {
+        return readRemotes(Main.REPO);
+    }
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @return A HashMap of all remote names of REPO to the paths of their
+     *  .gitlet directories. */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> readRemotes(File repo) {
+        File remotes = new File(repo, "remotes/remotes");
+        if (!remotes.isFile()) {
+            return new HashMap<>();
+        }
+        return Utils.readFileObject(remotes, HashMap.class);
+    }
+
+    /** Remote history is not in the local history error case for push. */
+    static void pullFirst() {
+        System.out.println("Please pull down remote changes before pushing.");
+        System.exit(0);
+    }
+}
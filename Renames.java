@@ -0,0 +1,353 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Rename detection for merge. A file removed on one side of a merge and
+ *  a file added on the same side are paired as a rename if their contents
+ *  are identical or similar enough, and merge then treats them as one file
+ *  under its new name, so that edits made under the old name on the other
+ *  side follow it.
+ *
+ *  Similarity is the Jaccard similarity of the sets of lines of the two
+ *  files, estimated from MinHash sketches of SKETCH_SIZE hashes each. To
+ *  avoid comparing every removed file with every added one, the sketches
+ *  are split into bands of BAND_ROWS hashes and only files sharing a whole
+ *  band are compared, which finds nearly every pair at or above the
+ *  default threshold. The sketch of each blob is cached in the sketches
+ *  directory of the repository under the blob's ID, since blobs never
+ *  change.
+ *  @author Raman Varma
+ */
+public class Renames {
+
+    /** Config key of the similarity, in percent, at which an added and a
+     *  removed file are paired as a rename. At 100 only files with
+     *  identical contents are paired; above 100 none are. */
+    static final String RENAME_THRESHOLD = "merge.renameThreshold";
+
+    /** The default of RENAME_THRESHOLD. */
+    static final int DEFAULT_THRESHOLD = 50;
+
+    /** The number of hashes in a sketch. */
+    private static final int SKETCH_SIZE = 64;
+
+    /** The number of hashes in each band of a sketch. */
+    private static final int BAND_ROWS = 2;
+
+    /** Seeds of the SKETCH_SIZE hash functions, generated by SplitMix64. */
+    private static final long[] SEEDS = new long[SKETCH_SIZE];
+
+    static {
+        long state = 0x72656e616d6573L;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            state += 0x9e3779b97f4a7c15L;
+            SEEDS[i] = mix(state);
+        }
+    }
+
+    /** Rewrites the files tracked at the split point SPLIT, the head HEAD
+     *  and the given branch BRANCH of a merge so that files renamed on one
+     *  side have their new names on all three, so that a file the given
+     *  branch renamed is moved in the merge result. Renames that conflict
+     *  with each other or with a file of the other side are ignored,
+     *  leaving a removal and an addition.
+     *  @param splitFiles - The files tracked at the split point.
+     *  @param headFiles - The files tracked by the head commit.
+     *  @param branchFiles - The files tracked by the given branch.
+     *  @return The rewritten files of the split point, the head and the
+     *  given branch, which are the arguments themselves if no file was
+     *  renamed. */
+    static Snapshot[] apply(Snapshot splitFiles, Snapshot headFiles,
+                            Snapshot branchFiles) {
+        Snapshot[] unchanged = {splitFiles, headFiles, branchFiles};
+        int threshold = Config.read(Main.REPO).getInt(RENAME_THRESHOLD,
+                DEFAULT_THRESHOLD);
+        if (threshold > 100) {
+            return unchanged;
+        }
+        Map<String, String> inHead = detect(splitFiles, headFiles, threshold);
+        Map<String, String> inBranch = detect(splitFiles, branchFiles,
+                threshold);
+        if (inHead.isEmpty() && inBranch.isEmpty()) {
+            return unchanged;
+        }
+        TreeMap<String, String> split = toMap(splitFiles);
+        TreeMap<String, String> head = toMap(headFiles);
+        TreeMap<String, String> branch = toMap(branchFiles);
+        for (Map.Entry<String, String> rename : inBranch.entrySet()) {
+            String source = rename.getKey();
+            String target = rename.getValue();
+            String headTarget = inHead.get(source);
+            if (target.equals(headTarget)) {
+                split.put(target, split.remove(source));
+            }
+            if (headTarget != null || !head.containsKey(source)
+                    || head.containsKey(target)) {
+                continue;
+            }
+            head.put(target, head.remove(source));
+            split.put(target, split.remove(source));
+        }
+        for (Map.Entry<String, String> rename : inHead.entrySet()) {
+            String source = rename.getKey();
+            String target = rename.getValue();
+            if (inBranch.containsKey(source) || !branch.containsKey(source)
+                    || branch.containsKey(target)) {
+                continue;
+            }
+            branch.put(target, branch.remove(source));
+            split.put(target, split.remove(source));
+        }
+        return new Snapshot[] {Snapshot.of(split), Snapshot.of(head),
+            Snapshot.of(branch)};
+    }
+
+    /** @param files - A snapshot.
+     *  @return The files of FILES in a new map. */
+    private static TreeMap<String, String> toMap(Snapshot files) {
+        TreeMap<String, String> map = new TreeMap<>();
+        for (int i = 0; i < files.size(); i += 1) {
+            map.put(files.name(i), files.id(i));
+        }
+        return map;
+    }
+
+    /** @param before - The files tracked by a commit.
+     *  @param after - The files tracked by a descendant of it.
+     *  @param threshold - The similarity, in percent, at which files are
+     *  paired.
+     *  @return The new names of the files of BEFORE renamed in AFTER, keyed
+     *  by old name. Files with identical contents are paired first, and
+     *  then the most similar remaining pairs. */
+    static Map<String, String> detect(Snapshot before, Snapshot after,
+                                      int threshold) {
+        TreeMap<String, String> renames = new TreeMap<>();
+        TreeSet<String> removed = new TreeSet<>();
+        TreeSet<String> added = new TreeSet<>();
+        if (before == null || after == null) {
+            return renames;
+        }
+        before.diff(after, (fileName, ours, theirs) -> {
+            if (theirs == null) {
+                removed.add(fileName);
+            } else if (ours == null) {
+                added.add(fileName);
+            }
+        });
+        if (removed.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+        HashMap<String, ArrayDeque<String>> removedByBlob = new HashMap<>();
+        for (String fileName : removed) {
+            removedByBlob.computeIfAbsent(before.get(fileName),
+                    k -> new ArrayDeque<>()).add(fileName);
+        }
+        for (String fileName : new ArrayList<>(added)) {
+            ArrayDeque<String> sources = removedByBlob.get(
+                    after.get(fileName));
+            if (sources != null && !sources.isEmpty()) {
+                String source = sources.poll();
+                renames.put(source, fileName);
+                removed.remove(source);
+                added.remove(fileName);
+            }
+        }
+        if (threshold < 100 && !removed.isEmpty() && !added.isEmpty()) {
+            matchSimilar(removed, added, before, after, threshold, renames);
+        }
+        return renames;
+    }
+
+    /** Adds to RENAMES the most similar pairs of a file of REMOVED and a
+     *  file of ADDED whose similarity is at least THRESHOLD percent, each
+     *  file being paired at most once.
+     *  @param removed - The names of the removed files.
+     *  @param added - The names of the added files.
+     *  @param before - The blob IDs of the removed files, keyed by name.
+     *  @param after - The blob IDs of the added files, keyed by name.
+     *  @param threshold - The similarity, in percent, at which files are
+     *  paired.
+     *  @param renames - The renames found so far, keyed by old name. */
+    private static void matchSimilar(Set<String> removed, Set<String> added,
+                                     Snapshot before, Snapshot after,
+                                     int threshold,
+                                     Map<String, String> renames) {
+        HashMap<String, long[]> sketches = new HashMap<>();
+        HashMap<Long, List<String>> buckets = new HashMap<>();
+        for (String fileName : removed) {
+            long[] sketch = sketch(before.get(fileName));
+            if (sketch == null) {
+                continue;
+            }
+            sketches.put(fileName, sketch);
+            for (int band = 0; band < SKETCH_SIZE; band += BAND_ROWS) {
+                buckets.computeIfAbsent(bandKey(sketch, band),
+                        k -> new ArrayList<>()).add(fileName);
+            }
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (String fileName : added) {
+            long[] sketch = sketch(after.get(fileName));
+            if (sketch == null) {
+                continue;
+            }
+            Set<String> candidates = new HashSet<>();
+            for (int band = 0; band < SKETCH_SIZE; band += BAND_ROWS) {
+                List<String> bucket = buckets.get(bandKey(sketch, band));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+            for (String candidate : candidates) {
+                int similarity = similarity(sketches.get(candidate), sketch);
+                if (similarity >= threshold) {
+                    pairs.add(new Pair(similarity, candidate, fileName));
+                }
+            }
+        }
+        Collections.sort(pairs);
+        Set<String> paired = new HashSet<>();
+        for (Pair pair : pairs) {
+            if (!renames.containsKey(pair._source)
+                    && paired.add(pair._target)) {
+                renames.put(pair._source, pair._target);
+            }
+        }
+    }
+
+    /** A removed file and an added file similar enough to be a rename. */
+    private static final class Pair implements Comparable<Pair> {
+
+        /** Creates a pair.
+         *  @param similarity - The similarity of the files, in percent.
+         *  @param source - The name of the removed file.
+         *  @param target - The name of the added file. */
+        Pair(int similarity, String source, String target) {
+            _similarity = similarity;
+            _source = source;
+            _target = target;
+        }
+
+        /** Orders pairs from most to least similar, and then by name. */
+        @Override
+        public int compareTo(Pair other) {
+            int cmp = Integer.compare(other._similarity, _similarity);
+            if (cmp == 0) {
+                cmp = _source.compareTo(other._source);
+            }
+            return cmp != 0 ? cmp : _target.compareTo(other._target);
+        }
+
+        /** The similarity of the files, in percent. */
+        private final int _similarity;
+
+        /** The name of the removed file. */
+        private final String _source;
+
+        /** The name of the added file. */
+        private final String _target;
+    }
+
+    /** @param a - A sketch.
+     *  @param b - Another sketch.
+     *  @return The estimated similarity of the files of A and B, in
+     *  percent. */
+    private static int similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            if (a[i] == b[i]) {
+                equal += 1;
+            }
+        }
+        return equal * 100 / SKETCH_SIZE;
+    }
+
+    /** @param sketch - A sketch.
+     *  @param band - The index of the first hash of a band.
+     *  @return A key identifying the band of SKETCH starting at BAND and
+     *  its position. */
+    private static long bandKey(long[] sketch, int band) {
+        long key = mix(band);
+        for (int i = band; i < band + BAND_ROWS; i += 1) {
+            key = mix(key ^ sketch[i]);
+        }
+        return key;
+    }
+
+    /** @param blobSHA1 - The ID of a blob.
+     *  @return The MinHash sketch of the set of lines of the blob, read
+     *  from the cache if it is there, or null if the blob is empty. */
+    private static long[] sketch(String blobSHA1) {
+        File cache = new File(Main.REPO, "sketches/" + blobSHA1);
+        if (cache.isFile()) {
+            Metrics.increment(Metrics.Counter.CACHE_HITS);
+            byte[] bytes = Utils.readContents(cache);
+            if (bytes.length == 0) {
+                return null;
+            }
+            long[] sketch = new long[SKETCH_SIZE];
+            ByteBuffer.wrap(bytes).asLongBuffer().get(sketch);
+            return sketch;
+        }
+        Metrics.increment(Metrics.Counter.CACHE_MISSES);
+        long[] sketch = computeSketch(Main.BLOBS.read(blobSHA1));
+        ByteBuffer bytes = ByteBuffer.allocate(
+                sketch == null ? 0 : SKETCH_SIZE * Long.BYTES);
+        if (sketch != null) {
+            bytes.asLongBuffer().put(sketch);
+        }
+        cache.getParentFile().mkdir();
+        Main.writeAtomically(cache, (Object) bytes.array());
+        return sketch;
+    }
+
+    /** @param data - The contents of a file.
+     *  @return The MinHash sketch of the set of lines of DATA, or null if
+     *  DATA is empty. */
+    private static long[] computeSketch(byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        long[] sketch = new long[SKETCH_SIZE];
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        long hash = 0xcbf29ce484222325L;
+        int lineLength = 0;
+        for (int i = 0; i <= data.length; i += 1) {
+            if (i == data.length && lineLength == 0) {
+                break;
+            } else if (i == data.length || data[i] == '\n') {
+                for (int j = 0; j < SKETCH_SIZE; j += 1) {
+                    long h = mix(hash ^ SEEDS[j]);
+                    if (h < sketch[j]) {
+                        sketch[j] = h;
+                    }
+                }
+                hash = 0xcbf29ce484222325L;
+                lineLength = 0;
+            } else {
+                lineLength += 1;
+                hash ^= data[i] & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return sketch;
+    }
+
+    /** @param z - A 64-bit value.
+     *  @return Z scrambled by the SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/** A lock on a Gitlet repository shared by all processes using it, held
+ *  for the whole of a command. Commands that only read the repository
+ *  take it shared, so they never block each other, and see the branches
+ *  and HEAD as of a single moment, since no writer can run meanwhile.
+ *  Commands that write take it exclusively, so writers run one at a time.
+ *
+ *  The lock is an operating-system lock on the file "lock" in the .gitlet
+ *  directory, which is released when its process ends, however it ends.
+ *  While a writer holds it, the file names the writer; it is emptied when
+ *  the writer finishes. A writer that finds the file non-empty therefore
+ *  knows that the previous writer was killed, and first recovers the
+ *  repository by removing the temporary files of its unfinished writes.
+ *  A lock is released in a finally block, and also when the process
+ *  exits, so that System.exit() does not leave a writer's mark behind.
+ *  @author Raman Varma
+ */
+public class RepoLock {
+
+    /** The name of the lock file in a .gitlet directory. */
+    static final String LOCK_FILE = "lock";
+
+    /** The number of milliseconds to wait for another process to release
+     *  the lock before giving up. */
+    static final long TIMEOUT = 30000;
+
+    /** The longest pause, in milliseconds, between attempts to take the
+     *  lock. */
+    private static final long MAX_BACKOFF = 100;
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @return A lock on REPO shared with other readers. */
+    public static RepoLock shared(File repo) {
+        return new RepoLock(repo, false);
+    }
+
+    /** @param repo - The .gitlet directory of a repository.
+     *  @return An exclusive lock on REPO, recovering REPO first if its
+     *  last writer did not finish. */
+    public static RepoLock exclusive(File repo) {
+        return new RepoLock(repo, true);
+    }
+
+    /** Takes the lock on the repository whose .gitlet directory is REPO,
+     *  waiting up to TIMEOUT milliseconds for other processes.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @param exclusive - Whether to take the lock exclusively. */
+    private RepoLock(File repo, boolean exclusive) {
+        _repo = repo;
+        _exclusive = exclusive;
+        Metrics.Phase phase = Metrics.phase("lock");
+        try {
+            _channel = FileChannel.open(new File(repo, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            _lock = acquire();
+            if (exclusive) {
+                if (_channel.size() > 0) {
+                    recover();
+                }
+                _channel.write(ByteBuffer.wrap(owner().getBytes(
+                        StandardCharsets.UTF_8)), 0);
+                _channel.force(false);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            phase.close();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /** Releases the lock, marking the repository as consistent if it was
+     *  held exclusively. Releasing it more than once has no effect. */
+    public synchronized void close() {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            if (_exclusive) {
+                _channel.truncate(0);
+            }
+            _lock.release();
+            _channel.close();
+        } catch (IOException excp) {
+            System.err.println("Could not release the repository lock: "
+                    + excp.getMessage());
+        }
+    }
+
+    /** @return The lock on the lock file, once no other process holds a
+     *  conflicting one. */
+    private FileLock acquire() throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        long backoff = 1;
+        while (true) {
+            FileLock lock = _channel.tryLock(0, Long.MAX_VALUE, !_exclusive);
+            if (lock != null) {
+                return lock;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                System.out.println("Another gitlet process is using the "
+                        + "repository.");
+                System.exit(0);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    /** Removes the temporary files left by a writer that was killed, and
+     *  the torn last line of the bitmap numbering if it was appending to
+     *  it. Objects and branches are only ever replaced by renaming a
+     *  complete temporary file over them, so nothing else can be partial. */
+    private void recover() throws IOException {
+        System.err.println("Recovering from an interrupted gitlet process.");
+        for (String dir : new String[] {"", "commits", "files", "manifests",
+                                        "chunks", "branches", "staging",
+                                        "bloom", "blame", "sketches",
+                                        "bitmaps"}) {
+            removeTemporaryFiles(new File(_repo, dir));
+        }
+        File numbering = new File(_repo, "bitmaps/numbering");
+        if (numbering.isFile()) {
+            byte[] contents = Utils.readContents(numbering);
+            int end = contents.length;
+            while (end > 0 && contents[end - 1] != '\n') {
+                end -= 1;
+            }
+            if (end < contents.length) {
+                try (FileChannel out = FileChannel.open(numbering.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    out.truncate(end);
+                }
+            }
+        }
+    }
+
+    /** Deletes the temporary files of interrupted writes in DIR and, for
+     *  the branches directory, its subdirectories.
+     *  @param dir - A directory of the repository. */
+    private static void removeTemporaryFiles(File dir) {
+        File[] files = Utils.listFiles(dir);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory() && dir.getName().equals("branches")) {
+                removeTemporaryFiles(file);
+            } else if (name.endsWith(".lock") || name.endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+    }
+
+    /** @return A description of this process, written to the lock file
+     *  while it writes the repository. */
+    private static String owner() {
+        return ManagementFactory.getRuntimeMXBean().getName() + " "
+                + System.currentTimeMillis() + "\n";
+    }
+
+    /** The .gitlet directory of the locked repository. */
+    private final File _repo;
+
+    /** Whether the lock is held exclusively. */
+    private final boolean _exclusive;
+
+    /** The open lock file. */
+    private final FileChannel _channel;
+
+    /** The lock held on the lock file. */
+    private final FileLock _lock;
+
+    /** Whether the lock has been released. */
+    private boolean _closed;
+}
@@ -0,0 +1,186 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The shallow boundary of a repository cloned with limited history: the
+ *  commits some of whose parents were not copied. Their IDs are stored one
+ *  per line in the file "shallow" of the .gitlet directory, which a
+ *  repository with complete history does not have. Walks of the commit
+ *  graph follow only the copied parents of boundary commits, so a boundary
+ *  commit none of whose parents were copied is treated as a root.
+ *
+ *  Versions of Gitlet that recomputed the ID of the head commit from its
+ *  tracked files as read back from its file recorded a wrong parent for
+ *  the next commit whenever that map serialized differently (see
+ *  CommitStream). Walks end at such a parent too. The IDs those versions
+ *  recomputed are found by reading every commit the first time a walk
+ *  meets a parent that is not stored, and are kept in the file
+ *  "recomputed" of the .gitlet directory. Any other missing parent means
+ *  the repository is damaged, and is reported as an error.
+ *  @author Raman Varma
+ */
+public class Shallow {
+
+    /** The name of the shallow file in a .gitlet directory. */
+    static final String SHALLOW_FILE = "shallow";
+
+    /** The name of the file of recomputed IDs in a .gitlet directory. */
+    static final String RECOMPUTED_FILE = "recomputed";
+
+    /** Creates the shallow boundary of the repository whose .gitlet
+     *  directory is REPO.
+     *  @param repo - The .gitlet directory of the repository. */
+    public Shallow(File repo) {
+        this(repo, false);
+    }
+
+    /** Creates the shallow boundary of the repository whose .gitlet
+     *  directory is REPO. If READONLY, the recomputed IDs found are not
+     *  recorded, so that REPO need only be locked for reading.
+     *  @param repo - The .gitlet directory of the repository.
+     *  @param readOnly - Whether to leave REPO unchanged. */
+    public Shallow(File repo, boolean readOnly) {
+        _file = new File(repo, SHALLOW_FILE);
+        _readOnly = readOnly;
+    }
+
+    /** @param commitSHA1 - The ID of a commit.
+     *  @return Whether the commit with ID COMMITSHA1 is on the boundary. */
+    public boolean isBoundary(ObjectId commitSHA1) {
+        return boundary().contains(commitSHA1);
+    }
+
+    /** @param c - A commit.
+     *  @return The IDs of the parent and merged-in parent of C that are
+     *  part of the history of the repository, which for a boundary commit
+     *  are only those that were copied, and otherwise leave out only the
+     *  IDs recomputed by older versions. If any other parent is missing,
+     *  prints an error message and exits. */
+    public ObjectId[] parents(Commit c) {
+        ObjectId[] parents;
+        if (c.getParent() == null) {
+            return new ObjectId[0];
+        } else if (c.getMergedInParent() == null) {
+            parents = new ObjectId[] {c.getParent()};
+        } else {
+            parents = new ObjectId[] {c.getParent(), c.getMergedInParent()};
+        }
+        File commits = new File(_file.getParentFile(), "commits");
+        List<ObjectId> stored = new ArrayList<>(parents.length);
+        for (ObjectId parent : parents) {
+            if (new File(commits, parent.toString()).isFile()) {
+                stored.add(parent);
+            } else if (!isBoundary(c.getCommitSHA1())
+                    && !isRecomputedId(parent)) {
+                System.out.println("Commit " + parent + ", a parent of "
+                        + c.getCommitSHA1() + ", is missing.");
+                System.exit(0);
+            }
+        }
+        return stored.toArray(new ObjectId[0]);
+    }
+
+    /** Adds the commits with IDs in COMMITS to the boundary.
+     *  @param commits - The IDs of the commits. */
+    public synchronized void addAll(Collection<ObjectId> commits) {
+        Set<ObjectId> boundary = new TreeSet<>(boundary());
+        if (boundary.addAll(commits)) {
+            StringBuilder contents = new StringBuilder();
+            for (ObjectId commitSHA1 : boundary) {
+                contents.append(commitSHA1).append('\n');
+            }
+            Main.writeAtomically(_file, contents.toString());
+            _boundary = boundary;
+        }
+    }
+
+    /** @param commitSHA1 - The ID of a commit that is not stored.
+     *  @return Whether COMMITSHA1 is the ID an older version recomputed
+     *  for a stored commit. The recorded IDs are read the first time they
+     *  are needed, and the commits are read again if COMMITSHA1 is not
+     *  among them, since commits may have been added since they were
+     *  recorded. */
+    private synchronized boolean isRecomputedId(ObjectId commitSHA1) {
+        File file = new File(_file.getParentFile(), RECOMPUTED_FILE);
+        if (_recomputed == null) {
+            _recomputed = new HashSet<>();
+            if (file.isFile()) {
+                for (String line
+                        : Utils.readContentsAsString(file).split("\n")) {
+                    if (!line.isEmpty()) {
+                        _recomputed.add(ObjectId.fromHex(line));
+                    }
+                }
+            }
+        }
+        if (_recomputed.contains(commitSHA1) || _rescanned) {
+            return _recomputed.contains(commitSHA1);
+        }
+        _rescanned = true;
+        File[] commits = Utils.listFiles(
+                new File(_file.getParentFile(), "commits"));
+        Set<ObjectId> recomputed = new TreeSet<>();
+        for (File commit : commits == null ? new File[0] : commits) {
+            if (!HashEngine.isId(commit.getName())) {
+                continue;
+            }
+            try {
+                ObjectId id = CommitStream.recomputedId(
+                        Utils.readObject(commit, Commit.class),
+                        ObjectReader.map(commit));
+                if (id != null) {
+                    recomputed.add(id);
+                }
+            } catch (IOException | IllegalArgumentException excp) {
+                continue;
+            }
+        }
+        if (!_readOnly && !recomputed.equals(_recomputed)) {
+            StringBuilder contents = new StringBuilder();
+            for (ObjectId id : recomputed) {
+                contents.append(id).append('\n');
+            }
+            Main.writeAtomically(file, contents.toString());
+        }
+        _recomputed = recomputed;
+        return _recomputed.contains(commitSHA1);
+    }
+
+    /** @return The IDs of the boundary commits, read the first time they
+     *  are needed. */
+    private synchronized Set<ObjectId> boundary() {
+        if (_boundary == null) {
+            _boundary = new HashSet<>();
+            if (_file.isFile()) {
+                for (String line
+                        : Utils.readContentsAsString(_file).split("\n")) {
+                    if (!line.isEmpty()) {
+                        _boundary.add(ObjectId.fromHex(line));
+                    }
+                }
+            }
+        }
+        return _boundary;
+    }
+
+    /** The shallow file. */
+    private final File _file;
+
+    /** The IDs of the boundary commits, or null if not yet read. */
+    private Set<ObjectId> _boundary;
+
+    /** The IDs older versions recomputed for stored commits, or null if
+     *  not yet read. */
+    private Set<ObjectId> _recomputed;
+
+    /** Whether the recomputed IDs are left unrecorded. */
+    private final boolean _readOnly;
+
+    /** Whether the commits have been read to find the recomputed IDs. */
+    private boolean _rescanned;
+}
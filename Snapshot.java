@@ -0,0 +1,280 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The files tracked by a commit, stored compactly: the file names in
+ *  sorted order, and the IDs of their blobs packed in binary into a single
+ *  byte array in the same order, so that an entry costs a reference and the
+ *  bytes of its ID instead of a map entry and two strings. The names are
+ *  interned, so every snapshot naming a file shares one string for it.
+ *  A file is looked up by binary search, and two snapshots are compared
+ *  by walking both in order, comparing IDs without decoding them.
+ *
+ *  The ID of a commit is computed from the Java serialization of a HashMap
+ *  of its files, whose bytes depend on the order in which the map was
+ *  filled. toHashMap() always fills a new map in sorted order, so the ID
+ *  of a new commit depends only on its files. This is not a canonical
+ *  encoding: the bytes still follow the bucket order of HashMap, and so
+ *  depend on its table sizes and on String.hashCode(), which the Java
+ *  specification fixes but nothing in Gitlet checks. The map of a commit
+ *  read from disk cannot be relied on to serialize as it did when the
+ *  commit was made, so the IDs of stored commits are verified against the
+ *  stored bytes of their maps instead (see CommitStream).
+ *  @author Raman Varma
+ */
+public class Snapshot {
+
+    /** A snapshot of no files. */
+    static final Snapshot EMPTY = new Snapshot(new String[0], new byte[0], 0);
+
+    /** Receives the differences between two snapshots. */
+    interface Visitor {
+
+        /** Called for a file whose blob differs between two snapshots.
+         *  @param fileName - The name of the file.
+         *  @param ours - The ID of its blob in the first snapshot, or null
+         *  if it is absent there.
+         *  @param theirs - The ID of its blob in the second snapshot, or
+         *  null if it is absent there. */
+        void changed(String fileName, String ours, String theirs);
+    }
+
+    /** @param files - The IDs of the blobs of some files, keyed by name,
+     *  which all have the same length.
+     *  @return A snapshot of FILES. */
+    static Snapshot of(Map<String, String> files) {
+        int size = files.size();
+        if (size == 0) {
+            return EMPTY;
+        }
+        String[] names = new String[size];
+        String[] ids = new String[size];
+        int k = 0;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            names[k] = file.getKey();
+            ids[k] = file.getValue();
+            k += 1;
+        }
+        if (!(files instanceof SortedMap)
+                || ((SortedMap<String, String>) files).comparator() != null) {
+            String[] sorted = names.clone();
+            Arrays.sort(sorted);
+            String[] sortedIds = new String[size];
+            for (k = 0; k < size; k += 1) {
+                sortedIds[Arrays.binarySearch(sorted, names[k])] = ids[k];
+            }
+            names = sorted;
+            ids = sortedIds;
+        }
+        int idBytes = ids[0].length() / 2;
+        byte[] packed = new byte[size * idBytes];
+        for (k = 0; k < size; k += 1) {
+            names[k] = intern(names[k]);
+            parseId(ids[k], packed, k * idBytes, idBytes);
+        }
+        return new Snapshot(names, packed, idBytes);
+    }
+
+    /** Creates a snapshot.
+     *  @param names - The sorted file names.
+     *  @param ids - The packed IDs of their blobs.
+     *  @param idBytes - The length of an ID in bytes. */
+    private Snapshot(String[] names, byte[] ids, int idBytes) {
+        _names = names;
+        _ids = ids;
+        _idBytes = idBytes;
+    }
+
+    /** @return The number of files. */
+    public int size() {
+        return _names.length;
+    }
+
+    /** @return Whether there are no files. */
+    public boolean isEmpty() {
+        return _names.length == 0;
+    }
+
+    /** @param i - An index less than size().
+     *  @return The name of the Ith file in sorted order. */
+    public String name(int i) {
+        return _names[i];
+    }
+
+    /** @param i - An index less than size().
+     *  @return The ID of the blob of the Ith file in sorted order. */
+    public String id(int i) {
+        return HashEngine.toHex(_ids, i * _idBytes, _idBytes);
+    }
+
+    /** @param i - An index less than size().
+     *  @return The ID of the blob of the Ith file in sorted order, decoded
+     *  from neither string nor hexadecimal. */
+    public ObjectId objectId(int i) {
+        return ObjectId.fromBytes(_ids, i * _idBytes, _idBytes);
+    }
+
+    /** @param fileName - The name of a file.
+     *  @return The index of the file named FILENAME, or a negative number
+     *  if it is absent. */
+    public int indexOf(String fileName) {
+        return Arrays.binarySearch(_names, fileName);
+    }
+
+    /** @param fileName - The name of a file.
+     *  @return Whether the file named FILENAME is in this snapshot. */
+    public boolean containsKey(String fileName) {
+        return indexOf(fileName) >= 0;
+    }
+
+    /** @param fileName - The name of a file.
+     *  @return The ID of the blob of the file named FILENAME, or null if it
+     *  is absent. */
+    public String get(String fileName) {
+        int i = indexOf(fileName);
+        return i < 0 ? null : id(i);
+    }
+
+    /** @return The names of the files, in sorted order. */
+    public List<String> names() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                return _names[i];
+            }
+
+            @Override
+            public int size() {
+                return _names.length;
+            }
+        };
+    }
+
+    /** @return The IDs of the blobs of the files, in the sorted order of
+     *  their names. */
+    public List<String> ids() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                return id(i);
+            }
+
+            @Override
+            public int size() {
+                return _names.length;
+            }
+        };
+    }
+
+    /** Reports to VISITOR, in sorted order, every file that is absent from
+     *  this snapshot or OTHER, or whose blob differs between them. Both
+     *  snapshots are walked once, in order.
+     *  @param other - A snapshot, or null for one with no files.
+     *  @param visitor - Receives the name of each such file with its blob
+     *  IDs in this snapshot and OTHER. */
+    public void diff(Snapshot other, Visitor visitor) {
+        if (other == null) {
+            other = EMPTY;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < _names.length || j < other._names.length) {
+            int cmp = i == _names.length ? 1
+                    : j == other._names.length ? -1
+                    : _names[i].compareTo(other._names[j]);
+            if (cmp < 0) {
+                visitor.changed(_names[i], id(i), null);
+                i += 1;
+            } else if (cmp > 0) {
+                visitor.changed(other._names[j], null, other.id(j));
+                j += 1;
+            } else {
+                if (!sameId(i, other, j)) {
+                    visitor.changed(_names[i], id(i), other.id(j));
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** @param i - The index of a file of this snapshot.
+     *  @param other - A snapshot.
+     *  @param j - The index of a file of OTHER.
+     *  @return Whether the two files have the same blob. */
+    private boolean sameId(int i, Snapshot other, int j) {
+        return _idBytes == other._idBytes
+                && Arrays.equals(_ids, i * _idBytes, (i + 1) * _idBytes,
+                        other._ids, j * _idBytes, (j + 1) * _idBytes);
+    }
+
+    /** @return The files as a new HashMap, filled in sorted order, which
+     *  serializes the same way for the same files. */
+    public HashMap<String, String> toHashMap() {
+        HashMap<String, String> files = new HashMap<>();
+        for (int i = 0; i < _names.length; i += 1) {
+            files.put(_names[i], id(i));
+        }
+        return files;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Snapshot)) {
+            return false;
+        }
+        Snapshot other = (Snapshot) obj;
+        return Arrays.equals(_names, other._names)
+                && Arrays.equals(_ids, other._ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(_names) + Arrays.hashCode(_ids);
+    }
+
+    /** @param name - A file name.
+     *  @return The shared string equal to NAME. */
+    private static String intern(String name) {
+        String shared = NAMES.putIfAbsent(name, name);
+        return shared == null ? name : shared;
+    }
+
+    /** Decodes the hexadecimal ID into LENGTH bytes of OUT from OFFSET.
+     *  @param id - An ID.
+     *  @param out - The array decoded into.
+     *  @param offset - The index of the first byte decoded into.
+     *  @param length - The length of an ID in bytes. */
+    private static void parseId(String id, byte[] out, int offset,
+                                int length) {
+        if (id.length() != 2 * length) {
+            throw new IllegalArgumentException("improper blob ID " + id);
+        }
+        for (int i = 0; i < length; i += 1) {
+            int high = Character.digit(id.charAt(2 * i), 16);
+            int low = Character.digit(id.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("improper blob ID " + id);
+            }
+            out[offset + i] = (byte) ((high << 4) | low);
+        }
+    }
+
+    /** The interned file names of all snapshots. */
+    private static final ConcurrentHashMap<String, String> NAMES =
+        new ConcurrentHashMap<>();
+
+    /** The file names, sorted. */
+    private final String[] _names;
+
+    /** The IDs of the blobs of the files, in the order of _NAMES, each
+     *  _IDBYTES long. */
+    private final byte[] _ids;
+
+    /** The length of an ID in bytes. */
+    private final int _idBytes;
+}
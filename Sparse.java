@@ -0,0 +1,71 @@
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The sparse checkout of a repository: the glob patterns, separated by
+ *  spaces, stored in its config under SPARSE_PATTERNS. When they are set,
+ *  checkout, reset and merge write only the tracked files whose names match
+ *  one of them into the working directory. The other tracked files stay
+ *  tracked and are carried into new commits unchanged, but are
+ *  intentionally absent from the working directory, so status does not
+ *  report them as deleted and they are never in the way of a checkout.
+ *  @author Raman Varma
+ */
+public class Sparse {
+
+    /** Config key of the patterns of the files to check out. */
+    static final String SPARSE_PATTERNS = "sparse.patterns";
+
+    /** Creates the sparse checkout of the repository whose .gitlet
+     *  directory is REPO.
+     *  @param repo - The .gitlet directory of the repository. */
+    public Sparse(File repo) {
+        _repo = repo;
+    }
+
+    /** @param fileName - The name of a file.
+     *  @return Whether the file named FILENAME belongs in the working
+     *  directory, which is true of every file if no patterns are set. */
+    public boolean includes(String fileName) {
+        List<PathMatcher> matchers = matchers();
+        if (matchers == null) {
+            return true;
+        }
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(Paths.get(fileName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return The matchers of the patterns, read the first time they are
+     *  needed, or null if no patterns are set. */
+    private synchronized List<PathMatcher> matchers() {
+        if (!_read) {
+            _read = true;
+            String patterns = Config.read(_repo).get(SPARSE_PATTERNS, "")
+                    .trim();
+            if (!patterns.isEmpty()) {
+                _matchers = new ArrayList<>();
+                for (String pattern : patterns.split("\\s+")) {
+                    _matchers.add(FileSystems.getDefault()
+                            .getPathMatcher("glob:" + pattern));
+                }
+            }
+        }
+        return _matchers;
+    }
+
+    /** The .gitlet directory of the repository. */
+    private final File _repo;
+
+    /** Whether the patterns have been read. */
+    private boolean _read;
+
+    /** The matchers of the patterns, or null if none are set. */
+    private List<PathMatcher> _matchers;
+}
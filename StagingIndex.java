@@ -0,0 +1,251 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The staging area of a Gitlet repository, stored as a single compact
+ *  binary index file. Each entry maps a file name either to the SHA1 ID of
+ *  a blob staged for addition (the blob itself already lives in the object
+ *  store) or to a tombstone marking the file as staged for removal.
+ *
+ *  Versions of Gitlet before the index staged a file for addition by
+ *  copying it into the directory "addition" beside the index, and for
+ *  removal by creating a file of its name in "removal". Changes staged
+ *  that way are read as part of the index, and are moved into it by the
+ *  first command that writes the repository (see importLegacy()).
+ *  @author Raman Varma
+ */
+public class StagingIndex {
+
+    /** Marks the start of every index file. */
+    private static final int MAGIC = 0x474c4958;
+
+    /** The version of the index file format. */
+    private static final int VERSION = 1;
+
+    /** Entry kind of a file staged for addition. */
+    private static final byte ADDITION = 0;
+
+    /** Entry kind of a file staged for removal (a tombstone). */
+    private static final byte REMOVAL = 1;
+
+    /** The directory of files staged for addition by older versions. */
+    private static final String LEGACY_ADDITION = "addition";
+
+    /** The directory of files staged for removal by older versions. */
+    private static final String LEGACY_REMOVAL = "removal";
+
+    /** Creates an empty staging index backed by FILE.
+     *  @param file - The index file. */
+    public StagingIndex(File file) {
+        _file = file;
+        _entries = new TreeMap<>();
+    }
+
+    /** Reads the staging index stored in FILE. A missing or empty file
+     *  is an empty staging area.
+     *  @param file - The index file.
+     *  @return The staging index stored in FILE. */
+    public static StagingIndex read(File file) {
+        return read(file, null);
+    }
+
+    /** @param file - The index file.
+     *  @param blobs - The store to which the blobs of files staged by older
+     *  versions are written, or null to only hash them.
+     *  @return The staging index stored in FILE. */
+    private static StagingIndex read(File file, BlobStore blobs) {
+        StagingIndex index = new StagingIndex(file);
+        index.readLegacy(blobs);
+        if (!file.isFile() || file.length() == 0) {
+            return index;
+        }
+        byte[] contents = Utils.readContents(file);
+        try (DataInputStream in =
+                     new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("corrupt staging index");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String fileName = in.readUTF();
+                byte kind = in.readByte();
+                String blobSHA1 = kind == ADDITION ? in.readUTF() : null;
+                if (!index._legacy.contains(fileName)) {
+                    index._entries.put(fileName, blobSHA1);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Moves the changes staged by older versions of Gitlet beside the
+     *  index FILE into it, storing the blobs of the files staged for
+     *  addition, and deletes their directories. Must be called with the
+     *  repository locked exclusively.
+     *  @param file - The index file. */
+    public static void importLegacy(File file) {
+        File addition = new File(file.getParentFile(), LEGACY_ADDITION);
+        File removal = new File(file.getParentFile(), LEGACY_REMOVAL);
+        if (!addition.isDirectory() && !removal.isDirectory()) {
+            return;
+        }
+        read(file, Main.BLOBS).write();
+        for (File dir : new File[] {addition, removal}) {
+            File[] staged = Utils.listFiles(dir);
+            if (staged != null) {
+                for (File f : staged) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /** Adds the changes staged by older versions of Gitlet to this index,
+     *  where they take the place of its own entries for the same files.
+     *  @param blobs - The store to which the blobs of the files staged for
+     *  addition are written, or null to only hash them. */
+    private void readLegacy(BlobStore blobs) {
+        File dir = _file.getParentFile();
+        List<String> removed =
+                Utils.plainFilenamesIn(new File(dir, LEGACY_REMOVAL));
+        if (removed != null) {
+            for (String fileName : removed) {
+                _entries.put(fileName, null);
+                _legacy.add(fileName);
+            }
+        }
+        File addition = new File(dir, LEGACY_ADDITION);
+        List<String> added = Utils.plainFilenamesIn(addition);
+        if (added != null) {
+            for (String fileName : added) {
+                byte[] contents =
+                        Utils.readContents(new File(addition, fileName));
+                String blobSHA1 = Utils.sha1((Object) contents);
+                if (blobs != null) {
+                    blobs.write(blobSHA1, contents);
+                }
+                _entries.put(fileName, blobSHA1);
+                _legacy.add(fileName);
+            }
+        }
+    }
+
+    /** Writes this staging index to its file. */
+    public void write() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, String> entry : _entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                if (entry.getValue() == null) {
+                    out.writeByte(REMOVAL);
+                } else {
+                    out.writeByte(ADDITION);
+                    out.writeUTF(entry.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Main.writeAtomically(_file, (Object) bytes.toByteArray());
+    }
+
+    /** Stages the file with name FILENAME for addition, replacing any
+     *  previous entry for it.
+     *  @param fileName - The name of the file.
+     *  @param blobSHA1 - The SHA1 ID of the staged contents of the file. */
+    public void stageForAddition(String fileName, String blobSHA1) {
+        _entries.put(fileName, blobSHA1);
+    }
+
+    /** Stages the file with name FILENAME for removal, replacing any
+     *  previous entry for it.
+     *  @param fileName - The name of the file. */
+    public void stageForRemoval(String fileName) {
+        _entries.put(fileName, null);
+    }
+
+    /** Removes any entry for the file with name FILENAME.
+     *  @param fileName - The name of the file. */
+    public void unstage(String fileName) {
+        _entries.remove(fileName);
+    }
+
+    /** Removes every entry of this staging index. */
+    public void clear() {
+        _entries.clear();
+    }
+
+    /** @return Whether nothing is staged for addition or removal. */
+    public boolean isEmpty() {
+        return _entries.isEmpty();
+    }
+
+    /** @param fileName - The name of the file.
+     *  @return Whether the file with name FILENAME is staged for addition. */
+    public boolean isStagedForAddition(String fileName) {
+        return _entries.get(fileName) != null;
+    }
+
+    /** @param fileName - The name of the file.
+     *  @return Whether the file with name FILENAME is staged for removal. */
+    public boolean isStagedForRemoval(String fileName) {
+        return _entries.containsKey(fileName)
+                && _entries.get(fileName) == null;
+    }
+
+    /** @param fileName - The name of the file.
+     *  @return The SHA1 ID of the blob staged for addition under FILENAME,
+     *  or null if the file is not staged for addition. */
+    public String getStagedBlob(String fileName) {
+        return _entries.get(fileName);
+    }
+
+    /** @return The files staged for addition, in lexicographic order, as
+     *  keys and the SHA1 IDs of their staged blobs as values. */
+    public TreeMap<String, String> getAdditions() {
+        TreeMap<String, String> additions = new TreeMap<>();
+        for (Map.Entry<String, String> entry : _entries.entrySet()) {
+            if (entry.getValue() != null) {
+                additions.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return additions;
+    }
+
+    /** @return The names of the files staged for removal, in lexicographic
+     *  order. */
+    public List<String> getRemovals() {
+        List<String> removals = new ArrayList<>();
+        for (Map.Entry<String, String> entry : _entries.entrySet()) {
+            if (entry.getValue() == null) {
+                removals.add(entry.getKey());
+            }
+        }
+        return removals;
+    }
+
+    /** The file this staging index is stored in. */
+    private final File _file;
+
+    /** File names as keys and the SHA1 IDs of their staged blobs as values.
+     *  A null value is a tombstone for a file staged for removal. */
+    private final TreeMap<String, String> _entries;
+
+    /** The names of the files staged by older versions of Gitlet. */
+    private final Set<String> _legacy = new HashSet<>();
+}
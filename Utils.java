@@ -1,7 +1,7 @@
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -10,10 +10,7 @@ import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 /** Assorted utilities.
@@ -27,27 +24,43 @@ class Utils {
     static final int UID_LENGTH = 40;
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays and Strings. In a repository created
+     *  with another hash algorithm, returns the hash of that algorithm
+     *  instead. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        return HashEngine.toHex(digest(vals));
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of VALS, as sha1(VALS)
+     *  does, as an ObjectId rather than in hexadecimal. */
+    static ObjectId sha1Id(Object... vals) {
+        byte[] digest = digest(vals);
+        return ObjectId.fromBytes(digest, 0, digest.length);
+    }
+
+    /** Returns the digest of the concatenation of VALS, recording it in
+     *  the metrics and the flight recorder. */
+    private static byte[] digest(Object... vals) {
+        Events.Hash event = new Events.Hash();
+        event.begin();
+        byte[] result = HashEngine.digestOf(vals);
+        event.end();
+        long hashed = 0;
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                hashed += ((byte[]) val).length;
+            } else {
+                hashed += ((String) val).length();
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        Metrics.increment(Metrics.Counter.HASHES);
+        Metrics.add(Metrics.Counter.BYTES_HASHED, hashed);
+        if (event.shouldCommit()) {
+            event.algorithm = HashEngine.algorithm();
+            event.bytes = hashed;
+            event.commit();
+        }
+        return result;
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -91,7 +104,19 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            Events.ObjectRead event = new Events.ObjectRead();
+            event.begin();
+            byte[] contents = Files.readAllBytes(file.toPath());
+            event.end();
+            Metrics.increment(Metrics.Counter.FILES_READ);
+            Metrics.add(Metrics.Counter.BYTES_READ, contents.length);
+            if (event.shouldCommit()) {
+                event.id = file.getName();
+                event.kind = "file";
+                event.size = contents.length;
+                event.commit();
+            }
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -109,35 +134,89 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        writeContentsAs(file, "file", contents);
+    }
+
+    /** Write the result of concatenating the bytes in CONTENTS to FILE as
+     *  for writeContents(File, Object...), recording the write as one of
+     *  data of kind KIND. */
+    private static void writeContentsAs(File file, String kind,
+                                        Object... contents) {
         try {
+            Events.ObjectWrite event = new Events.ObjectWrite();
+            event.begin();
             if (file.isDirectory()) {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long written = 0;
             for (Object obj : contents) {
+                byte[] bytes;
                 if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
+                    bytes = (byte[]) obj;
                 } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                    bytes = ((String) obj).getBytes(StandardCharsets.UTF_8);
                 }
+                str.write(bytes);
+                written += bytes.length;
             }
             str.close();
+            event.end();
+            Metrics.increment(Metrics.Counter.FILES_WRITTEN);
+            Metrics.add(Metrics.Counter.BYTES_WRITTEN, written);
+            if (event.shouldCommit()) {
+                event.id = file.getName();
+                event.kind = kind;
+                event.size = written;
+                event.commit();
+            }
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE is read through its pooled mapping (see ObjectReader).
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
+            Events.ObjectRead event = new Events.ObjectRead();
+            event.begin();
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(ObjectReader.open(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            event.end();
+            long size = file.length();
+            Metrics.increment(Metrics.Counter.OBJECTS_READ);
+            Metrics.add(Metrics.Counter.BYTES_READ, size);
+            if (event.shouldCommit()) {
+                event.id = file.getName();
+                event.kind = expectedClass.getSimpleName();
+                event.size = size;
+                event.commit();
+            }
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return an object of type T read from the contents of FILE, casting
+     *  it to EXPECTEDCLASS. Unlike readObject(), FILE is read rather than
+     *  mapped, so this suits files that are rewritten in place, which a
+     *  pooled mapping would go on showing as they were.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readFileObject(File file,
+                                                     Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(readContents(file)))) {
+            T result = expectedClass.cast(in.readObject());
+            Metrics.increment(Metrics.Counter.OBJECTS_READ);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -147,7 +226,9 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeContentsAs(file, obj.getClass().getSimpleName(),
+                serialize(obj));
+        Metrics.increment(Metrics.Counter.OBJECTS_WRITTEN);
     }
 
     /* DIRECTORIES */
@@ -165,7 +246,16 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        Events.DirectoryScan event = new Events.DirectoryScan();
+        event.begin();
+        Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
         String[] files = dir.list(PLAIN_FILES);
+        event.end();
+        if (event.shouldCommit()) {
+            event.directory = dir.getPath();
+            event.entries = files == null ? 0 : files.length;
+            event.commit();
+        }
         if (files == null) {
             return null;
         } else {
@@ -181,6 +271,23 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the files and directories in the directory DIR, in no
+     *  particular order.  Returns null if DIR does not denote a
+     *  directory. */
+    static File[] listFiles(File dir) {
+        Events.DirectoryScan event = new Events.DirectoryScan();
+        event.begin();
+        Metrics.increment(Metrics.Counter.DIRECTORY_LISTINGS);
+        File[] files = dir.listFiles();
+        event.end();
+        if (event.shouldCommit()) {
+            event.directory = dir.getPath();
+            event.entries = files == null ? 0 : files.length;
+            event.commit();
+        }
+        return files;
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -0,0 +1,179 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** A snapshot of the files of the working directory and the IDs of the
+ *  blobs of their contents. While a monitor is running, the last snapshot
+ *  is kept in the watch directory together with the monitor's token at
+ *  the time it was taken, and the next one is made by re-hashing only the
+ *  files the monitor journaled since. Otherwise every file is listed and
+ *  hashed.
+ *
+ *  The snapshot file consists of the byte VERSION, the token as a UTF
+ *  string, the int number of files, and the name and blob ID of each file
+ *  as UTF strings.
+ *  @author Raman Varma
+ */
+public class WorkingTree {
+
+    /** Version of the snapshot format. */
+    private static final byte VERSION = 1;
+
+    /** The stored snapshot. */
+    private static final File SNAPSHOT = new File(Monitor.WATCH_DIR, "tree");
+
+    /** @return A snapshot of the working directory, brought up to date
+     *  from the monitor's journal if a monitor is running, and otherwise
+     *  made by a full scan. */
+    public static WorkingTree read() {
+        WorkingTree tree = cached();
+        return tree != null ? tree : scan();
+    }
+
+    /** @return A snapshot of the working directory brought up to date from
+     *  the monitor's journal, or null if no monitor is running. */
+    public static WorkingTree cached() {
+        String token = Monitor.token();
+        if (token == null) {
+            return null;
+        }
+        WorkingTree tree = load();
+        Set<String> changed = tree == null ? null
+                : Monitor.changes(tree._token, token);
+        if (changed == null) {
+            tree = scan();
+        } else {
+            Metrics.Phase rescan = Metrics.phase("scan-changed-files");
+            try {
+                for (String fileName : changed) {
+                    File file = new File(fileName);
+                    if (file.isFile()) {
+                        tree._files.put(fileName, hash(file));
+                    } else {
+                        tree._files.remove(fileName);
+                    }
+                }
+            } finally {
+                rescan.close();
+            }
+        }
+        if (!token.equals(tree._token)) {
+            tree._token = token;
+            tree.store();
+        }
+        return tree;
+    }
+
+    /** @return A snapshot of the working directory made by hashing every
+     *  file in it. */
+    private static WorkingTree scan() {
+        WorkingTree tree = new WorkingTree();
+        Metrics.Phase scan = Metrics.phase("scan-working-tree");
+        try {
+            File[] workingFiles = Utils.listFiles(new File("."));
+            if (workingFiles != null) {
+                for (File f : workingFiles) {
+                    if (f.isFile()) {
+                        tree._files.put(f.getName(), hash(f));
+                    }
+                }
+            }
+        } finally {
+            scan.close();
+        }
+        return tree;
+    }
+
+    /** @param file - A file.
+     *  @return The ID of the blob of the contents of FILE, hashed by
+     *  reading it. */
+    private static String hash(File file) {
+        try {
+            return ObjectReader.hash(file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** @return The stored snapshot, or null if there is none or it is
+     *  unreadable. */
+    private static WorkingTree load() {
+        if (!SNAPSHOT.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(SNAPSHOT)))) {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            WorkingTree tree = new WorkingTree();
+            tree._token = in.readUTF();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                tree._files.put(in.readUTF(), in.readUTF());
+            }
+            return tree;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Stores this snapshot, replacing the stored one. Commands that only
+     *  read the repository store it while holding the lock shared, so each
+     *  writes through a temporary file of its own. Since the snapshot is
+     *  only a cache, one that fails to replace the stored snapshot, as when
+     *  another command replaced it first, leaves it as it is. */
+    private void store() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(_token);
+            out.writeInt(_files.size());
+            for (Map.Entry<String, String> file : _files.entrySet()) {
+                out.writeUTF(file.getKey());
+                out.writeUTF(file.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile(SNAPSHOT.getName(), ".tmp",
+                    Monitor.WATCH_DIR);
+            Utils.writeContents(temp, (Object) bytes.toByteArray());
+            Files.move(temp.toPath(), SNAPSHOT.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | IllegalArgumentException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Creates an empty snapshot with no token. */
+    private WorkingTree() {
+        _token = "";
+        _files = new TreeMap<>();
+    }
+
+    /** @return The blob IDs of the files of the working directory, keyed
+     *  by name. */
+    public TreeMap<String, String> files() {
+        return _files;
+    }
+
+    /** The monitor's token at the time of this snapshot, or "" if none. */
+    private String _token;
+
+    /** The blob IDs of the files, keyed by name. */
+    private final TreeMap<String, String> _files;
+}
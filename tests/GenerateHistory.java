@@ -0,0 +1,71 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TreeMap;
+
+/** Appends a deep history to the current branch of the repository in the
+ *  working directory for the benchmarks, writing commits directly rather
+ *  than through the commit command:
+ *      java GenerateHistory DEPTH FILES SIZE
+ *  Each of DEPTH commits changes one of FILES files of about SIZE bytes,
+ *  and the branch "ancestor" is made to point halfway down. The files of
+ *  the new head are written to the working directory.
+ *  @author Raman Varma
+ */
+public class GenerateHistory {
+
+    /** Generates the history described by ARGS.
+     *  @param args - The depth, the number of files and their size. */
+    public static void main(String... args) {
+        int depth = Integer.parseInt(args[0]);
+        int files = Integer.parseInt(args[1]);
+        int size = Integer.parseInt(args[2]);
+        String branch = Main.getCurrentBranch();
+        ObjectId parent = Main.REFS.headCommit();
+        TreeMap<String, String> tracked = new TreeMap<>();
+        long time = System.currentTimeMillis() - 1000L * depth;
+        for (int i = 0; i < depth; i += 1) {
+            byte[] contents = contents(i, size);
+            String blobSHA1 = Utils.sha1((Object) contents);
+            if (!Main.BLOBS.contains(blobSHA1)) {
+                Main.BLOBS.write(blobSHA1, contents);
+            }
+            tracked.put(name(i % files), blobSHA1);
+            Snapshot snapshot = Snapshot.of(tracked);
+            Date timestamp = new Date(time + 1000L * i);
+            String message = "commit " + i;
+            ObjectId commitSHA1 = Commit.id(parent, message, timestamp,
+                    snapshot);
+            Main.writeAtomically(new File(Main.COMMITS,
+                    commitSHA1.toString()), Utils.serialize(new Commit(
+                            parent, message, timestamp, snapshot, null,
+                            commitSHA1)));
+            parent = commitSHA1;
+            if (i == depth / 2) {
+                Main.REFS.write("ancestor", commitSHA1);
+            }
+        }
+        Main.REFS.write(branch, parent);
+        for (int i = Math.max(0, depth - files); i < depth; i += 1) {
+            Utils.writeContents(new File(name(i % files)),
+                    (Object) contents(i, size));
+        }
+    }
+
+    /** @param file - The index of a file.
+     *  @return The name of that file. */
+    private static String name(int file) {
+        return "f" + file + ".txt";
+    }
+
+    /** @param commit - The index of a commit.
+     *  @param size - The approximate size of a file.
+     *  @return The contents of the file that commit changes. */
+    private static byte[] contents(int commit, int size) {
+        StringBuilder contents = new StringBuilder();
+        do {
+            contents.append("commit ").append(commit).append('\n');
+        } while (contents.length() < size);
+        return contents.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
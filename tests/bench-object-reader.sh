@@ -0,0 +1,59 @@
+#!/bin/bash
+# Times the commands that read many objects, and counts the garbage
+# collections they cause. A repository is given $DEPTH commits, each
+# changing one of $FILES files of $SIZE bytes, by GenerateHistory, and the
+# files of the head are written to the working directory. log then reads
+# every commit, status hashes every working file, and fsck reads and
+# hashes every object. Each command is run with a heap of $HEAP and its
+# collections are read from -Xlog:gc. Another build that reads the same
+# repository can be timed on a copy of it too:
+#     OLD=/path/to/old/classes tests/bench-object-reader.sh
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mktemp -d)
+WORK=$(mktemp -d)
+trap 'rm -rf "$CLASSES" "$WORK"' EXIT
+javac -Xlint:none -d "$CLASSES" "$ROOT"/*.java
+javac -Xlint:none -cp "$CLASSES" -d "$CLASSES" \
+    "$ROOT/tests/GenerateHistory.java"
+DEPTH=${DEPTH:-5000}
+FILES=${FILES:-500}
+SIZE=${SIZE:-16384}
+HEAP=${HEAP:-64m}
+
+# Runs gitlet with the classes in $1 and the arguments after it, and
+# prints the milliseconds taken, the number of collections and their
+# total pause in milliseconds.
+measure() {
+    local classes=$1 start end
+    shift
+    rm -f "$WORK/gc.log"
+    start=$(date +%s%N)
+    java -Xmx"$HEAP" -Xlog:gc:file="$WORK/gc.log" -cp "$classes" Main "$@" \
+        > /dev/null 2>&1
+    end=$(date +%s%N)
+    awk -v ms=$(( (end - start) / 1000000 )) '
+        /Pause/ { count += 1; sub(/ms$/, "", $NF); pause += $NF }
+        END { printf "%10d %6d %10.1f", ms, count, pause }' "$WORK/gc.log"
+}
+
+# Times each command in the repository in the working directory with the
+# classes in $1, labelling the results $2.
+run() {
+    for command in log status fsck; do
+        printf "%-6s %-7s %s\n" "$2" "$command" "$(measure "$1" $command)"
+    done
+}
+
+mkdir "$WORK/repo"
+cd "$WORK/repo"
+java -cp "$CLASSES" Main init > /dev/null
+java -cp "$CLASSES" GenerateHistory "$DEPTH" "$FILES" "$SIZE"
+printf "%-6s %-7s %10s %6s %10s\n" build command ms gcs "pause ms"
+if [ -n "$OLD" ]; then
+    cp -r "$WORK/repo" "$WORK/old"
+    cd "$WORK/old"
+    run "$OLD" old
+    cd "$WORK/repo"
+fi
+run "$CLASSES" new
@@ -0,0 +1,68 @@
+#!/bin/bash
+# Times the commands that use reachability bitmaps on deep histories. For
+# each depth in $DEPTHS a repository is given that many commits, each
+# changing one of $FILES files, written directly by GenerateHistory rather
+# than through the commit command so that deep histories are quick to
+# build, with a branch "ancestor" halfway down. The first commit numbers
+# every object and stores the bitmap of the head (cold); a merge of the
+# ancestor and a second commit then only read that bitmap (warm), and
+# should take about as long at every depth. Another build that reads the same repositories
+# can be timed on copies of them too:
+#     OLD=/path/to/old/classes DEPTHS="1000 10000" tests/bench-reachability.sh
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mktemp -d)
+WORK=$(mktemp -d)
+trap 'rm -rf "$CLASSES" "$WORK"' EXIT
+javac -Xlint:none -d "$CLASSES" "$ROOT"/*.java
+javac -Xlint:none -cp "$CLASSES" -d "$CLASSES" \
+    "$ROOT/tests/GenerateHistory.java"
+DEPTHS=${DEPTHS:-"1000 10000"}
+FILES=${FILES:-50}
+
+# Prints the milliseconds taken by running the remaining arguments.
+elapsed() {
+    local start end
+    start=$(date +%s%N)
+    "$@" > /dev/null
+    end=$(date +%s%N)
+    echo $(( (end - start) / 1000000 ))
+}
+
+# Times the operations in the repository in the working directory with
+# the classes in $1, labelling the results $2.
+measure() {
+    local gitlet="java -cp $1 Main"
+    local cold warmMerge warmCommit
+    echo "new" > new.txt
+    $gitlet add new.txt > /dev/null
+    cold=$(elapsed $gitlet commit "new")
+    warmMerge=$(elapsed $gitlet merge ancestor)
+    echo "newer" > new.txt
+    $gitlet add new.txt > /dev/null
+    warmCommit=$(elapsed $gitlet commit "newer")
+    printf "%-6s %8d %12d %12d %12d\n" "$2" "$depth" "$cold" "$warmMerge" \
+        "$warmCommit"
+}
+
+printf "%-6s %8s %12s %12s %12s\n" build depth "cold ms" "merge ms" \
+    "commit ms"
+for depth in $DEPTHS; do
+    repo="$WORK/repo$depth"
+    mkdir "$repo"
+    cd "$repo"
+    java -cp "$CLASSES" Main init > /dev/null
+    java -cp "$CLASSES" GenerateHistory "$depth" "$FILES" 0
+    if [ -n "$OLD" ]; then
+        cp -r "$repo" "$repo.old"
+        cd "$repo.old"
+        measure "$OLD" old
+        cd "$repo"
+    fi
+    measure "$CLASSES" new
+    if ! java -cp "$CLASSES" Main fsck 2> /dev/null \
+            | grep -q "; 0 problems found"; then
+        echo "FAIL: fsck of the repository of depth $depth"
+        exit 1
+    fi
+done
@@ -0,0 +1,41 @@
+#!/bin/bash
+# Runs add and status concurrently in one repository and checks that no
+# command fails, that every file ends up staged, and that the repository
+# lock is left unmarked, as it is only when every writer released it.
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mktemp -d)
+WORK=$(mktemp -d)
+trap 'rm -rf "$CLASSES" "$WORK"' EXIT
+javac -Xlint:none -d "$CLASSES" "$ROOT"/*.java
+GITLET="java -cp $CLASSES Main"
+cd "$WORK"
+$GITLET init > /dev/null
+FILES=16
+for i in $(seq 1 $FILES); do
+    echo "file $i" > "f$i.txt"
+done
+for i in $(seq 1 $FILES); do
+    $GITLET add "f$i.txt" > "add$i.out" 2>&1 &
+    $GITLET status > "status$i.out" 2>&1 &
+done
+wait
+status=0
+if grep -l "Exception\|Another gitlet process" ./*.out; then
+    echo "FAIL: a command failed"
+    status=1
+fi
+staged=$($GITLET status | sed -n '/=== Staged Files ===/,/^$/p' \
+        | grep -c '^f[0-9]*\.txt$' || true)
+if [ "$staged" -ne $FILES ]; then
+    echo "FAIL: $staged of $FILES files staged"
+    status=1
+fi
+if [ -s .gitlet/lock ]; then
+    echo "FAIL: lock still names a writer"
+    status=1
+fi
+if [ $status -eq 0 ]; then
+    echo "PASS"
+fi
+exit $status
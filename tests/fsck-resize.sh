@@ -0,0 +1,50 @@
+#!/bin/bash
+# Checks that fsck verifies commits whose tracked files number 12, 24 and
+# 48, the counts at which a HashMap read back from a commit is given a
+# larger table than the one it was written from, and so serializes its
+# entries in a different order. Each repository is built with the classes
+# in $WRITER (the tree under test by default), so that repositories
+# written by an older build can be checked too:
+#     WRITER=/path/to/old/classes tests/fsck-resize.sh
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mktemp -d)
+WORK=$(mktemp -d)
+trap 'rm -rf "$CLASSES" "$WORK"' EXIT
+javac -Xlint:none -d "$CLASSES" "$ROOT"/*.java
+WRITER=${WRITER:-$CLASSES}
+status=0
+for count in 11 12 13 24 48; do
+    repo="$WORK/repo$count"
+    mkdir "$repo"
+    cd "$repo"
+    java -cp "$WRITER" Main init > /dev/null
+    for i in $(seq 1 "$count"); do
+        echo "file $i" > "f$i.txt"
+        java -cp "$WRITER" Main add "f$i.txt" > /dev/null
+    done
+    java -cp "$WRITER" Main commit "$count files" > /dev/null
+    echo "changed" > f1.txt
+    java -cp "$WRITER" Main add f1.txt > /dev/null
+    java -cp "$WRITER" Main commit "after $count files" > /dev/null
+    result=$(java -cp "$CLASSES" Main fsck 2> /dev/null)
+    if ! grep -q "; 0 problems found" <<< "$result"; then
+        echo "FAIL: $count files"
+        echo "$result"
+        status=1
+    fi
+    # Renaming a file in a stored commit must still be caught.
+    for commit in .gitlet/commits/*; do
+        chmod u+w "$commit"
+        sed -i 's/f2\.txt/f2.txu/' "$commit"
+    done
+    if ! java -cp "$CLASSES" Main fsck 2> /dev/null \
+            | grep -q "^corrupt commit"; then
+        echo "FAIL: $count files: altered commit not reported"
+        status=1
+    fi
+done
+if [ $status -eq 0 ]; then
+    echo "PASS"
+fi
+exit $status
@@ -0,0 +1,58 @@
+#!/bin/bash
+# Checks that prune keeps the history of unreachable commits still within
+# the grace period. A branch C0 -> A -> B is reset to C0, and A and every
+# blob are made older than the grace period while B is not: B is kept, so
+# A and the blobs of both must be kept too, and fsck must find nothing
+# missing. Once B is old as well, all of them are pruned.
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+CLASSES=$(mktemp -d)
+WORK=$(mktemp -d)
+trap 'rm -rf "$CLASSES" "$WORK"' EXIT
+javac -Xlint:none -d "$CLASSES" "$ROOT"/*.java
+gitlet="java -cp $CLASSES Main"
+status=0
+cd "$WORK"
+$gitlet init > /dev/null
+echo "g" > g.txt
+$gitlet add g.txt > /dev/null
+$gitlet commit "C0" > /dev/null
+c0=$($gitlet log | sed -n 's/^commit //p' | head -1)
+echo "a" > f.txt
+$gitlet add f.txt > /dev/null
+$gitlet commit "A" > /dev/null
+a=$($gitlet log | sed -n 's/^commit //p' | head -1)
+echo "b" > f.txt
+$gitlet add f.txt > /dev/null
+$gitlet commit "B" > /dev/null
+$gitlet reset "$c0" > /dev/null
+touch -d "30 days ago" ".gitlet/commits/$a" .gitlet/files/*
+
+result=$($gitlet prune)
+if [ "$result" != "Pruned 0 commits and 0 blobs, reclaiming 0 bytes." ]; then
+    echo "FAIL: young commit: $result"
+    status=1
+fi
+result=$($gitlet fsck 2> /dev/null)
+if ! grep -q "; 0 problems found" <<< "$result"; then
+    echo "FAIL: young commit: fsck"
+    echo "$result"
+    status=1
+fi
+
+touch -d "30 days ago" .gitlet/commits/*
+result=$($gitlet prune)
+if ! grep -q "^Pruned 2 commits and 2 blobs" <<< "$result"; then
+    echo "FAIL: old commits: $result"
+    status=1
+fi
+result=$($gitlet fsck 2> /dev/null)
+if ! grep -q "; 0 problems found" <<< "$result"; then
+    echo "FAIL: old commits: fsck"
+    echo "$result"
+    status=1
+fi
+if [ $status -eq 0 ]; then
+    echo "PASS"
+fi
+exit $status